@@ -16,6 +16,12 @@ public class SolrPluginConstants {
     
     public static final String JSON_FORMAT_TYPE = "json";
 
+    public static final String CSV_FORMAT_TYPE = "csv";
+
+    public static final String CBOR_FORMAT_TYPE = "cbor";
+
+    public static final String SMILE_FORMAT_TYPE = "smile";
+
     public static final String NONE_FORMAT_TYPE = "none";
 
     public static final String FACET_FIELD_PREFIX = "facet_field_";
@@ -0,0 +1,95 @@
+package org.codelibs.elasticsearch.solr.index.mapper;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+/**
+ * Provides cached {@link MappingView}s of the mappings in the cluster state.
+ * A view is rebuilt only when the mapping it was created from is replaced in
+ * the cluster state.
+ */
+public class FieldTypeResolver extends AbstractComponent {
+
+    private final ClusterService clusterService;
+
+    private final ConcurrentMap<String, MappingView> viewMap = ConcurrentCollections
+            .newConcurrentMap();
+
+    @Inject
+    public FieldTypeResolver(final Settings settings,
+            final ClusterService clusterService) {
+        super(settings);
+        this.clusterService = clusterService;
+    }
+
+    /**
+     * Returns the mapping view for the given index and type. If the index is
+     * an alias, the mapping of the first concrete index is used.
+     *
+     * @param index
+     *            the index name or alias
+     * @param type
+     *            the type name
+     * @return the mapping view, or {@link MappingView#EMPTY} if no mapping
+     *         exists
+     */
+    public MappingView getMappingView(final String index, final String type) {
+        final MetaData metaData = clusterService.state().metaData();
+        IndexMetaData indexMetaData = metaData.index(index);
+        if (indexMetaData == null) {
+            final String[] concreteIndices = metaData.concreteIndices(
+                    IndicesOptions.lenientExpandOpen(), index);
+            if (concreteIndices.length == 0) {
+                return MappingView.EMPTY;
+            }
+            indexMetaData = metaData.index(concreteIndices[0]);
+            if (indexMetaData == null) {
+                return MappingView.EMPTY;
+            }
+        }
+
+        final MappingMetaData mappingMetaData = indexMetaData.mapping(type);
+        if (mappingMetaData == null) {
+            return MappingView.EMPTY;
+        }
+
+        final String key = indexMetaData.getIndex() + '/' + type;
+        final MappingView view = viewMap.get(key);
+        if (view != null && view.getMappingMetaData() == mappingMetaData) {
+            return view;
+        }
+
+        try {
+            final MappingView newView = MappingView.create(mappingMetaData,
+                    getMapping(mappingMetaData, type));
+            viewMap.put(key, newView);
+            return newView;
+        } catch (final IOException e) {
+            logger.warn("Failed to parse the mapping of {}/{}", e,
+                    indexMetaData.getIndex(), type);
+            return MappingView.EMPTY;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getMapping(
+            final MappingMetaData mappingMetaData, final String type)
+            throws IOException {
+        final Map<String, Object> mapping = mappingMetaData.sourceAsMap();
+        if (mapping.size() == 1 && mapping.get(type) instanceof Map) {
+            return (Map<String, Object>) mapping.get(type);
+        }
+        return mapping;
+    }
+}
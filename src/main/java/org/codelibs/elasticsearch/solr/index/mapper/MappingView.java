@@ -0,0 +1,224 @@
+package org.codelibs.elasticsearch.solr.index.mapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codelibs.elasticsearch.solr.index.mapper.date.SolrDateFieldMapper;
+import org.codelibs.elasticsearch.solr.solr.IsoDateParser;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+
+/**
+ * A flattened, read-only view of a type mapping. Object fields are expanded
+ * into dotted paths so that a field name in a Solr document can be looked up
+ * directly.
+ */
+public class MappingView {
+
+    public static final MappingView EMPTY = new MappingView(null,
+            Collections.<String, String> emptyMap(),
+            Collections.<String> emptySet());
+
+    private final MappingMetaData mappingMetaData;
+
+    private final Map<String, String> fieldTypes;
+
+    private final Set<String> docValueFields;
+
+    MappingView(final MappingMetaData mappingMetaData,
+            final Map<String, String> fieldTypes,
+            final Set<String> docValueFields) {
+        this.mappingMetaData = mappingMetaData;
+        this.fieldTypes = fieldTypes;
+        this.docValueFields = docValueFields;
+    }
+
+    static MappingView create(final MappingMetaData mappingMetaData,
+            final Map<String, Object> mapping) {
+        final Map<String, String> fieldTypes = new HashMap<String, String>();
+        final Set<String> docValueFields = new HashSet<String>();
+        collectFieldTypes(null, mapping, fieldTypes, docValueFields);
+        return new MappingView(mappingMetaData, fieldTypes, docValueFields);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void collectFieldTypes(final String prefix,
+            final Map<String, Object> mapping,
+            final Map<String, String> fieldTypes,
+            final Set<String> docValueFields) {
+        final Object properties = mapping.get("properties");
+        if (!(properties instanceof Map)) {
+            return;
+        }
+
+        for (final Map.Entry<String, Object> entry : ((Map<String, Object>) properties)
+                .entrySet()) {
+            if (!(entry.getValue() instanceof Map)) {
+                continue;
+            }
+            final String name = prefix == null ? entry.getKey() : prefix + '.'
+                    + entry.getKey();
+            final Map<String, Object> fieldMapping = (Map<String, Object>) entry
+                    .getValue();
+            final Object type = fieldMapping.get("type");
+            if (type != null) {
+                fieldTypes.put(name, type.toString());
+            } else if (fieldMapping.containsKey("properties")) {
+                fieldTypes.put(name, "object");
+            }
+            if (isDocValuesMapping(fieldMapping)) {
+                docValueFields.add(name);
+            }
+            collectFieldTypes(name, fieldMapping, fieldTypes, docValueFields);
+        }
+    }
+
+    private static boolean isDocValuesMapping(
+            final Map<String, Object> fieldMapping) {
+        if ("true".equals(String.valueOf(fieldMapping.get("doc_values")))) {
+            return true;
+        }
+        final Object fielddata = fieldMapping.get("fielddata");
+        return fielddata instanceof Map
+                && "doc_values".equals(((Map<?, ?>) fielddata).get("format"));
+    }
+
+    MappingMetaData getMappingMetaData() {
+        return mappingMetaData;
+    }
+
+    /**
+     * Returns the mapped type of the field, such as "string", "integer" or
+     * "solr_date".
+     *
+     * @param name
+     *            the full path of the field
+     * @return the field type, or null if the field is not mapped
+     */
+    public String getFieldType(final String name) {
+        return fieldTypes.get(name);
+    }
+
+    /**
+     * @param name
+     *            the full path of the field
+     * @return true if the values of the field are stored in doc values
+     */
+    public boolean hasDocValues(final String name) {
+        return docValueFields.contains(name);
+    }
+
+    public boolean isEmpty() {
+        return fieldTypes.isEmpty();
+    }
+
+    /**
+     * Converts a text value into the Java type matching the field mapping.
+     * Values that are not mapped to a numeric or boolean field, or that cannot
+     * be parsed, are returned as is and left to Elasticsearch.
+     *
+     * @param name
+     *            the full path of the field
+     * @param value
+     *            the text value
+     * @return the converted value
+     */
+    public Object convertValue(final String name, final String value) {
+        final String type = fieldTypes.get(name);
+        if (type == null || value.isEmpty()) {
+            return value;
+        }
+
+        try {
+            switch (type) {
+            case "integer":
+            case "short":
+            case "byte":
+                return Integer.valueOf(value.trim());
+            case "long":
+                return Long.valueOf(value.trim());
+            case "float":
+                return Float.valueOf(value.trim());
+            case "double":
+                return Double.valueOf(value.trim());
+            case "boolean":
+                final String bool = value.trim();
+                if ("true".equalsIgnoreCase(bool)) {
+                    return Boolean.TRUE;
+                } else if ("false".equalsIgnoreCase(bool)) {
+                    return Boolean.FALSE;
+                }
+                return value;
+            default:
+                return value;
+            }
+        } catch (final NumberFormatException e) {
+            return value;
+        }
+    }
+
+    /**
+     * Converts a value of a returned document into the Java type that Solr
+     * returns for the field mapping. Date fields become Dates, float and
+     * long fields keep their precision, and integer, short and byte fields
+     * are Integers whether the value is from the source or doc values. Values of unmapped fields are returned
+     * as is.
+     *
+     * @param name
+     *            the full path of the field
+     * @param value
+     *            the value from the source or the fields of a hit
+     * @return the converted value
+     */
+    public Object convertResponseValue(final String name, final Object value) {
+        final String type = fieldTypes.get(name);
+        if (type == null || value == null) {
+            return value;
+        }
+        if (value instanceof List) {
+            final List<?> values = (List<?>) value;
+            final List<Object> converted = new ArrayList<Object>(
+                    values.size());
+            for (final Object v : values) {
+                converted.add(convertSingleValue(type, v));
+            }
+            return converted;
+        }
+        return convertSingleValue(type, value);
+    }
+
+    private static Object convertSingleValue(final String type,
+            final Object value) {
+        switch (type) {
+        case "date":
+        case SolrDateFieldMapper.CONTENT_TYPE:
+            if (value instanceof String) {
+                final Date date = IsoDateParser.parseDate((String) value);
+                return date == null ? value : date;
+            } else if (value instanceof Number) {
+                // doc values of dates are epoch milliseconds
+                return new Date(((Number) value).longValue());
+            }
+            return value;
+        case "float":
+            return value instanceof Double ? Float.valueOf(((Double) value)
+                    .floatValue()) : value;
+        case "integer":
+        case "short":
+        case "byte":
+            // doc values of integral fields are longs
+            return value instanceof Long ? Integer.valueOf(((Long) value)
+                    .intValue()) : value;
+        case "long":
+            return value instanceof Integer ? Long.valueOf(((Integer) value)
+                    .longValue()) : value;
+        default:
+            return value;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.codelibs.elasticsearch.solr.plugin;
+
+import org.codelibs.elasticsearch.solr.index.mapper.FieldTypeResolver;
+import org.codelibs.elasticsearch.solr.search.CursorService;
+import org.codelibs.elasticsearch.solr.search.DocumentCache;
+import org.codelibs.elasticsearch.solr.search.FilterCache;
+import org.codelibs.elasticsearch.solr.search.QueryResultCache;
+import org.codelibs.elasticsearch.solr.solr.ResponseCompression;
+import org.codelibs.elasticsearch.solr.solr.ResponseWriters;
+import org.codelibs.elasticsearch.solr.update.AsyncUpdateService;
+import org.codelibs.elasticsearch.solr.update.FieldNamePool;
+import org.codelibs.elasticsearch.solr.update.FileImportService;
+import org.codelibs.elasticsearch.solr.update.IndexRequestFactory;
+import org.elasticsearch.common.inject.AbstractModule;
+
+public class SolrModule extends AbstractModule {
+    @Override
+    protected void configure() {
+        this.bind(FieldTypeResolver.class).asEagerSingleton();
+        this.bind(FieldNamePool.class).asEagerSingleton();
+        this.bind(ResponseCompression.class).asEagerSingleton();
+        this.bind(ResponseWriters.class).asEagerSingleton();
+        this.bind(FilterCache.class).asEagerSingleton();
+        this.bind(QueryResultCache.class).asEagerSingleton();
+        this.bind(DocumentCache.class).asEagerSingleton();
+        this.bind(CursorService.class).asEagerSingleton();
+        this.bind(IndexRequestFactory.class).asEagerSingleton();
+        this.bind(FileImportService.class).asEagerSingleton();
+        this.bind(AsyncUpdateService.class).asEagerSingleton();
+    }
+}
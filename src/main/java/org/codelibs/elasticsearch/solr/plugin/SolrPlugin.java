@@ -3,8 +3,12 @@ package org.codelibs.elasticsearch.solr.plugin;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import org.codelibs.elasticsearch.solr.rest.SolrAdminRestAction;
+import org.codelibs.elasticsearch.solr.rest.SolrExportRestAction;
 import org.codelibs.elasticsearch.solr.rest.SolrSearchRestAction;
 import org.codelibs.elasticsearch.solr.rest.SolrUpdateRestAction;
+import org.codelibs.elasticsearch.solr.update.AsyncUpdateService;
+import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.plugins.AbstractPlugin;
 import org.elasticsearch.rest.RestModule;
@@ -32,6 +36,23 @@ public class SolrPlugin extends AbstractPlugin {
     public void onModule(final RestModule module) {
         module.addRestAction(SolrUpdateRestAction.class);
         module.addRestAction(SolrSearchRestAction.class);
+        module.addRestAction(SolrAdminRestAction.class);
+        module.addRestAction(SolrExportRestAction.class);
+    }
+
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        final Collection<Class<? extends Module>> modules = new ArrayList<Class<? extends Module>>();
+        modules.add(SolrModule.class);
+        return modules;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> services() {
+        final Collection<Class<? extends LifecycleComponent>> services = new ArrayList<Class<? extends LifecycleComponent>>();
+        services.add(AsyncUpdateService.class);
+        return services;
     }
 
     @Override
@@ -0,0 +1,133 @@
+package org.codelibs.elasticsearch.solr.rest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Opens the content of an update request as a stream. Content sent with
+ * "Content-Encoding: gzip" or "deflate" is inflated while it is read, so the
+ * decoders never see the whole inflated body at once.
+ */
+public class ContentStreams {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private ContentStreams() {
+    }
+
+    /**
+     * Returns true if the request content is compressed.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @return true if the content has to be inflated
+     */
+    public static boolean isCompressed(final RestRequest request) {
+        final String encoding = request.header("Content-Encoding");
+        return encoding != null && !encoding.trim().isEmpty()
+                && !"identity".equalsIgnoreCase(encoding.trim());
+    }
+
+    /**
+     * Opens the request content.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @param maxInflatedBytes
+     *            the maximum number of bytes read from compressed content
+     * @return the content stream
+     * @throws IOException
+     *             if the content encoding is not supported
+     */
+    public static InputStream open(final RestRequest request,
+            final long maxInflatedBytes) throws IOException {
+        final InputStream in = request.content().streamInput();
+        if (!isCompressed(request)) {
+            return in;
+        }
+
+        final String encoding = request.header("Content-Encoding").trim()
+                .toLowerCase(Locale.ROOT);
+        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            return new LimitedInputStream(new GZIPInputStream(in, BUFFER_SIZE),
+                    maxInflatedBytes);
+        } else if ("deflate".equals(encoding)) {
+            return new LimitedInputStream(new InflaterInputStream(in,
+                    new Inflater(isRawDeflate(request)), BUFFER_SIZE),
+                    maxInflatedBytes);
+        }
+        throw new IOException("Unsupported Content-Encoding: " + encoding);
+    }
+
+    private static boolean isRawDeflate(final RestRequest request) {
+        // RFC 1950 says deflate is zlib-wrapped, but some clients send raw
+        // deflate data. A zlib header is CMF=0x78 with a checksum of 31.
+        if (request.content().length() < 2) {
+            return false;
+        }
+        final int cmf = request.content().get(0) & 0xff;
+        final int flg = request.content().get(1) & 0xff;
+        return (cmf & 0x0f) != 8 || (cmf << 8 | flg) % 31 != 0;
+    }
+
+    /**
+     * Counts the inflated bytes and fails when they exceed the limit.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+
+        private long count = 0;
+
+        LimitedInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+                throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(final long n) throws IOException {
+            count += n;
+            if (count > limit) {
+                throw new IOException("The inflated content exceeds "
+                        + limit + " bytes.");
+            }
+        }
+    }
+}
@@ -3,10 +3,8 @@ package org.codelibs.elasticsearch.solr.rest;
 import static org.elasticsearch.common.unit.ByteSizeValue.*;
 import static org.elasticsearch.common.unit.TimeValue.*;
 
-import java.net.URLDecoder;
-import java.util.ArrayList;
+import java.nio.charset.Charset;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -20,6 +18,11 @@ import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.rest.RestRequest;
 
 /**
+ * A request whose parameters are decoded from the query string and the
+ * form-urlencoded body, keeping the repeated parameters of Solr requests. The
+ * parameters are decoded once when the first one is read. The arrays returned
+ * by paramAsStringArray are shared by the callers and must not be modified.
+ *
  * @author shinsuke
  *
  */
@@ -27,100 +30,21 @@ public class ExtendedRestRequest extends RestRequest {
     private static ESLogger logger = ESLoggerFactory
             .getLogger(ExtendedRestRequest.class.getName());
 
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
     private RestRequest parent;
 
-    private volatile Map<String, List<String>> paramMap;
+    private volatile RequestParams requestParams;
 
     public ExtendedRestRequest(final RestRequest request) {
         parent = request;
     }
 
-    private String getPath(final String uri) {
-        final int pathEndPos = uri.indexOf('?');
-        if (pathEndPos < 0) {
-            return uri;
-        } else {
-            return uri.substring(0, pathEndPos);
-        }
-    }
-
-    private Map<String, List<String>> decodeParams(final String s,
-            final String charset) {
-        final Map<String, List<String>> params = new LinkedHashMap<String, List<String>>();
-        String name = null;
-        int pos = 0; // Beginning of the unprocessed region
-        int i; // End of the unprocessed region
-        char c = 0; // Current character
-        for (i = 0; i < s.length(); i++) {
-            c = s.charAt(i);
-            if (c == '=' && name == null) {
-                if (pos != i) {
-                    name = decodeComponent(s.substring(pos, i), charset);
-                }
-                pos = i + 1;
-            } else if (c == '&') {
-                if (name == null && pos != i) {
-                    // We haven't seen an `=' so far but moved forward.
-                    // Must be a param of the form '&a&' so add it with
-                    // an empty value.
-                    addParam(params,
-                            decodeComponent(s.substring(pos, i), charset), "");
-                } else if (name != null) {
-                    addParam(params, name,
-                            decodeComponent(s.substring(pos, i), charset));
-                    name = null;
-                }
-                pos = i + 1;
-            }
-        }
-
-        if (pos != i) { // Are there characters we haven't dealt with?
-            if (name == null) { // Yes and we haven't seen any `='.
-                addParam(params, decodeComponent(s.substring(pos, i), charset),
-                        "");
-            } else { // Yes and this must be the last value.
-                addParam(params, name,
-                        decodeComponent(s.substring(pos, i), charset));
-            }
-        } else if (name != null) { // Have we seen a name without value?
-            addParam(params, name, "");
-        }
-
-        return params;
-    }
-
-    private String decodeComponent(final String s, final String charset) {
-        if (s == null) {
-            return "";
-        }
-
-        try {
-            return URLDecoder.decode(s, charset);
-        } catch (final Exception e) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("Failed to decode {} by {}", s, charset);
-            }
-            return s;
-        }
-    }
-
-    private static void addParam(final Map<String, List<String>> params,
-            final String name, final String value) {
-        List<String> values = params.get(name);
-        if (values == null) {
-            values = new ArrayList<String>(1);
-            params.put(name, values);
-        }
-        values.add(value);
-    }
-
     @Override
     public String param(final String key, final String defaultValue) {
-        final List<String> list = getParameterMap().get(key);
-        if (list != null && !list.isEmpty()) {
-            return list.get(0);
-        }
-        return defaultValue;
+        final RequestParams params = getRequestParams();
+        final int index = params.indexOf(key);
+        return index >= 0 ? params.value(index) : defaultValue;
     }
 
     @Override
@@ -160,7 +84,7 @@ public class ExtendedRestRequest extends RestRequest {
 
     @Override
     public boolean hasParam(final String key) {
-        return getParameterMap().containsKey(key);
+        return getRequestParams().indexOf(key) >= 0;
     }
 
     @Override
@@ -171,25 +95,39 @@ public class ExtendedRestRequest extends RestRequest {
     @Override
     public String[] paramAsStringArray(final String key,
             final String[] defaultValue) {
-        final List<String> list = getParameterMap().get(key);
-        if (list != null) {
-            if (list.size() == 1) {
-                return Strings.splitStringByCommaToArray(list.get(0));
-            }
-            return list.toArray(new String[list.size()]);
+        final RequestParams params = getRequestParams();
+        final int index = params.indexOf(key);
+        if (index < 0) {
+            return defaultValue;
+        }
+        final Object parsed = params.getParsedValue(index);
+        if (parsed instanceof String[]) {
+            return (String[]) parsed;
         }
-        return defaultValue;
+        final String[] values = params.count(key) == 1 ? Strings
+                .splitStringByCommaToArray(params.value(index)) : params
+                .getAll(key);
+        params.setParsedValue(index, values);
+        return values;
     }
 
     @Override
     public float paramAsFloat(final String key, final float defaultValue) {
-        final String value = param(key, null);
-        if (value == null) {
+        final RequestParams params = getRequestParams();
+        final int index = params.indexOf(key);
+        if (index < 0) {
             return defaultValue;
         }
+        final Object parsed = params.getParsedValue(index);
+        if (parsed instanceof Float) {
+            return (Float) parsed;
+        }
 
+        final String value = params.value(index);
         try {
-            return Float.parseFloat(value);
+            final float number = Float.parseFloat(value);
+            params.setParsedValue(index, number);
+            return number;
         } catch (final NumberFormatException e) {
             throw new ElasticsearchIllegalArgumentException(
                     "Failed to parse float parameter [" + key
@@ -199,33 +137,49 @@ public class ExtendedRestRequest extends RestRequest {
 
     @Override
     public int paramAsInt(final String key, final int defaultValue) {
-        final String value = param(key, null);
-        if (value == null) {
+        final RequestParams params = getRequestParams();
+        final int index = params.indexOf(key);
+        if (index < 0) {
             return defaultValue;
         }
+        final Object parsed = params.getParsedValue(index);
+        if (parsed instanceof Integer) {
+            return (Integer) parsed;
+        }
 
+        final String value = params.value(index);
         try {
-            return Integer.parseInt(value);
+            final int number = Integer.parseInt(value);
+            params.setParsedValue(index, number);
+            return number;
         } catch (final NumberFormatException e) {
             throw new ElasticsearchIllegalArgumentException(
-                    "Failed to parse int parameter [" + key + "] with value ["
-                            + value + "]", e);
+                    "Failed to parse int parameter [" + key
+                            + "] with value [" + value + "]", e);
         }
     }
 
     @Override
     public long paramAsLong(final String key, final long defaultValue) {
-        final String value = param(key, null);
-        if (value == null) {
+        final RequestParams params = getRequestParams();
+        final int index = params.indexOf(key);
+        if (index < 0) {
             return defaultValue;
         }
+        final Object parsed = params.getParsedValue(index);
+        if (parsed instanceof Long) {
+            return (Long) parsed;
+        }
 
+        final String value = params.value(index);
         try {
-            return Long.parseLong(value);
+            final long number = Long.parseLong(value);
+            params.setParsedValue(index, number);
+            return number;
         } catch (final NumberFormatException e) {
             throw new ElasticsearchIllegalArgumentException(
-                    "Failed to parse long parameter [" + key + "] with value ["
-                            + value + "]", e);
+                    "Failed to parse long parameter [" + key
+                            + "] with value [" + value + "]", e);
         }
     }
 
@@ -269,33 +223,72 @@ public class ExtendedRestRequest extends RestRequest {
 
     @Override
     public Map<String, String> params() {
+        final RequestParams params = getRequestParams();
         final Map<String, String> map = new HashMap<String, String>();
-        for (final Map.Entry<String, List<String>> entry : getParameterMap()
-                .entrySet()) {
-            final List<String> valueList = entry.getValue();
-            if (valueList != null) {
-                final StringBuilder buf = new StringBuilder();
-                for (final String value : valueList) {
-                    if (buf.length() != 0) {
-                        buf.append(',');
-                    }
-                    buf.append(value);
+        for (final String name : params.distinctNames()) {
+            final StringBuilder buf = new StringBuilder();
+            for (final String value : params.getAll(name)) {
+                if (buf.length() != 0) {
+                    buf.append(',');
                 }
-                map.put(entry.getKey(), buf.toString());
-            } else {
-                map.put(entry.getKey(), null);
+                buf.append(value);
             }
+            map.put(name, buf.toString());
         }
         return map;
     }
 
-    private Map<String, List<String>> getParameterMap() {
-        if (paramMap == null) {
+    /**
+     * Returns a single character parameter, such as a CSV separator. The
+     * value "\t" is a tab as well as a tab sent as %09.
+     *
+     * @param request
+     *            the request
+     * @param key
+     *            the name of the parameter
+     * @param defaultValue
+     *            the character if the parameter is missing or empty
+     * @return the character
+     * @throws ElasticsearchIllegalArgumentException
+     *             if the value has more than one character
+     */
+    public static char paramAsChar(final RestRequest request,
+            final String key, final char defaultValue) {
+        final String value = request.param(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        if ("\\t".equals(value)) {
+            return '\t';
+        }
+        if (value.length() != 1) {
+            throw new ElasticsearchIllegalArgumentException(
+                    "Failed to parse char parameter [" + key
+                            + "] with value [" + value + "]");
+        }
+        return value.charAt(0);
+    }
+
+    /**
+     * @return the names of the parameters without duplicates, in the order of
+     *         the request
+     */
+    public List<String> paramNames() {
+        return getRequestParams().distinctNames();
+    }
+
+    private RequestParams getRequestParams() {
+        RequestParams params = requestParams;
+        if (params == null) {
             synchronized (this) {
-                initParameterMap();
+                params = requestParams;
+                if (params == null) {
+                    params = decodeParams();
+                    requestParams = params;
+                }
             }
         }
-        return paramMap;
+        return params;
     }
 
     private boolean isAppendPostData(final String contentType) {
@@ -303,46 +296,55 @@ public class ExtendedRestRequest extends RestRequest {
             return true;
         }
         return contentType.indexOf("application/javabin") < 0
-                && contentType.indexOf("application/xml") < 0;
+                && contentType.indexOf("application/xml") < 0
+                && contentType.indexOf("text/csv") < 0
+                && contentType.indexOf("application/csv") < 0;
     }
 
-    private void initParameterMap() {
-        final StringBuilder uriBuf = new StringBuilder(200);
-        uriBuf.append(parent.uri());
-        final boolean isPost = parent.method() == RestRequest.Method.POST;
-        if (isPost && isAppendPostData(parent.header("Content-Type"))) {
-            if (parent.uri().indexOf('?') >= 0) {
-                uriBuf.append('&');
-            } else {
-                uriBuf.append('?');
+    private Charset getCharset() {
+        final String charset = parent.header("Accept-Charset");
+        if (charset != null) {
+            try {
+                return Charset.forName(charset);
+            } catch (final Exception e) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Unsupported charset: {}", charset);
+                }
             }
-            uriBuf.append(parent.content().toUtf8());
         }
+        return DEFAULT_CHARSET;
+    }
 
-        Map<String, List<String>> requestParamMap;
-        final String uri = uriBuf.toString();
-        final int pathLength = getPath(uri).length();
-        if (uri.length() == pathLength) {
-            requestParamMap = new LinkedHashMap<String, List<String>>();
-        } else {
+    private RequestParams decodeParams() {
+        final RequestParams params = new RequestParams();
+        final Charset charset = getCharset();
 
-            String charset = parent.header("Accept-Charset");
-            if (charset == null) {
-                charset = "UTF-8";
-            }
+        final String uri = parent.uri();
+        final int queryStart = uri.indexOf('?');
+        if (queryStart >= 0) {
+            params.parse(uri, queryStart + 1, charset);
+        }
 
-            requestParamMap = decodeParams(uri.substring(pathLength + 1),
-                    charset);
+        final boolean isPost = parent.method() == RestRequest.Method.POST;
+        if (isPost && isAppendPostData(parent.header("Content-Type"))
+                && !parent.rawPath().endsWith("/update/csv")
+                && !ContentStreams.isCompressed(parent)) {
+            final BytesReference content = parent.content();
+            if (content.hasArray()) {
+                params.parse(content.array(), content.arrayOffset(),
+                        content.length(), charset);
+            } else {
+                final byte[] bytes = content.toBytes();
+                params.parse(bytes, 0, bytes.length, charset);
+            }
         }
 
         for (final Map.Entry<String, String> entry : parent.params().entrySet()) {
-            if (!requestParamMap.containsKey(entry.getKey())) {
-                final List<String> list = new ArrayList<String>(1);
-                list.add(entry.getValue());
-                requestParamMap.put(entry.getKey(), list);
+            if (params.indexOf(entry.getKey()) < 0) {
+                params.add(entry.getKey(), entry.getValue());
             }
         }
-        paramMap = requestParamMap;
+        return params;
     }
 
 }
@@ -0,0 +1,330 @@
+package org.codelibs.elasticsearch.solr.rest;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The parameters of a query string or a form-urlencoded body, decoded in one
+ * pass. The names and values are kept in arrays in the order of the request,
+ * and a name or value is copied into a new String only once, without a
+ * decoding buffer unless it has a percent-escape or a plus sign. Requests
+ * have few parameters, so they are looked up by scanning the names.
+ *
+ * The comma-separated arrays and the numbers parsed from the values are kept
+ * by the index of the parameter, so a parameter read by several components is
+ * split and parsed only once.
+ */
+class RequestParams {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    private String[] values = new String[INITIAL_CAPACITY];
+
+    // the arrays or numbers parsed from the values
+    private Object[] parsedValues = new Object[INITIAL_CAPACITY];
+
+    private int size;
+
+    private List<String> distinctNames;
+
+    private byte[] decodeBuffer;
+
+    /**
+     * @return the number of parameters
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param index
+     *            the index of the parameter
+     * @return the name of the parameter
+     */
+    String name(final int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index
+     *            the index of the parameter
+     * @return the value of the parameter
+     */
+    String value(final int index) {
+        return values[index];
+    }
+
+    /**
+     * @param name
+     *            the name of a parameter
+     * @return the index of the first parameter of the name, or -1
+     */
+    int indexOf(final String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param name
+     *            the name of a parameter
+     * @return the number of the parameters of the name
+     */
+    int count(final String name) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param name
+     *            the name of a parameter
+     * @return the values of the parameters of the name in order
+     */
+    String[] getAll(final String name) {
+        final String[] result = new String[count(name)];
+        int pos = 0;
+        for (int i = 0; i < size && pos < result.length; i++) {
+            if (names[i].equals(name)) {
+                result[pos++] = values[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the names of the parameters without duplicates, in order
+     */
+    List<String> distinctNames() {
+        if (distinctNames == null) {
+            final List<String> list = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                if (indexOf(names[i]) == i) {
+                    list.add(names[i]);
+                }
+            }
+            distinctNames = list;
+        }
+        return distinctNames;
+    }
+
+    /**
+     * @param index
+     *            the index of the parameter
+     * @return the value parsed by a typed accessor, or null
+     */
+    Object getParsedValue(final int index) {
+        return parsedValues[index];
+    }
+
+    /**
+     * @param index
+     *            the index of the parameter
+     * @param value
+     *            the value parsed by a typed accessor
+     */
+    void setParsedValue(final int index, final Object value) {
+        parsedValues[index] = value;
+    }
+
+    /**
+     * Adds a parameter.
+     *
+     * @param name
+     *            the name
+     * @param value
+     *            the value
+     */
+    void add(final String name, final String value) {
+        if (size == names.length) {
+            final int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            parsedValues = Arrays.copyOf(parsedValues, capacity);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+        distinctNames = null;
+    }
+
+    /**
+     * Decodes the parameters of a query string, such as the part of a URI
+     * after '?'.
+     *
+     * @param s
+     *            the string
+     * @param start
+     *            the start of the query string in s
+     * @param charset
+     *            the charset of percent-escaped bytes
+     */
+    void parse(final String s, final int start, final Charset charset) {
+        final int length = s.length();
+        int pos = start;
+        while (pos < length) {
+            int end = pos;
+            int eq = -1;
+            char c;
+            while (end < length && (c = s.charAt(end)) != '&') {
+                if (eq < 0 && c == '=') {
+                    eq = end;
+                }
+                end++;
+            }
+            if (eq < 0) {
+                eq = end;
+            }
+            if (eq > pos) {
+                final String name = decode(s, pos, eq, charset);
+                final String value = eq < end ? decode(s, eq + 1, end,
+                        charset) : "";
+                add(name, value);
+            }
+            pos = end + 1;
+        }
+    }
+
+    /**
+     * Decodes the parameters of form-urlencoded content.
+     *
+     * @param bytes
+     *            the content
+     * @param offset
+     *            the offset of the content
+     * @param length
+     *            the length of the content
+     * @param charset
+     *            the charset of the content
+     */
+    void parse(final byte[] bytes, final int offset, final int length,
+            final Charset charset) {
+        final int limit = offset + length;
+        int pos = offset;
+        while (pos < limit) {
+            int end = pos;
+            int eq = -1;
+            while (end < limit && bytes[end] != '&') {
+                if (eq < 0 && bytes[end] == '=') {
+                    eq = end;
+                }
+                end++;
+            }
+            if (eq < 0) {
+                eq = end;
+            }
+            if (eq > pos) {
+                final String name = decode(bytes, pos, eq, charset);
+                final String value = eq < end ? decode(bytes, eq + 1, end,
+                        charset) : "";
+                add(name, value);
+            }
+            pos = end + 1;
+        }
+    }
+
+    private String decode(final String s, final int start, final int end,
+            final Charset charset) {
+        int i = start;
+        while (i < end) {
+            final char c = s.charAt(i);
+            if (c == '%' || c == '+') {
+                break;
+            }
+            i++;
+        }
+        if (i == end) {
+            return s.substring(start, end);
+        }
+
+        final StringBuilder buf = new StringBuilder(end - start);
+        buf.append(s, start, i);
+        byte[] bytes = null;
+        while (i < end) {
+            final char c = s.charAt(i);
+            if (c == '+') {
+                buf.append(' ');
+                i++;
+            } else if (c == '%') {
+                // decode the run of percent-escaped bytes at once
+                if (bytes == null) {
+                    bytes = getDecodeBuffer((end - i) / 3);
+                }
+                int n = 0;
+                while (i + 2 < end && s.charAt(i) == '%') {
+                    final int hi = Character.digit(s.charAt(i + 1), 16);
+                    final int lo = Character.digit(s.charAt(i + 2), 16);
+                    if (hi < 0 || lo < 0) {
+                        break;
+                    }
+                    bytes[n++] = (byte) (hi << 4 | lo);
+                    i += 3;
+                }
+                if (n == 0) {
+                    // not an escape
+                    buf.append(c);
+                    i++;
+                } else {
+                    buf.append(new String(bytes, 0, n, charset));
+                }
+            } else {
+                buf.append(c);
+                i++;
+            }
+        }
+        return buf.toString();
+    }
+
+    private String decode(final byte[] bytes, final int start, final int end,
+            final Charset charset) {
+        int i = start;
+        while (i < end && bytes[i] != '%' && bytes[i] != '+') {
+            i++;
+        }
+        if (i == end) {
+            return new String(bytes, start, end - start, charset);
+        }
+
+        final byte[] buf = getDecodeBuffer(end - start);
+        int n = i - start;
+        System.arraycopy(bytes, start, buf, 0, n);
+        while (i < end) {
+            final byte b = bytes[i];
+            if (b == '+') {
+                buf[n++] = ' ';
+                i++;
+            } else if (b == '%' && i + 2 < end && isHexDigit(bytes[i + 1])
+                    && isHexDigit(bytes[i + 2])) {
+                buf[n++] = (byte) (Character.digit(bytes[i + 1], 16) << 4
+                        | Character.digit(bytes[i + 2], 16));
+                i += 3;
+            } else {
+                buf[n++] = b;
+                i++;
+            }
+        }
+        return new String(buf, 0, n, charset);
+    }
+
+    private static boolean isHexDigit(final byte b) {
+        return Character.digit(b, 16) >= 0;
+    }
+
+    private byte[] getDecodeBuffer(final int length) {
+        if (decodeBuffer == null || decodeBuffer.length < length) {
+            decodeBuffer = new byte[Math.max(length, 64)];
+        }
+        return decodeBuffer;
+    }
+}
@@ -0,0 +1,113 @@
+package org.codelibs.elasticsearch.solr.rest;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.codelibs.elasticsearch.solr.search.CursorService;
+import org.codelibs.elasticsearch.solr.search.DocumentCache;
+import org.codelibs.elasticsearch.solr.search.FilterCache;
+import org.codelibs.elasticsearch.solr.search.QueryResultCache;
+import org.codelibs.elasticsearch.solr.solr.ResponseWriters;
+import org.codelibs.elasticsearch.solr.solr.SolrResponseUtils;
+import org.codelibs.elasticsearch.solr.update.AsyncUpdateService;
+import org.codelibs.elasticsearch.solr.update.FieldNamePool;
+import org.codelibs.elasticsearch.solr.update.FileImportService;
+import org.codelibs.elasticsearch.solr.update.FileImportService.ImportTask;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Rest actions that report the status of the plugin.
+ */
+public class SolrAdminRestAction extends BaseRestHandler {
+
+    private final FileImportService fileImportService;
+
+    private final AsyncUpdateService asyncUpdateService;
+
+    private final FieldNamePool fieldNamePool;
+
+    private final FilterCache filterCache;
+
+    private final QueryResultCache queryResultCache;
+
+    private final DocumentCache documentCache;
+
+    private final CursorService cursorService;
+
+    private final ResponseWriters responseWriters;
+
+    @Inject
+    public SolrAdminRestAction(final Settings settings, final Client client,
+            final RestController restController,
+            final FileImportService fileImportService,
+            final AsyncUpdateService asyncUpdateService,
+            final FieldNamePool fieldNamePool, final FilterCache filterCache,
+            final QueryResultCache queryResultCache,
+            final DocumentCache documentCache,
+            final CursorService cursorService,
+            final ResponseWriters responseWriters) {
+        super(settings, restController, client);
+        this.fileImportService = fileImportService;
+        this.asyncUpdateService = asyncUpdateService;
+        this.fieldNamePool = fieldNamePool;
+        this.filterCache = filterCache;
+        this.queryResultCache = queryResultCache;
+        this.documentCache = documentCache;
+        this.cursorService = cursorService;
+        this.responseWriters = responseWriters;
+
+        restController.registerHandler(RestRequest.Method.GET,
+                "/_solr/admin/stats", this);
+        restController.registerHandler(RestRequest.Method.GET,
+                "/_solr/admin/import", this);
+        restController.registerHandler(RestRequest.Method.GET,
+                "/_solr/admin/import/{id}", this);
+    }
+
+    @Override
+    protected void handleRequest(final RestRequest request,
+            final RestChannel channel, final Client client) {
+        final long startTime = System.currentTimeMillis();
+
+        final NamedList<Object> solrResponse = new SimpleOrderedMap<Object>();
+        final NamedList<Object> responseHeader = new SimpleOrderedMap<Object>();
+        solrResponse.add("responseHeader", responseHeader);
+
+        final String id = request.param("id");
+        if (request.path().startsWith("/_solr/admin/stats")) {
+            responseHeader.add("status", 0);
+            solrResponse.add("journal", asyncUpdateService.getStats());
+            solrResponse.add("fieldNamePool", fieldNamePool.getStats());
+            solrResponse.add("filterCache", filterCache.getStats());
+            solrResponse.add("queryResultCache", queryResultCache.getStats());
+            solrResponse.add("documentCache", documentCache.getStats());
+            solrResponse.add("cursors", cursorService.getStats());
+            solrResponse.add("responseWriters", responseWriters.getStats());
+        } else if (id == null) {
+            responseHeader.add("status", 0);
+            solrResponse.add("imports", fileImportService.getStatus());
+        } else {
+            final ImportTask task = fileImportService.getTask(id);
+            if (task == null) {
+                responseHeader.add("status", 404);
+                final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
+                errorResponse.add("code", 404);
+                errorResponse.add("msg", "Import " + id + " is not found.");
+                solrResponse.add("error", errorResponse);
+            } else {
+                responseHeader.add("status", 0);
+                solrResponse.add("import", task.getStatus());
+            }
+        }
+        responseHeader.add("QTime",
+                (int) (System.currentTimeMillis() - startTime));
+
+        SolrResponseUtils.writeResponse(solrResponse, request, channel,
+                responseWriters);
+    }
+}
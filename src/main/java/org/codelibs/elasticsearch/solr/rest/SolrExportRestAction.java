@@ -0,0 +1,488 @@
+package org.codelibs.elasticsearch.solr.rest;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.codelibs.elasticsearch.solr.SolrPluginConstants;
+import org.codelibs.elasticsearch.solr.search.FilterCache;
+import org.codelibs.elasticsearch.solr.search.FilterPlan;
+import org.codelibs.elasticsearch.solr.search.SortParser;
+import org.codelibs.elasticsearch.solr.solr.CSVResponseWriter;
+import org.codelibs.elasticsearch.solr.solr.ResponseCompression;
+import org.codelibs.elasticsearch.solr.solr.ResponseCompression.CompressedOutput;
+import org.codelibs.elasticsearch.solr.solr.SolrResponseUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Rest action that mocks Solr's export handler. The full result set is read
+ * with scroll requests, and each page is written to the JSON or CSV response
+ * as it arrives, so the documents are never collected in a SolrDocumentList.
+ * The next page is requested only after the previous one is written. The
+ * pages are written on the search thread pool, not on the thread that
+ * completes the scroll request, and the export fails if any shard fails.
+ *
+ * ES rest channels send a response at once, so the response is buffered up
+ * to solr.export.maxSize instead of being sent in chunks. The buffered
+ * response is compressed as it is written when the client accepts it. At most
+ * solr.export.maxConcurrent exports run on a node, so the buffers are bounded
+ * by maxSize * maxConcurrent, and more exports are rejected with 429.
+ */
+public class SolrExportRestAction extends BaseRestHandler {
+
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+
+    private final String defaultIndexName;
+
+    private final String defaultTypeName;
+
+    private final boolean lowercaseExpandedTerms;
+
+    private final boolean autoGeneratePhraseQueries;
+
+    private final int pageSize;
+
+    private final TimeValue timeout;
+
+    private final long maxSize;
+
+    private final int maxConcurrent;
+
+    private final Semaphore exports;
+
+    private final FilterCache filterCache;
+
+    private final ResponseCompression responseCompression;
+
+    private final ThreadPool threadPool;
+
+    @Inject
+    public SolrExportRestAction(final Settings settings, final Client client,
+            final RestController restController, final FilterCache filterCache,
+            final ResponseCompression responseCompression,
+            final ThreadPool threadPool) {
+        super(settings, restController, client);
+        this.filterCache = filterCache;
+        this.responseCompression = responseCompression;
+        this.threadPool = threadPool;
+
+        defaultIndexName = settings.get("solr.default.index",
+                SolrPluginConstants.DEFAULT_INDEX_NAME);
+        defaultTypeName = settings.get("solr.default.type",
+                SolrPluginConstants.DEFAULT_TYPE_NAME);
+        lowercaseExpandedTerms = settings.getAsBoolean(
+                "solr.lowercaseExpandedTerms", false);
+        autoGeneratePhraseQueries = settings.getAsBoolean(
+                "solr.autoGeneratePhraseQueries", true);
+
+        pageSize = settings.getAsInt("solr.export.pageSize", 1000);
+        timeout = settings.getAsTime("solr.export.timeout",
+                TimeValue.timeValueMinutes(1));
+        maxSize = settings.getAsBytesSize("solr.export.maxSize",
+                new ByteSizeValue(32 * 1024 * 1024)).bytes();
+        maxConcurrent = settings.getAsInt("solr.export.maxConcurrent", 4);
+        exports = new Semaphore(maxConcurrent);
+
+        restController.registerHandler(RestRequest.Method.GET,
+                "/_solr/export", this);
+        restController.registerHandler(RestRequest.Method.GET,
+                "/{index}/_solr/export", this);
+        restController.registerHandler(RestRequest.Method.GET,
+                "/{index}/{type}/_solr/export", this);
+        restController.registerHandler(RestRequest.Method.POST,
+                "/_solr/export", this);
+        restController.registerHandler(RestRequest.Method.POST,
+                "/{index}/_solr/export", this);
+        restController.registerHandler(RestRequest.Method.POST,
+                "/{index}/{type}/_solr/export", this);
+    }
+
+    @Override
+    protected void handleRequest(final RestRequest request,
+            final RestChannel channel, final Client client) {
+        final RestRequest requestEx = new ExtendedRestRequest(request);
+        try {
+            final String wt = requestEx.param("wt",
+                    SolrPluginConstants.JSON_FORMAT_TYPE);
+            final boolean csv = SolrPluginConstants.CSV_FORMAT_TYPE
+                    .equalsIgnoreCase(wt);
+            if (!csv
+                    && !SolrPluginConstants.JSON_FORMAT_TYPE
+                            .equalsIgnoreCase(wt)) {
+                throw new ElasticsearchIllegalArgumentException(
+                        "Export supports wt=json and wt=csv only: " + wt);
+            }
+            final List<String> fields = new ArrayList<String>();
+            for (final String field : requestEx.paramAsStringArray("fl",
+                    Strings.EMPTY_ARRAY)) {
+                if (Strings.hasText(field)) {
+                    fields.add(field.trim());
+                }
+            }
+            if (fields.isEmpty()) {
+                throw new ElasticsearchIllegalArgumentException(
+                        "Export field list (fl) must be specified.");
+            }
+
+            final SearchRequest searchRequest = getSearchRequest(requestEx,
+                    fields);
+
+            if (!exports.tryAcquire()) {
+                throw new EsRejectedExecutionException(
+                        "Too many exports are running, the limit is "
+                                + maxConcurrent);
+            }
+            final Exporter exporter;
+            try {
+                final CompressedOutput out = responseCompression
+                        .createOutput(requestEx);
+                exporter = new Exporter(client, channel, fields, out,
+                        csv ? new CSVResponseWriter.Printer(
+                                new OutputStreamWriter(out,
+                                        SolrResponseUtils.UTF_8), requestEx)
+                                : null);
+            } catch (final Exception e) {
+                exports.release();
+                throw e;
+            }
+            exporter.start(searchRequest);
+        } catch (final Exception e) {
+            sendFailure(channel, e);
+        }
+    }
+
+    private SearchRequest getSearchRequest(final RestRequest request,
+            final List<String> fields) {
+        final String q = request.param("q", "*:*");
+        final String[] sort = request.paramAsStringArray("sort",
+                Strings.EMPTY_ARRAY);
+        final String[] fqs = request.paramAsStringArray("fq",
+                Strings.EMPTY_ARRAY);
+        final boolean qDsl = request.paramAsBoolean("q.dsl", false);
+        final boolean fqDsl = request.paramAsBoolean("fq.dsl", false);
+
+        final SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        final QueryBuilder queryBuilder = qDsl ? QueryBuilders.wrapperQuery(q)
+                : QueryBuilders.queryString(q)
+                        .lowercaseExpandedTerms(lowercaseExpandedTerms)
+                        .autoGeneratePhraseQueries(autoGeneratePhraseQueries);
+        final FilterPlan filterPlan = FilterPlan.create(fqs, fqDsl, true,
+                filterCache);
+        if (filterPlan.getFilter() != null) {
+            searchSourceBuilder.query(QueryBuilders.filteredQuery(
+                    queryBuilder, filterPlan.getFilter()));
+        } else {
+            searchSourceBuilder.query(queryBuilder);
+        }
+        if (filterPlan.getPostFilter() != null) {
+            searchSourceBuilder.postFilter(filterPlan.getPostFilter());
+        }
+
+        for (final String field : fields) {
+            searchSourceBuilder.fields(field);
+        }
+        searchSourceBuilder.size(pageSize);
+
+        final SearchRequest searchRequest = new SearchRequest(
+                Strings.splitStringByCommaToArray(request.param("index",
+                        defaultIndexName)));
+        searchRequest.types(Strings.splitStringByCommaToArray(request.param(
+                "type", defaultTypeName)));
+        if (sort.length > 0) {
+            SortParser.addSorts(searchSourceBuilder, sort);
+        } else {
+            // unsorted results are read with scan, the size is per shard
+            searchRequest.searchType(SearchType.SCAN);
+        }
+        searchRequest.extraSource(searchSourceBuilder);
+        searchRequest.scroll(timeout);
+        searchRequest.listenerThreaded(false);
+        return searchRequest;
+    }
+
+    private void sendFailure(final RestChannel channel, final Throwable t) {
+        logger.error("Error processing export", t);
+        try {
+            channel.sendResponse(new BytesRestResponse(channel, t));
+        } catch (final IOException e) {
+            logger.error("Failed to send failure response", e);
+        }
+    }
+
+    /**
+     * Writes the pages of a scroll to the response.
+     */
+    private class Exporter implements ActionListener<SearchResponse> {
+
+        private final Client client;
+
+        private final RestChannel channel;
+
+        private final List<String> fields;
+
+        private final CompressedOutput out;
+
+        private final CSVResponseWriter.Printer printer;
+
+        private final Executor executor;
+
+        private XContentBuilder builder;
+
+        private boolean started;
+
+        private String scrollId;
+
+        private boolean scan;
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Exporter(final Client client, final RestChannel channel,
+                final List<String> fields, final CompressedOutput out,
+                final CSVResponseWriter.Printer printer) {
+            this.client = client;
+            this.channel = channel;
+            this.fields = fields;
+            this.out = out;
+            this.printer = printer;
+            executor = threadPool.executor(ThreadPool.Names.SEARCH);
+        }
+
+        void start(final SearchRequest searchRequest) {
+            scan = searchRequest.searchType() == SearchType.SCAN;
+            try {
+                client.search(searchRequest, this);
+            } catch (final Exception e) {
+                onFailure(e);
+            }
+        }
+
+        /**
+         * Releases the permit of the export once.
+         */
+        private void finish() {
+            if (finished.compareAndSet(false, true)) {
+                exports.release();
+            }
+        }
+
+        @Override
+        public void onResponse(final SearchResponse response) {
+            // the response may be completed on a transport thread
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        writePage(response);
+                    }
+                });
+            } catch (final Exception e) {
+                onFailure(e);
+            }
+        }
+
+        private void writePage(final SearchResponse response) {
+            scrollId = response.getScrollId();
+            final BytesRestResponse restResponse;
+            try {
+                if (response.getFailedShards() > 0) {
+                    throw new ElasticsearchException("Export failed on "
+                            + response.getFailedShards() + " of "
+                            + response.getTotalShards() + " shards: "
+                            + getFailureReason(response));
+                }
+
+                if (!started) {
+                    started = true;
+                    startResponse(response);
+                    if (scan) {
+                        // the first response of scan has no hits
+                        scrollNext();
+                        return;
+                    }
+                }
+
+                final SearchHit[] hits = response.getHits().getHits();
+                if (hits.length > 0) {
+                    writeHits(hits);
+                    scrollNext();
+                    return;
+                }
+
+                endResponse();
+                out.close();
+                clearScroll();
+                restResponse = new BytesRestResponse(RestStatus.OK,
+                        printer != null ? CSVResponseWriter.CONTENT_TYPE
+                                : CONTENT_TYPE_JSON, out.bytes());
+                if (out.getContentEncoding() != null) {
+                    restResponse.addHeader("Content-Encoding",
+                            out.getContentEncoding());
+                }
+                restResponse.addHeader("Vary", "Accept-Encoding");
+            } catch (final Exception e) {
+                onFailure(e);
+                return;
+            }
+            // sent out of the try, so a failure is not sent as a second
+            // response
+            try {
+                channel.sendResponse(restResponse);
+            } finally {
+                finish();
+            }
+        }
+
+        private void writeHits(final SearchHit[] hits) throws IOException {
+            for (final SearchHit hit : hits) {
+                if (printer != null) {
+                    writeRow(hit);
+                } else {
+                    writeDocument(hit);
+                }
+            }
+            if (printer != null) {
+                printer.flush();
+            } else {
+                builder.flush();
+            }
+            if (out.size() > maxSize) {
+                throw new ElasticsearchException(
+                        "Export response exceeded solr.export.maxSize: "
+                                + maxSize + " bytes");
+            }
+        }
+
+        private String getFailureReason(final SearchResponse response) {
+            final ShardSearchFailure[] failures = response.getShardFailures();
+            return failures.length > 0 ? failures[0].reason() : "unknown";
+        }
+
+        private void startResponse(final SearchResponse response)
+                throws IOException {
+            if (printer != null) {
+                printer.printHeader(fields);
+                return;
+            }
+            builder = XContentFactory.jsonBuilder(out);
+            builder.startObject();
+            builder.startObject("responseHeader").field("status", 0)
+                    .endObject();
+            builder.startObject("response");
+            builder.field("numFound", response.getHits().getTotalHits());
+            builder.startArray("docs");
+        }
+
+        private void endResponse() throws IOException {
+            if (printer != null) {
+                printer.close();
+                return;
+            }
+            builder.endArray().endObject().endObject();
+            builder.close();
+        }
+
+        private void writeRow(final SearchHit hit) throws IOException {
+            final Map<String, SearchHitField> hitFields = hit.getFields();
+            for (final String field : fields) {
+                final SearchHitField hitField = hitFields.get(field);
+                if (hitField == null) {
+                    printer.print(null);
+                    continue;
+                }
+                final List<Object> values = hitField.getValues();
+                printer.print(values.size() == 1 ? values.get(0) : values);
+            }
+            printer.endRow();
+        }
+
+        private void writeDocument(final SearchHit hit) throws IOException {
+            builder.startObject();
+            final Map<String, SearchHitField> hitFields = hit.getFields();
+            for (final String field : fields) {
+                final SearchHitField hitField = hitFields.get(field);
+                if (hitField == null) {
+                    continue;
+                }
+                final List<Object> values = hitField.getValues();
+                if (values.size() == 1) {
+                    builder.field(field, values.get(0));
+                } else {
+                    builder.field(field, values);
+                }
+            }
+            builder.endObject();
+        }
+
+        private void scrollNext() {
+            final SearchScrollRequest scrollRequest = new SearchScrollRequest(
+                    scrollId);
+            scrollRequest.scroll(timeout);
+            scrollRequest.listenerThreaded(false);
+            client.searchScroll(scrollRequest, this);
+        }
+
+        private void clearScroll() {
+            if (scrollId == null) {
+                return;
+            }
+            client.prepareClearScroll().addScrollId(scrollId)
+                    .execute(new ActionListener<ClearScrollResponse>() {
+                        @Override
+                        public void onResponse(
+                                final ClearScrollResponse response) {
+                            // nothing
+                        }
+
+                        @Override
+                        public void onFailure(final Throwable e) {
+                            logger.debug("Failed to clear scroll {}", e,
+                                    scrollId);
+                        }
+                    });
+        }
+
+        @Override
+        public void onFailure(final Throwable t) {
+            clearScroll();
+            try {
+                sendFailure(channel, t);
+            } finally {
+                finish();
+            }
+        }
+    }
+}
@@ -1,25 +1,52 @@
 package org.codelibs.elasticsearch.solr.rest;
 
-import static org.elasticsearch.index.query.FilterBuilders.andFilter;
-import static org.elasticsearch.index.query.FilterBuilders.queryFilter;
-
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.codec.Charsets;
+import org.apache.solr.common.util.NamedList;
 import org.codelibs.elasticsearch.solr.SolrPluginConstants;
+import org.codelibs.elasticsearch.solr.index.mapper.FieldTypeResolver;
+import org.codelibs.elasticsearch.solr.index.mapper.MappingView;
+import org.codelibs.elasticsearch.solr.search.CursorService;
+import org.codelibs.elasticsearch.solr.search.DocumentCache;
+import org.codelibs.elasticsearch.solr.search.FieldList;
+import org.codelibs.elasticsearch.solr.search.FilterCache;
+import org.codelibs.elasticsearch.solr.search.FilterPlan;
+import org.codelibs.elasticsearch.solr.search.QueryResultCache;
+import org.codelibs.elasticsearch.solr.search.ResultWindow;
+import org.codelibs.elasticsearch.solr.search.SortParser;
+import org.codelibs.elasticsearch.solr.solr.ResponseCompression;
+import org.codelibs.elasticsearch.solr.solr.ResponseWriters;
 import org.codelibs.elasticsearch.solr.solr.SolrResponseUtils;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
 import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.regex.Regex;
 import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.index.query.AndFilterBuilder;
-import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.mapper.MapperService;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.shard.DocsStats;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
@@ -31,9 +58,9 @@ import org.elasticsearch.search.aggregations.bucket.terms.Terms.Order;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.highlight.HighlightBuilder;
-import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 
+import com.google.common.hash.HashCode;
 import com.google.common.io.BaseEncoding;
 
 public class SolrSearchRestAction extends BaseRestHandler {
@@ -46,6 +73,24 @@ public class SolrSearchRestAction extends BaseRestHandler {
 
     private final boolean autoGeneratePhraseQueries;
 
+    private final FilterCache filterCache;
+
+    private final QueryResultCache queryResultCache;
+
+    private final DocumentCache documentCache;
+
+    private final CursorService cursorService;
+
+    private final ClusterService clusterService;
+
+    private final FieldTypeResolver fieldTypeResolver;
+
+    private final ResponseCompression responseCompression;
+
+    private final ResponseWriters responseWriters;
+
+    private final boolean countByStats;
+
     /**
      * Rest actions that mocks the Solr search handler
      *
@@ -55,11 +100,43 @@ public class SolrSearchRestAction extends BaseRestHandler {
      *            ES client
      * @param restController
      *            ES rest controller
+     * @param filterCache
+     *            the cache policy of filter queries
+     * @param queryResultCache
+     *            the cache of serialized search responses
+     * @param documentCache
+     *            the cache of converted documents
+     * @param cursorService
+     *            the scroll contexts of cursorMark
+     * @param clusterService
+     *            ES cluster service
+     * @param fieldTypeResolver
+     *            the mapping views of the indices
+     * @param responseCompression
+     *            the content encoding of responses
+     * @param responseWriters
+     *            the writers of the wt parameter
      */
     @Inject
     public SolrSearchRestAction(final Settings settings, final Client client,
-            final RestController restController) {
+            final RestController restController,
+            final FilterCache filterCache,
+            final QueryResultCache queryResultCache,
+            final DocumentCache documentCache,
+            final CursorService cursorService,
+            final ClusterService clusterService,
+            final FieldTypeResolver fieldTypeResolver,
+            final ResponseCompression responseCompression,
+            final ResponseWriters responseWriters) {
         super(settings, restController, client);
+        this.filterCache = filterCache;
+        this.queryResultCache = queryResultCache;
+        this.documentCache = documentCache;
+        this.cursorService = cursorService;
+        this.clusterService = clusterService;
+        this.fieldTypeResolver = fieldTypeResolver;
+        this.responseCompression = responseCompression;
+        this.responseWriters = responseWriters;
 
         defaultIndexName = settings.get("solr.default.index",
                 SolrPluginConstants.DEFAULT_INDEX_NAME);
@@ -70,6 +147,7 @@ public class SolrSearchRestAction extends BaseRestHandler {
                 "solr.lowercaseExpandedTerms", false);
         autoGeneratePhraseQueries = settings.getAsBoolean(
                 "solr.autoGeneratePhraseQueries", true);
+        countByStats = settings.getAsBoolean("solr.countByStats", true);
 
         // register search handler
         // specifying and index and type is optional
@@ -94,8 +172,57 @@ public class SolrSearchRestAction extends BaseRestHandler {
             final RestChannel channel, final Client client) {
         final RestRequest requestEx = new ExtendedRestRequest(request);
 
+        // deep paging with a scroll context
+        final String cursorMark = requestEx.param("cursorMark");
+        if (cursorMark != null) {
+            try {
+                searchCursor(requestEx, channel, client, cursorMark);
+            } catch (final Exception e) {
+                sendFailure(channel, e);
+            }
+            return;
+        }
+
+        // send the cached response if the same search was executed
+        final HashCode cacheKey = queryResultCache.isEnabled()
+                && requestEx.paramAsBoolean("cache", true)
+                && responseWriters.get(requestEx).isCacheable() ? queryResultCache
+                        .getKey(requestEx) : null;
+        if (cacheKey != null) {
+            final BytesRestResponse cachedResponse = queryResultCache
+                    .get(cacheKey);
+            if (cachedResponse != null) {
+                channel.sendResponse(cachedResponse);
+                return;
+            }
+        }
+        final long startTime = System.currentTimeMillis();
+
+        // serve the page from the cached ids of the query
+        final HashCode windowKey = queryResultCache.isWindowed(requestEx) ? queryResultCache
+                .getWindowKey(requestEx) : null;
+        if (windowKey != null) {
+            final ResultWindow window = queryResultCache.getWindow(windowKey);
+            if (window != null) {
+                sendPage(requestEx, channel, client, window, cacheKey,
+                        getIndices(requestEx), startTime);
+                return;
+            }
+        }
+
+        // count all documents from the index statistics
+        if (isMatchAllCount(requestEx)) {
+            final String[] indices = getConcreteIndicesForCount(requestEx);
+            if (indices != null) {
+                sendDocCount(requestEx, channel, client, indices, cacheKey,
+                        startTime);
+                return;
+            }
+        }
+
         // generate the search request
-        final SearchRequest searchRequest = getSearchRequest(requestEx);
+        final SearchRequest searchRequest = getSearchRequest(requestEx,
+                windowKey != null ? queryResultCache.getWindowSize() : 0);
         searchRequest.listenerThreaded(false);
 
         // execute the search
@@ -103,10 +230,27 @@ public class SolrSearchRestAction extends BaseRestHandler {
             @Override
             public void onResponse(final SearchResponse response) {
                 try {
+                    // partial results are not cached
+                    final boolean complete = isComplete(response);
+                    if (windowKey != null) {
+                        final ResultWindow window = ResultWindow
+                                .create(response);
+                        if (complete) {
+                            queryResultCache.putWindow(windowKey,
+                                    searchRequest.indices(), startTime,
+                                    window);
+                        }
+                        sendPage(requestEx, channel, client, window,
+                                complete ? cacheKey : null,
+                                searchRequest.indices(), startTime);
+                        return;
+                    }
+
                     // write response
-                    SolrResponseUtils.writeResponse(SolrResponseUtils
-                            .createSearchResponse(requestEx, response),
-                            requestEx, channel);
+                    sendResponse(requestEx, channel,
+                            createSearchResponse(requestEx, response),
+                            complete ? cacheKey : null,
+                            searchRequest.indices(), startTime);
                 } catch (final Exception e) {
                     onFailure(e);
                 }
@@ -114,14 +258,315 @@ public class SolrSearchRestAction extends BaseRestHandler {
 
             @Override
             public void onFailure(final Throwable t) {
-                logger.error("Error processing executing search", t);
+                sendFailure(channel, t);
+            }
+        });
+    }
+
+    /**
+     * Returns true if all fields of fl have doc values in the mappings of the
+     * requested indices and types.
+     */
+    private boolean hasDocValues(final RestRequest request,
+            final FieldList fieldList) {
+        if (fieldList.hasWildcard() || fieldList.getFields().length == 0) {
+            return false;
+        }
+        final String[] indices = getIndices(request);
+        final String[] types = Strings.splitStringByCommaToArray(request.param(
+                "type", defaultTypeName));
+        for (final String index : indices) {
+            if (Regex.isSimpleMatchPattern(index)) {
+                return false;
+            }
+            for (final String type : types) {
+                final MappingView mappingView = fieldTypeResolver
+                        .getMappingView(index, type);
+                for (final String field : fieldList.getFields()) {
+                    if (!mappingView.hasDocValues(field)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return indices.length > 0 && types.length > 0;
+    }
+
+    /**
+     * Returns true if a request counts all documents without facets.
+     */
+    private boolean isMatchAllCount(final RestRequest request) {
+        if (!countByStats || request.paramAsInt("rows", 10) != 0
+                || request.paramAsBoolean("facet", false)
+                || request.param("debug") != null) {
+            return false;
+        }
+        final String q = request.param("q", null);
+        if (q == null) {
+            // fq is not applied without q
+            return true;
+        }
+        return "*:*".equals(q.trim())
+                && !request.paramAsBoolean("q.dsl", false)
+                && request.paramAsStringArray("fq", Strings.EMPTY_ARRAY).length == 0;
+    }
+
+    /**
+     * Returns the indices whose document counts are the number of documents
+     * of the requested types. The indices must have no other type, and no
+     * nested object, which is indexed as a hidden document.
+     *
+     * @return the concrete indices, or null if the documents must be counted
+     *         by a search
+     */
+    private String[] getConcreteIndicesForCount(final RestRequest request) {
+        final Set<String> types = new HashSet<String>(
+                Arrays.asList(Strings.splitStringByCommaToArray(request.param(
+                        "type", defaultTypeName))));
+        final MetaData metaData = clusterService.state().metaData();
+        final String[] indices = metaData.concreteIndices(
+                IndicesOptions.lenientExpandOpen(), getIndices(request));
+        if (indices.length == 0) {
+            return null;
+        }
+        for (final String index : indices) {
+            final IndexMetaData indexMetaData = metaData.index(index);
+            if (indexMetaData == null) {
+                return null;
+            }
+            final Iterator<String> it = indexMetaData.getMappings().keysIt();
+            while (it.hasNext()) {
+                final String type = it.next();
+                if (MapperService.DEFAULT_MAPPING.equals(type)) {
+                    continue;
+                }
+                if (!types.contains(type)) {
+                    return null;
+                }
                 try {
-                    channel.sendResponse(new BytesRestResponse(channel, t));
+                    if (hasNestedObject(indexMetaData.mapping(type)
+                            .sourceAsMap())) {
+                        return null;
+                    }
                 } catch (final IOException e) {
-                    logger.error("Failed to send failure response", e);
+                    logger.debug("Failed to parse the mapping of {}/{}", e,
+                            index, type);
+                    return null;
                 }
             }
-        });
+        }
+        return indices;
+    }
+
+    private static boolean hasNestedObject(final Map<String, Object> mapping) {
+        if ("nested".equals(mapping.get("type"))) {
+            return true;
+        }
+        final Object properties = mapping.get("properties");
+        if (properties instanceof Map) {
+            for (final Object property : ((Map<?, ?>) properties).values()) {
+                if (property instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> propertyMapping = (Map<String, Object>) property;
+                    if (hasNestedObject(propertyMapping)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends the number of documents in the primary shards as the number of
+     * hits.
+     */
+    private void sendDocCount(final RestRequest request,
+            final RestChannel channel, final Client client,
+            final String[] indices, final HashCode cacheKey,
+            final long startTime) {
+        client.admin().indices().prepareStats(indices).clear().setDocs(true)
+                .execute(new ActionListener<IndicesStatsResponse>() {
+                    @Override
+                    public void onResponse(final IndicesStatsResponse response) {
+                        try {
+                            final DocsStats docs = response.getPrimaries()
+                                    .getDocs();
+                            sendResponse(request, channel, SolrResponseUtils
+                                    .createCountResponse(request,
+                                            docs == null ? 0 : docs.getCount(),
+                                            (int) (System.currentTimeMillis() - startTime)),
+                                    cacheKey, indices, startTime);
+                        } catch (final Exception e) {
+                            onFailure(e);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable t) {
+                        sendFailure(channel, t);
+                    }
+                });
+    }
+
+    /**
+     * Searches the page of a cursorMark. The first page opens a scroll
+     * context, and the following pages scroll it.
+     */
+    private void searchCursor(final RestRequest request,
+            final RestChannel channel, final Client client,
+            final String cursorMark) {
+        if (request.paramAsInt("start", 0) != 0) {
+            throw new ElasticsearchIllegalArgumentException(
+                    "Cursor functionality requires start=0");
+        }
+
+        final ActionListener<SearchResponse> listener = new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(final SearchResponse response) {
+                try {
+                    final String nextCursorMark;
+                    if (response.getHits().getHits().length == 0) {
+                        // the same cursorMark tells the end of the results
+                        nextCursorMark = cursorMark;
+                        cursorService.close(response.getScrollId());
+                    } else {
+                        nextCursorMark = cursorService.next(cursorMark,
+                                response.getScrollId());
+                    }
+
+                    final NamedList<Object> solrResponse = createSearchResponse(
+                            request, response);
+                    solrResponse.add("nextCursorMark", nextCursorMark);
+                    sendResponse(request, channel, solrResponse, null, null, 0);
+                } catch (final Exception e) {
+                    onFailure(e);
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                sendFailure(channel, t);
+            }
+        };
+
+        if (CursorService.FIRST_CURSOR.equals(cursorMark)) {
+            cursorService.checkOpen();
+            final SearchRequest searchRequest = getSearchRequest(request, 0);
+            searchRequest.scroll(cursorService.getTimeout());
+            searchRequest.listenerThreaded(false);
+            client.search(searchRequest, listener);
+        } else {
+            final SearchScrollRequest scrollRequest = new SearchScrollRequest(
+                    cursorService.getScrollId(cursorMark));
+            scrollRequest.scroll(cursorService.getTimeout());
+            scrollRequest.listenerThreaded(false);
+            client.searchScroll(scrollRequest, listener);
+        }
+    }
+
+    /**
+     * @return true if all shards returned their results in time
+     */
+    private static boolean isComplete(final SearchResponse response) {
+        return response.getFailedShards() == 0 && !response.isTimedOut();
+    }
+
+    /**
+     * Gets the documents of a page in the window and sends them.
+     */
+    private void sendPage(final RestRequest request,
+            final RestChannel channel, final Client client,
+            final ResultWindow window, final HashCode cacheKey,
+            final String[] indices, final long startTime) {
+        final int start = request.paramAsInt("start", 0);
+        final int rows = request.paramAsInt("rows", 10);
+
+        if (start >= window.size()) {
+            // no document in the page
+            sendResponse(request, channel, SolrResponseUtils
+                    .createWindowResponse(request, window,
+                            new MultiGetResponse(new MultiGetItemResponse[0]),
+                            (int) (System.currentTimeMillis() - startTime),
+                            null, null),
+                    cacheKey, indices, startTime);
+            return;
+        }
+
+        final MultiGetRequest multiGetRequest = window.createPageRequest(
+                start, rows,
+                FieldList.parse(
+                        request.paramAsStringArray("fl", Strings.EMPTY_ARRAY))
+                        .getFetchSourceContext());
+        multiGetRequest.listenerThreaded(false);
+        client.multiGet(multiGetRequest,
+                new ActionListener<MultiGetResponse>() {
+                    @Override
+                    public void onResponse(final MultiGetResponse response) {
+                        try {
+                            sendResponse(request, channel, SolrResponseUtils
+                                    .createWindowResponse(request, window,
+                                            response, (int) (System
+                                                    .currentTimeMillis() - startTime),
+                                            getDocumentCache(),
+                                            fieldTypeResolver),
+                                    cacheKey, indices, startTime);
+                        } catch (final Exception e) {
+                            onFailure(e);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable t) {
+                        sendFailure(channel, t);
+                    }
+                });
+    }
+
+    private void sendResponse(final RestRequest request,
+            final RestChannel channel, final NamedList<Object> solrResponse,
+            final HashCode cacheKey, final String[] indices,
+            final long startTime) {
+        final BytesRestResponse restResponse = SolrResponseUtils
+                .createResponse(solrResponse, request, responseWriters,
+                        responseCompression);
+        if (cacheKey != null) {
+            queryResultCache.put(cacheKey, indices, startTime, restResponse);
+        }
+        channel.sendResponse(restResponse);
+    }
+
+    /**
+     * Converts a search response. The hits are converted as a streaming
+     * writer reaches them, and converted at once for other writers, which may
+     * read a document more than once.
+     */
+    private NamedList<Object> createSearchResponse(final RestRequest request,
+            final SearchResponse response) {
+        if (responseWriters.get(request).isStreaming()) {
+            return SolrResponseUtils.createSearchResultView(request, response,
+                    getDocumentCache(), fieldTypeResolver);
+        }
+        return SolrResponseUtils.createSearchResponse(request, response,
+                getDocumentCache(), fieldTypeResolver);
+    }
+
+    private void sendFailure(final RestChannel channel, final Throwable t) {
+        logger.error("Error processing executing search", t);
+        try {
+            channel.sendResponse(new BytesRestResponse(channel, t));
+        } catch (final IOException e) {
+            logger.error("Failed to send failure response", e);
+        }
+    }
+
+    private DocumentCache getDocumentCache() {
+        return documentCache.isEnabled() ? documentCache : null;
+    }
+
+    private String[] getIndices(final RestRequest request) {
+        return Strings.splitStringByCommaToArray(request.param("index",
+                defaultIndexName));
     }
 
     /**
@@ -129,9 +574,13 @@ public class SolrSearchRestAction extends BaseRestHandler {
      *
      * @param request
      *            the ES RestRequest
+     * @param windowSize
+     *            the number of hits to search without fields, or 0 to search
+     *            the requested page
      * @return the generated ES SearchRequest
      */
-    private SearchRequest getSearchRequest(final RestRequest request) {
+    private SearchRequest getSearchRequest(final RestRequest request,
+            final int windowSize) {
         // get solr search parameters
         final String q = request.param("q", null);
         final int start = request.paramAsInt("start", 0);
@@ -150,6 +599,9 @@ public class SolrSearchRestAction extends BaseRestHandler {
 
         final boolean qDsl = request.paramAsBoolean("q.dsl", false);
         final boolean fqDsl = request.paramAsBoolean("fq.dsl", false);
+        // rows=0 only counts the hits and facets
+        final boolean countOnly = rows == 0 && windowSize <= 0
+                && request.param("cursorMark") == null;
 
         // build the query
         final SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
@@ -158,27 +610,11 @@ public class SolrSearchRestAction extends BaseRestHandler {
                 searchSourceBuilder.query(QueryBuilders.wrapperQuery(q));
             } else {
                 QueryBuilder queryBuilder;
-                // handler filters
-                if (fqs.length > 0) {
-                    FilterBuilder filterBuilder = null;
-
-                    // if there is more than one filter specified build
-                    // an and filter of query filters, otherwise just
-                    // build a single query filter.
-                    if (fqs.length > 1) {
-                        final AndFilterBuilder fqAnd = andFilter();
-                        for (final String fq : fqs) {
-                            fqAnd.add(queryFilter(fqDsl ? QueryBuilders
-                                    .wrapperQuery(fq) : QueryBuilders
-                                    .queryString(fq)));
-                        }
-                        filterBuilder = fqAnd;
-                    } else {
-                        filterBuilder = queryFilter(fqDsl ? QueryBuilders
-                                .wrapperQuery(fqs[0]) : QueryBuilders
-                                .queryString(fqs[0]));
-                    }
-
+                // handler filters: expensive filters are post filters unless
+                // facet counts need to be filtered by them
+                final FilterPlan filterPlan = FilterPlan.create(fqs, fqDsl,
+                        !facet, filterCache);
+                if (filterPlan.getFilter() != null) {
                     queryBuilder = QueryBuilders.filteredQuery(
                             QueryBuilders
                                     .queryString(q)
@@ -186,7 +622,7 @@ public class SolrSearchRestAction extends BaseRestHandler {
                                             lowercaseExpandedTerms)
                                     .autoGeneratePhraseQueries(
                                             autoGeneratePhraseQueries),
-                            filterBuilder);
+                            filterPlan.getFilter());
                 } else {
                     queryBuilder = QueryBuilders
                             .queryString(q)
@@ -195,54 +631,55 @@ public class SolrSearchRestAction extends BaseRestHandler {
                                     autoGeneratePhraseQueries);
                 }
                 searchSourceBuilder.query(queryBuilder);
+                if (filterPlan.getPostFilter() != null) {
+                    searchSourceBuilder.postFilter(filterPlan.getPostFilter());
+                }
             }
         }
 
-        searchSourceBuilder.from(start);
-        searchSourceBuilder.size(rows);
+        if (windowSize > 0) {
+            // get the ids and routings of the window, the documents are
+            // fetched per page
+            searchSourceBuilder.from(0);
+            searchSourceBuilder.size(windowSize);
+            for (final String field : ResultWindow.ROUTING_FIELDS) {
+                searchSourceBuilder.field(field);
+            }
+        } else {
+            searchSourceBuilder.from(start);
+            searchSourceBuilder.size(rows);
+            // cached documents are looked up by their versions
+            searchSourceBuilder.version(documentCache.isEnabled());
+        }
 
         // parse fl into individual fields
         // solr supports separating by comma or spaces
-        if (fl.length > 0) {
-            for (final String field : fl) {
-                if (Strings.hasText(field)) {
-                    searchSourceBuilder.fields(field.trim());
+        final FieldList fieldList = FieldList.parse(fl);
+        if (!fieldList.isAll() && windowSize <= 0 && !countOnly) {
+            if (hasDocValues(request, fieldList)) {
+                // doc values do not need the source
+                searchSourceBuilder.fetchSource(false);
+                for (final String field : fieldList.getFields()) {
+                    searchSourceBuilder.fieldDataField(field);
                 }
+            } else {
+                searchSourceBuilder.fetchSource(fieldList
+                        .getFetchSourceContext());
             }
         }
 
         // handle sorting
-        if (sort.length > 0) {
-            for (final String s : sort) {
-                final String sortStr = s.trim();
-                final int delimiter = sortStr.lastIndexOf(' ');
-                if (delimiter != -1) {
-                    String sortField = sortStr.substring(0, delimiter);
-                    if ("score".equals(sortField)) {
-                        sortField = "_score";
-                    }
-                    final String reverse = sortStr.substring(delimiter + 1);
-                    if ("asc".equals(reverse)) {
-                        searchSourceBuilder.sort(SortBuilders
-                                .fieldSort(sortField).order(SortOrder.ASC)
-                                .ignoreUnmapped(true));
-                    } else if ("desc".equals(reverse)) {
-                        searchSourceBuilder.sort(SortBuilders
-                                .fieldSort(sortField).order(SortOrder.DESC)
-                                .ignoreUnmapped(true));
-                    }
-                } else {
-                    searchSourceBuilder.sort(SortBuilders.fieldSort(sortStr)
-                            .ignoreUnmapped(true));
-                }
-            }
+        if (countOnly) {
+            // no hit is returned
+        } else if (sort.length > 0) {
+            SortParser.addSorts(searchSourceBuilder, sort);
         } else {
             // default sort by descending score
             searchSourceBuilder.sort("_score", SortOrder.DESC);
         }
 
         // handle highlighting
-        if (hl) {
+        if (hl && !countOnly) {
             // get supported highlighting parameters if they exist
             final String hlfl = request.param("hl.fl", null);
             final int hlsnippets = request.paramAsInt("hl.snippets", 1);
@@ -348,6 +785,12 @@ public class SolrSearchRestAction extends BaseRestHandler {
         final SearchRequest searchRequest = new SearchRequest(indices);
         searchRequest.extraSource(searchSourceBuilder);
         searchRequest.types(Strings.splitStringByCommaToArray(type));
+        if (countOnly) {
+            // the shard query cache keeps the counts and facets until the
+            // next refresh
+            searchRequest.searchType(SearchType.COUNT);
+            searchRequest.queryCache(Boolean.TRUE);
+        }
 
         return searchRequest;
     }
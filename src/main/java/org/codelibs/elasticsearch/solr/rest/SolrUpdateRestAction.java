@@ -1,58 +1,41 @@
 package org.codelibs.elasticsearch.solr.rest;
 
-import java.io.ByteArrayInputStream;
-import java.io.StringReader;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 
 import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 
-import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.StringUtils;
-import org.apache.solr.client.solrj.request.AbstractUpdateRequest.ACTION;
-import org.apache.solr.client.solrj.request.UpdateRequest;
-import org.apache.solr.common.SolrInputDocument;
-import org.apache.solr.common.SolrInputField;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.codelibs.elasticsearch.solr.SolrPluginConstants;
-import org.codelibs.elasticsearch.solr.solr.JavaBinUpdateRequestCodec;
+import org.codelibs.elasticsearch.solr.index.mapper.FieldTypeResolver;
+import org.codelibs.elasticsearch.solr.solr.ResponseWriters;
 import org.codelibs.elasticsearch.solr.solr.SolrResponseUtils;
-import org.elasticsearch.ElasticsearchException;
+import org.codelibs.elasticsearch.solr.update.AsyncUpdateService;
+import org.codelibs.elasticsearch.solr.update.BulkIndexer;
+import org.codelibs.elasticsearch.solr.update.CSVUpdateReader;
+import org.codelibs.elasticsearch.solr.update.FieldNamePool;
+import org.codelibs.elasticsearch.solr.update.FileImportService;
+import org.codelibs.elasticsearch.solr.update.FileImportService.ImportTask;
+import org.codelibs.elasticsearch.solr.update.IndexRequestFactory;
+import org.codelibs.elasticsearch.solr.update.JavaBinUpdateReader;
+import org.codelibs.elasticsearch.solr.update.UpdateParams;
+import org.codelibs.elasticsearch.solr.update.UpdateReader;
+import org.codelibs.elasticsearch.solr.update.XMLUpdateReader;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
 import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.ActionRequest;
-import org.elasticsearch.action.WriteConsistencyLevel;
 import org.elasticsearch.action.admin.indices.flush.FlushRequest;
 import org.elasticsearch.action.admin.indices.flush.FlushResponse;
 import org.elasticsearch.action.admin.indices.optimize.OptimizeRequest;
 import org.elasticsearch.action.admin.indices.optimize.OptimizeResponse;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkItemResponse.Failure;
-import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.deletebyquery.DeleteByQueryRequest;
-import org.elasticsearch.action.deletebyquery.DeleteByQueryResponse;
-import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.support.QuerySourceBuilder;
-import org.elasticsearch.action.support.replication.ReplicationType;
-import org.elasticsearch.action.support.replication.ShardReplicationOperationRequest;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.client.Requests;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestController;
@@ -62,33 +45,36 @@ public class SolrUpdateRestAction extends BaseRestHandler {
 
     private static final String TRUE = "true";
 
-    // fields in the Solr input document to scan for a document id
-    private static final String[] DEFAULT_ID_FIELDS = { "id", "docid",
-            "documentid", "contentid", "uuid", "url" };
-
     // the xml input factory
     private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
 
-    // Set this flag to false if you want to disable the hashing of id's as they
-    // are provided by the Solr Input document
-    // , which is the default behaviour.
-    // You can configure this by adding 'plugin.diji.MockSolrPlugin.hashIds:
-    // false' to elasticsearch.yml
-    private final boolean hashIds;
-
     private final boolean commitAsFlush;
 
     private final boolean optimizeAsOptimize;
 
     private final String defaultIndexName;
 
-    private final String defaultTypeName;
+    // the maximum number of actions in a bulk request
+    private final int bulkActions;
+
+    // true if the next bulk request is decoded while the previous one is
+    // indexed
+    private final boolean bulkPrefetch;
+
+    // the maximum size of compressed content after inflating it
+    private final long maxInflatedContentSize;
+
+    private final FieldTypeResolver fieldTypeResolver;
 
-    private final String[] idFields;
+    private final IndexRequestFactory requestFactory;
 
-    private Boolean lowercaseExpandedTerms;
+    private final FileImportService fileImportService;
 
-    private Boolean autoGeneratePhraseQueries;
+    private final AsyncUpdateService asyncUpdateService;
+
+    private final FieldNamePool fieldNamePool;
+
+    private final ResponseWriters responseWriters;
 
     /**
      * Rest actions that mock Solr update handlers
@@ -99,30 +85,48 @@ public class SolrUpdateRestAction extends BaseRestHandler {
      *            ES client
      * @param restController
      *            ES rest controller
+     * @param fieldTypeResolver
+     *            the resolver for mapped field types
+     * @param requestFactory
+     *            the factory of index and delete requests
+     * @param fileImportService
+     *            the service importing local files
+     * @param asyncUpdateService
+     *            the service storing async updates
+     * @param fieldNamePool
+     *            the pool sharing field names of decoded documents
+     * @param responseWriters
+     *            the writers of the wt parameter
      */
     @Inject
     public SolrUpdateRestAction(final Settings settings, final Client client,
-            final RestController restController) {
+            final RestController restController,
+            final FieldTypeResolver fieldTypeResolver,
+            final IndexRequestFactory requestFactory,
+            final FileImportService fileImportService,
+            final AsyncUpdateService asyncUpdateService,
+            final FieldNamePool fieldNamePool,
+            final ResponseWriters responseWriters) {
         super(settings, restController, client);
+        this.fieldTypeResolver = fieldTypeResolver;
+        this.requestFactory = requestFactory;
+        this.fileImportService = fileImportService;
+        this.asyncUpdateService = asyncUpdateService;
+        this.fieldNamePool = fieldNamePool;
+        this.responseWriters = responseWriters;
 
-        hashIds = settings.getAsBoolean("solr.hashIds", false);
         commitAsFlush = settings.getAsBoolean("solr.commitAsFlush", true);
         optimizeAsOptimize = settings.getAsBoolean("solr.optimizeAsOptimize",
                 true);
-        logger.info("Solr input document id's will " + (hashIds ? "" : "not ")
-                + "be hashed to created Elasticsearch document id's");
 
         defaultIndexName = settings.get("solr.default.index",
                 SolrPluginConstants.DEFAULT_INDEX_NAME);
-        defaultTypeName = settings.get("solr.default.type",
-                SolrPluginConstants.DEFAULT_TYPE_NAME);
-
-        idFields = settings.getAsArray("solr.idFields", DEFAULT_ID_FIELDS);
 
-        lowercaseExpandedTerms = settings.getAsBoolean(
-                "solr.lowercaseExpandedTerms", false);
-        autoGeneratePhraseQueries = settings.getAsBoolean(
-                "solr.autoGeneratePhraseQueries", true);
+        bulkActions = settings.getAsInt("solr.bulkActions", 1000);
+        bulkPrefetch = settings.getAsBoolean("solr.bulkPrefetch", true);
+        maxInflatedContentSize = settings.getAsBytesSize(
+                "solr.maxInflatedContentSize",
+                new ByteSizeValue(100, ByteSizeUnit.MB)).bytes();
 
         // register update handlers
         // specifying and index and type is optional
@@ -132,16 +136,24 @@ public class SolrUpdateRestAction extends BaseRestHandler {
                 "/_solr/update/{handler}", this);
         restController.registerHandler(RestRequest.Method.GET,
                 "/{index}/_solr/update", this);
+        restController.registerHandler(RestRequest.Method.GET,
+                "/{index}/_solr/update/{handler}", this);
         restController.registerHandler(RestRequest.Method.GET,
                 "/{index}/{type}/_solr/update", this);
+        restController.registerHandler(RestRequest.Method.GET,
+                "/{index}/{type}/_solr/update/{handler}", this);
         restController.registerHandler(RestRequest.Method.POST,
                 "/_solr/update", this);
         restController.registerHandler(RestRequest.Method.POST,
                 "/_solr/update/{handler}", this);
         restController.registerHandler(RestRequest.Method.POST,
                 "/{index}/_solr/update", this);
+        restController.registerHandler(RestRequest.Method.POST,
+                "/{index}/_solr/update/{handler}", this);
         restController.registerHandler(RestRequest.Method.POST,
                 "/{index}/{type}/_solr/update", this);
+        restController.registerHandler(RestRequest.Method.POST,
+                "/{index}/{type}/_solr/update/{handler}", this);
     }
 
     @Override
@@ -151,15 +163,35 @@ public class SolrUpdateRestAction extends BaseRestHandler {
 
         final RestRequest requestEx = new ExtendedRestRequest(request);
 
+        // import a local file given by stream.file or stream.url
+        try {
+            final String streamFile = FileImportService
+                    .getStreamFile(requestEx);
+            if (streamFile != null) {
+                importFile(requestEx, channel, startTime, streamFile);
+                return;
+            }
+        } catch (final ElasticsearchIllegalArgumentException e) {
+            logger.error("Error processing stream.url", e);
+            sendErrorResponse(requestEx, channel, startTime, e.getMessage());
+            return;
+        }
+
         boolean isCommit = false;
         boolean isOptimize = false;
 
         // get the type of Solr update handler we want to mock, default to xml
         final String contentType = request.header("Content-Type");
         String requestType = null;
-        if (contentType != null) {
+        if (SolrPluginConstants.CSV_FORMAT_TYPE.equals(requestEx
+                .param("handler"))) {
+            requestType = SolrPluginConstants.CSV_FORMAT_TYPE;
+        } else if (contentType != null) {
             if (contentType.indexOf("application/javabin") >= 0) {
                 requestType = SolrPluginConstants.JAVABIN_FORMAT_TYPE;
+            } else if (contentType.indexOf("text/csv") >= 0
+                    || contentType.indexOf("application/csv") >= 0) {
+                requestType = SolrPluginConstants.CSV_FORMAT_TYPE;
             } else if (contentType.indexOf("application/x-www-form-urlencoded") >= 0) {
                 isCommit = requestEx.paramAsBoolean("commit", false);
                 isOptimize = requestEx.paramAsBoolean("optimize", false);
@@ -170,11 +202,6 @@ public class SolrUpdateRestAction extends BaseRestHandler {
             requestType = SolrPluginConstants.XML_FORMAT_TYPE;
         }
 
-        // Requests are typically sent to Solr in batches of documents
-        // We can copy that by submitting batch requests to Solr
-        final BulkRequest bulkRequest = Requests.bulkRequest();
-        final List<DeleteByQueryRequest> deleteQueryList = new ArrayList<DeleteByQueryRequest>();
-
         // parse and handle the content
         final BytesReference content = requestEx.content();
         if (content.length() == 0) {
@@ -188,319 +215,228 @@ public class SolrUpdateRestAction extends BaseRestHandler {
             } else if (TRUE.equalsIgnoreCase(requestEx.param("rollback"))) {
                 isCommit = true; // rollback is not supported
             }
-        } else if (SolrPluginConstants.XML_FORMAT_TYPE.equals(requestType)) {
-            // XML Content
-            XMLStreamReader parser = null;
+        } else if (!SolrPluginConstants.NONE_FORMAT_TYPE.equals(requestType)) {
+            final UpdateParams params = requestFactory.createParams(requestEx);
+            final UpdateReader reader;
             try {
-                // create parser for the content
-                parser = inputFactory.createXMLStreamReader(new StringReader(
-                        content.toUtf8()));
-
-                // parse the xml
-                // we only care about doc and delete tags for now
-                boolean stop = false;
-                while (!stop) {
-                    // get the xml "event"
-                    final int event = parser.next();
-                    switch (event) {
-                    case XMLStreamConstants.END_DOCUMENT:
-                        // this is the end of the document
-                        // close parser and exit while loop
-                        stop = true;
-                        break;
-                    case XMLStreamConstants.START_ELEMENT:
-                        // start of an xml tag
-                        // determine if we need to add or delete a document
-                        final String currTag = parser.getLocalName();
-                        if ("doc".equals(currTag)) {
-                            // add a document
-                            final Map<String, Object> doc = parseXmlDoc(parser);
-                            if (doc != null) {
-                                bulkRequest
-                                        .add(getIndexRequest(doc, requestEx));
-                            }
-                        } else if ("delete".equals(currTag)) {
-                            // delete a document
-                            final List<ActionRequest<?>> requestList = parseXmlDelete(
-                                    parser, requestEx);
-                            for (final ActionRequest<?> req : requestList) {
-                                if (req instanceof DeleteRequest) {
-                                    bulkRequest.add(req);
-                                } else if (req instanceof DeleteByQueryRequest) {
-                                    deleteQueryList
-                                            .add((DeleteByQueryRequest) req);
-                                }
-                            }
-                        } else if ("commit".equals(currTag)) {
-                            isCommit = true;
-                        } else if ("optimize".equals(currTag)) {
-                            isOptimize = true;
-                        }
-                        // rollback is not supported at the moment..
-                        break;
-                    default:
-                        break;
-                    }
-                }
+                reader = createReader(requestEx, params, requestType);
             } catch (final Exception e) {
-                // some sort of error processing the xml input
-                logger.error("Error processing xml input", e);
-                final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
-                errorResponse.add("code", 500);
-                errorResponse.add("msg", e.getMessage());
-                sendResponse(requestEx, channel, 500,
-                        System.currentTimeMillis() - startTime, errorResponse);
+                // some sort of error processing the input
+                logger.error("Error processing {} input", e, requestType);
+                sendErrorResponse(requestEx, channel, startTime,
+                        e.getMessage());
                 return;
-            } finally {
-                if (parser != null) {
-                    try {
-                        parser.close();
-                    } catch (final XMLStreamException e) {
-                        logger.warn("Failed to close a parser.", e);
-                    }
-                }
             }
-        } else if (SolrPluginConstants.JAVABIN_FORMAT_TYPE.equals(requestType)) {
-            // JavaBin Content
-            try {
-                // We will use the JavaBin codec from solrj
-                // unmarshal the input to a SolrUpdate request
-                final JavaBinUpdateRequestCodec codec = new JavaBinUpdateRequestCodec();
-                final UpdateRequest req = codec.unmarshal(
-                        new ByteArrayInputStream(content.toBytes()), null);
-
-                // Get the list of documents to index out of the UpdateRequest
-                // Add each document to the bulk request
-                // convert the SolrInputDocument into a map which will be used
-                // as the ES source field
-                final List<SolrInputDocument> docs = req.getDocuments();
-                if (docs != null) {
-                    for (final SolrInputDocument doc : docs) {
-                        bulkRequest.add(getIndexRequest(convertToMap(doc),
-                                requestEx));
-                    }
-                }
-
-                // See if we have any documents to delete
-                // if yes, add them to the bulk request
-                final List<String> deleteIds = req.getDeleteById();
-                if (deleteIds != null) {
-                    for (final String id : deleteIds) {
-                        bulkRequest.add(getDeleteIdRequest(id, requestEx));
-                    }
-                }
+            if (requestEx.paramAsBoolean("async", false)) {
+                submit(requestEx, channel, startTime, params, reader);
+            } else {
+                index(client, requestEx, channel, startTime, params, reader);
+            }
+            return;
+        }
 
-                final List<String> deleteQueries = req.getDeleteQuery();
-                if (deleteQueries != null) {
-                    for (final String query : deleteQueries) {
-                        deleteQueryList.add(getDeleteQueryRequest(query,
-                                requestEx));
-                    }
-                }
+        if (isCommit) {
+            commit(client, requestEx, channel, startTime);
+        } else if (isOptimize) {
+            optimize(client, requestEx, channel, startTime);
+        } else {
+            sendErrorResponse(requestEx, channel, startTime,
+                    "Unknown request parameters.");
+        }
+    }
 
-                isCommit = req.getAction() == ACTION.COMMIT;
-                isOptimize = req.getAction() == ACTION.OPTIMIZE;
-            } catch (final Exception e) {
-                // some sort of error processing the javabin input
-                logger.error("Error processing javabin input", e);
-                final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
-                errorResponse.add("code", 500);
-                errorResponse.add("msg", e.getMessage());
-                sendResponse(requestEx, channel, 500,
-                        System.currentTimeMillis() - startTime, errorResponse);
-                return;
+    private UpdateReader createReader(final RestRequest request,
+            final UpdateParams params, final String requestType)
+            throws Exception {
+        final InputStream in = ContentStreams.open(request,
+                maxInflatedContentSize);
+        try {
+            if (SolrPluginConstants.JAVABIN_FORMAT_TYPE.equals(requestType)) {
+                return new JavaBinUpdateReader(in, fieldNamePool);
+            } else if (SolrPluginConstants.CSV_FORMAT_TYPE.equals(requestType)) {
+                return new CSVUpdateReader(new InputStreamReader(in,
+                        SolrPluginConstants.CHARSET_UTF8), request,
+                        fieldTypeResolver.getMappingView(params.getIndex(),
+                                params.getType()), fieldNamePool);
+            }
+            return new XMLUpdateReader(inputFactory, in, fieldNamePool);
+        } catch (final Exception e) {
+            try {
+                in.close();
+            } catch (final IOException ioe) {
+                logger.warn("Failed to close a content stream.", ioe);
             }
+            throw e;
         }
+    }
 
-        // only submit the bulk request if there are index/delete actions
-        // it is possible not to have any actions when parsing xml due to the
-        // commit and optimize messages that will not generate documents
-        if (bulkRequest.numberOfActions() > 0) {
-            client.bulk(bulkRequest, new ActionListener<BulkResponse>() {
-
-                // successful bulk request
-                @Override
-                public void onResponse(final BulkResponse response) {
-                    logger.info("Bulk request completed");
-                    StringBuilder failureBuf = null;
-                    for (final BulkItemResponse itemResponse : response) {
-                        final Failure failure = itemResponse.getFailure();
-                        if (failure != null) {
-                            final String msg = "Index request failed {index:"
-                                    + failure.getIndex() + ", type:"
-                                    + failure.getType() + ", id:"
-                                    + failure.getId() + ", reason:"
-                                    + failure.getMessage() + "}";
-                            if (failureBuf == null) {
-                                failureBuf = new StringBuilder();
-                            }
-                            failureBuf.append(msg).append('\n');
+    /**
+     * Indexes the update commands in bounded bulk requests, then executes
+     * commit or optimize if requested.
+     */
+    private void index(final Client client, final RestRequest request,
+            final RestChannel channel, final long startTime,
+            final UpdateParams params, final UpdateReader reader) {
+        new BulkIndexer(client, requestFactory, params, reader,
+                new ActionListener<BulkIndexer.Result>() {
+
+                    @Override
+                    public void onResponse(final BulkIndexer.Result result) {
+                        if (result.hasFailures()) {
+                            final String failureMsg = result
+                                    .getFailureMessage();
+                            logger.error(failureMsg);
+                            sendErrorResponse(request, channel, startTime,
+                                    failureMsg);
+                        } else if (result.isCommit()
+                                || request.paramAsBoolean("commit", false)) {
+                            commit(client, request, channel, startTime);
+                        } else if (result.isOptimize()
+                                || request.paramAsBoolean("optimize", false)) {
+                            optimize(client, request, channel, startTime);
+                        } else {
+                            sendResponse(request, channel, 0,
+                                    System.currentTimeMillis() - startTime,
+                                    null);
                         }
                     }
 
-                    if (failureBuf == null) {
-                        if (deleteQueryList.isEmpty()) {
-                            SolrUpdateRestAction.this.sendResponse(requestEx,
-                                    channel, 0, System.currentTimeMillis()
-                                            - startTime, null);
-                        } else {
-                            SolrUpdateRestAction.this.deleteByQueries(client,
-                                    requestEx, channel, startTime,
-                                    deleteQueryList);
-                        }
-                    } else {
-                        final String failureMsg = failureBuf.toString();
-                        logger.error(failureMsg);
-                        final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
-                        errorResponse.add("code", 500);
-                        errorResponse.add("msg", failureMsg);
-                        SolrUpdateRestAction.this.sendResponse(requestEx,
-                                channel, 500, System.currentTimeMillis()
-                                        - startTime, errorResponse);
+                    @Override
+                    public void onFailure(final Throwable e) {
+                        logger.error("Bulk request failed", e);
+                        sendErrorResponse(request, channel, startTime,
+                                e.getMessage());
                     }
-                }
-
-                // failed bulk request
-                @Override
-                public void onFailure(final Throwable e) {
-                    logger.error("Bulk request failed", e);
-
-                    final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
-                    errorResponse.add("code", 500);
-                    errorResponse.add("msg", e.getMessage());
-                    SolrUpdateRestAction.this.sendResponse(requestEx, channel,
-                            500, System.currentTimeMillis() - startTime,
-                            errorResponse);
-                }
-            });
-        } else if (!deleteQueryList.isEmpty()) {
-            deleteByQueries(client, requestEx, channel, startTime,
-                    deleteQueryList);
-        } else if (isCommit) {
-            if (commitAsFlush) {
-                final String index = request.hasParam("index") ? request
-                        .param("index") : defaultIndexName;
-                final FlushRequest flushRequest = new FlushRequest(index);
-                client.admin()
-                        .indices()
-                        .flush(flushRequest,
-                                new ActionListener<FlushResponse>() {
-
-                                    @Override
-                                    public void onResponse(
-                                            final FlushResponse response) {
-                                        sendResponse(requestEx, channel, 0,
-                                                System.currentTimeMillis()
-                                                        - startTime, null);
-                                    }
-
-                                    @Override
-                                    public void onFailure(final Throwable t) {
-                                        logger.error(
-                                                "Failed to commit indices.", t);
-                                        final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
-                                        errorResponse.add("code", 500);
-                                        errorResponse.add("msg", t.getMessage());
-                                        sendResponse(requestEx, channel, 500,
-                                                System.currentTimeMillis()
-                                                        - startTime,
-                                                errorResponse);
-                                    }
-                                });
-            } else {
-                sendResponse(requestEx, channel, 0, System.currentTimeMillis()
-                        - startTime, null);
-            }
-        } else if (isOptimize) {
-            if (optimizeAsOptimize) {
-                final String index = request.hasParam("index") ? request
-                        .param("index") : defaultIndexName;
-                final OptimizeRequest optimizeRequest = new OptimizeRequest(
-                        index);
-                client.admin()
-                        .indices()
-                        .optimize(optimizeRequest,
-                                new ActionListener<OptimizeResponse>() {
-
-                                    @Override
-                                    public void onResponse(
-                                            final OptimizeResponse response) {
-                                        sendResponse(requestEx, channel, 0,
-                                                System.currentTimeMillis()
-                                                        - startTime, null);
-                                    }
-
-                                    @Override
-                                    public void onFailure(final Throwable t) {
-                                        logger.error(
-                                                "Failed to optimize indices.",
-                                                t);
-                                        final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
-                                        errorResponse.add("code", 500);
-                                        errorResponse.add("msg", t.getMessage());
-                                        sendResponse(requestEx, channel, 500,
-                                                System.currentTimeMillis()
-                                                        - startTime,
-                                                errorResponse);
-                                    }
-                                });
-            } else {
-                sendResponse(requestEx, channel, 0, System.currentTimeMillis()
-                        - startTime, null);
+                }).bulkActions(bulkActions).prefetch(bulkPrefetch).start();
+    }
+
+    /**
+     * Stores the update commands into the journal and responds without
+     * waiting for them to be indexed.
+     */
+    private void submit(final RestRequest request, final RestChannel channel,
+            final long startTime, final UpdateParams params,
+            final UpdateReader reader) {
+        try {
+            asyncUpdateService.submit(request, params, reader);
+        } catch (final Exception e) {
+            logger.error("Failed to store async updates.", e);
+            sendErrorResponse(request, channel, startTime, e.getMessage());
+            return;
+        } finally {
+            try {
+                reader.close();
+            } catch (final IOException e) {
+                logger.warn("Failed to close an update reader.", e);
             }
-        } else {
-            final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
-            errorResponse.add("code", 500);
-            errorResponse.add("msg", "Unknown request parameters.");
-            sendResponse(requestEx, channel,
-                    500, System.currentTimeMillis() - startTime,
-                    errorResponse);
         }
+        sendResponse(request, channel, 0, System.currentTimeMillis()
+                - startTime, null);
+    }
+
+    /**
+     * Starts importing a local file and responds with the import status
+     * without waiting for the import to finish.
+     */
+    private void importFile(final RestRequest request,
+            final RestChannel channel, final long startTime,
+            final String streamFile) {
+        final ImportTask task;
+        try {
+            task = fileImportService.startImport(request, streamFile);
+        } catch (final Exception e) {
+            logger.error("Failed to import {}", e, streamFile);
+            sendErrorResponse(request, channel, startTime, e.getMessage());
+            return;
+        }
+
+        final NamedList<Object> solrResponse = new SimpleOrderedMap<Object>();
+        final NamedList<Object> responseHeader = new SimpleOrderedMap<Object>();
+        responseHeader.add("status", 0);
+        responseHeader.add("QTime",
+                (int) (System.currentTimeMillis() - startTime));
+        solrResponse.add("responseHeader", responseHeader);
+        solrResponse.add("import", task.getStatus());
+        SolrResponseUtils.writeResponse(solrResponse, request, channel,
+                responseWriters);
     }
 
-    private void deleteByQueries(final Client client,
-            final RestRequest request, final RestChannel channel,
-            final long startTime,
-            final List<DeleteByQueryRequest> deleteQueryList) {
-        final AtomicInteger counter = new AtomicInteger(deleteQueryList.size());
-        final StringBuilder failureBuf = new StringBuilder(200);
-        for (final DeleteByQueryRequest deleteQueryRequest : deleteQueryList) {
-            client.deleteByQuery(deleteQueryRequest,
-                    new ActionListener<DeleteByQueryResponse>() {
-
-                        @Override
-                        public void onResponse(
-                                final DeleteByQueryResponse response) {
-                            if (counter.decrementAndGet() == 0) {
-                                if (failureBuf.length() == 0) {
-                                    SolrUpdateRestAction.this.sendResponse(
-                                            request, channel, 0,
+    private void commit(final Client client, final RestRequest request,
+            final RestChannel channel, final long startTime) {
+        if (commitAsFlush) {
+            final String index = request.hasParam("index") ? request
+                    .param("index") : defaultIndexName;
+            final FlushRequest flushRequest = new FlushRequest(index);
+            client.admin()
+                    .indices()
+                    .flush(flushRequest,
+                            new ActionListener<FlushResponse>() {
+
+                                @Override
+                                public void onResponse(
+                                        final FlushResponse response) {
+                                    sendResponse(request, channel, 0,
                                             System.currentTimeMillis()
                                                     - startTime, null);
-                                } else {
-                                    final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
-                                    errorResponse.add("code", 500);
-                                    errorResponse.add("msg",
-                                            failureBuf.toString());
-                                    SolrUpdateRestAction.this.sendResponse(
-                                            request, channel, 500,
+                                }
+
+                                @Override
+                                public void onFailure(final Throwable t) {
+                                    logger.error(
+                                            "Failed to commit indices.", t);
+                                    sendErrorResponse(request, channel,
+                                            startTime, t.getMessage());
+                                }
+                            });
+        } else {
+            sendResponse(request, channel, 0, System.currentTimeMillis()
+                    - startTime, null);
+        }
+    }
+
+    private void optimize(final Client client, final RestRequest request,
+            final RestChannel channel, final long startTime) {
+        if (optimizeAsOptimize) {
+            final String index = request.hasParam("index") ? request
+                    .param("index") : defaultIndexName;
+            final OptimizeRequest optimizeRequest = new OptimizeRequest(index);
+            client.admin()
+                    .indices()
+                    .optimize(optimizeRequest,
+                            new ActionListener<OptimizeResponse>() {
+
+                                @Override
+                                public void onResponse(
+                                        final OptimizeResponse response) {
+                                    sendResponse(request, channel, 0,
                                             System.currentTimeMillis()
-                                                    - startTime, errorResponse);
+                                                    - startTime, null);
                                 }
-                            }
-                        }
 
-                        @Override
-                        public void onFailure(final Throwable t) {
-                            logger.error("DeleteByQuery request failed", t);
-                            if (counter.decrementAndGet() == 0) {
-                                failureBuf.append(t.getMessage());
-                            }
-                        }
-                    });
+                                @Override
+                                public void onFailure(final Throwable t) {
+                                    logger.error(
+                                            "Failed to optimize indices.",
+                                            t);
+                                    sendErrorResponse(request, channel,
+                                            startTime, t.getMessage());
+                                }
+                            });
+        } else {
+            sendResponse(request, channel, 0, System.currentTimeMillis()
+                    - startTime, null);
         }
     }
 
+    private void sendErrorResponse(final RestRequest request,
+            final RestChannel channel, final long startTime, final String msg) {
+        final NamedList<Object> errorResponse = new SimpleOrderedMap<Object>();
+        errorResponse.add("code", 500);
+        errorResponse.add("msg", msg);
+        sendResponse(request, channel, 500, System.currentTimeMillis()
+                - startTime, errorResponse);
+    }
+
     /**
      * Sends a dummy response to the Solr client
      *
@@ -523,342 +459,7 @@ public class SolrUpdateRestAction extends BaseRestHandler {
         }
 
         // send the dummy response
-        SolrResponseUtils.writeResponse(solrResponse, request, channel);
-    }
-
-    /**
-     * Generates an ES DeleteRequest object based on the Solr document id
-     *
-     * @param id
-     *            the Solr document id
-     * @param request
-     *            the ES rest request
-     * @return the ES delete request
-     */
-    private DeleteRequest getDeleteIdRequest(final String id,
-            final RestRequest request) {
-
-        // get the index and type we want to execute this delete request on
-        final String index = request.hasParam("index") ? request.param("index")
-                : "solr";
-        final String type = request.hasParam("type") ? request.param("type")
-                : "docs";
-
-        // create the delete request object
-        final DeleteRequest deleteRequest = new DeleteRequest(index, type,
-                getId(id));
-        deleteRequest.parent(request.param("parent"));
-
-        // TODO: this was causing issues, do we need it?
-        // deleteRequest.version(RestActions.parseVersion(request));
-        // deleteRequest.versionType(VersionType.fromString(request.param("version_type"),
-        // deleteRequest.versionType()));
-
-        deleteRequest.routing(request.param("routing"));
-
-        return deleteRequest;
-    }
-
-    // TODO replace with deleting ids with scan/scroll
-    private DeleteByQueryRequest getDeleteQueryRequest(final String query,
-            final RestRequest request) {
-
-        // get the index and type we want to execute this delete request on
-        final String index = request.hasParam("index") ? request.param("index")
-                : "solr";
-
-        // create the delete request object
-        final DeleteByQueryRequest deleteRequest = Requests
-                .deleteByQueryRequest(index);
-        deleteRequest.source(new QuerySourceBuilder()
-                .setQuery(QueryBuilders.queryStringQuery(query)
-                        .lowercaseExpandedTerms(lowercaseExpandedTerms)
-                        .autoGeneratePhraseQueries(autoGeneratePhraseQueries)));
-
-        deleteRequest.routing(request.param("routing"));
-
-        return deleteRequest;
-    }
-
-    /**
-     * Converts a SolrInputDocument into an ES IndexRequest
-     *
-     * @param doc
-     *            the Solr input document to convert
-     * @param request
-     *            the ES rest request
-     * @return the ES index request object
-     */
-    private IndexRequest getIndexRequest(final Map<String, Object> doc,
-            final RestRequest request) {
-        // get the index and type we want to index the document in
-        final String index = request.hasParam("index") ? request.param("index")
-                : defaultIndexName;
-        final String type = request.hasParam("type") ? request.param("type")
-                : defaultTypeName;
-
-        // Get the id from request or if not available generate an id for the
-        // document
-        final String id = request.hasParam("id") ? request.param("id")
-                : getIdForDoc(doc);
-
-        // create an IndexRequest for this document
-        final IndexRequest indexRequest = new IndexRequest(index, type, id);
-        indexRequest.routing(request.param("routing"));
-        indexRequest.parent(request.param("parent"));
-        indexRequest.source(doc);
-        indexRequest.timeout(request.paramAsTime("timeout",
-                ShardReplicationOperationRequest.DEFAULT_TIMEOUT));
-        indexRequest.refresh(request.paramAsBoolean("refresh",
-                indexRequest.refresh()));
-
-        // TODO: this caused issues, do we need it?
-        // indexRequest.version(RestActions.parseVersion(request));
-        // indexRequest.versionType(VersionType.fromString(request.param("version_type"),
-        // indexRequest.versionType()));
-
-        indexRequest.opType(IndexRequest.OpType.INDEX);
-
-        // TODO: force creation of index, do we need it?
-        // indexRequest.create(true);
-
-        final String replicationType = request.param("replication");
-        if (replicationType != null) {
-            indexRequest.replicationType(ReplicationType
-                    .fromString(replicationType));
-        }
-
-        final String consistencyLevel = request.param("consistency");
-        if (consistencyLevel != null) {
-            indexRequest.consistencyLevel(WriteConsistencyLevel
-                    .fromString(consistencyLevel));
-        }
-
-        // we just send a response, no need to fork
-        indexRequest.listenerThreaded(true);
-
-        // we don't spawn, then fork if local
-        indexRequest.operationThreaded(true);
-
-        return indexRequest;
-    }
-
-    /**
-     * Generates document id. A Solr document id may not be a valid ES id, so we
-     * attempt to find the Solr document id and convert it into a valid ES
-     * document id. We keep the original Solr id so the document can be found
-     * and deleted later if needed.
-     *
-     * We check for Solr document id's in the following fields: id, docid,
-     * documentid, contentid, uuid, url
-     *
-     * If no id is found, we generate a random one.
-     *
-     * @param doc
-     *            the input document
-     * @return the generated document id
-     */
-    private String getIdForDoc(final Map<String, Object> doc) {
-        // start with a random id
-        String id = null;
-
-        // scan the input document for an id
-        for (final String idField : idFields) {
-            if (doc.containsKey(idField)) {
-                id = doc.get(idField).toString();
-                break;
-            }
-        }
-
-        if (id == null) {
-            id = UUID.randomUUID().toString();
-        }
-
-        // always store the id back into the "id" field
-        // so we can get it back in results
-        doc.put("id", id);
-
-        // return the id which is the md5 of either the
-        // random uuid or id found in the input document.
-        return getId(id);
-    }
-
-    /**
-     * Return the given id or a hashed version thereof, based on the plugin
-     * configuration
-     *
-     * @param id
-     * @return
-     */
-    private final String getId(final String id) {
-        return hashIds ? getMD5(id) : id;
-    }
-
-    /**
-     * Calculates the md5 hex digest of the given input string
-     *
-     * @param input
-     *            the string to md5
-     * @return the md5 hex digest
-     */
-    private String getMD5(final String input) {
-        try {
-            final MessageDigest md = MessageDigest.getInstance("MD5");
-            final byte[] bytes = input
-                    .getBytes(SolrPluginConstants.CHARSET_UTF8);
-            final byte[] digest = md.digest(bytes);
-            final char[] encodeHex = Hex.encodeHex(digest);
-            return String.valueOf(encodeHex);
-        } catch (final NoSuchAlgorithmException e) {
-            throw new ElasticsearchException("Failed to encode " + input, e);
-        }
-    }
-
-    /**
-     * Converts a SolrInputDocument into a Map
-     *
-     * @param doc
-     *            the SolrInputDocument to convert
-     * @return the input document as a map
-     */
-    private Map<String, Object> convertToMap(final SolrInputDocument doc) {
-        // create the Map we will put the fields in
-        final Map<String, Object> newDoc = new HashMap<String, Object>();
-
-        // loop though all the fields and insert them into the map
-        final Collection<SolrInputField> fields = doc.values();
-        if (fields != null) {
-            for (final SolrInputField field : fields) {
-                newDoc.put(field.getName(), field.getValue());
-            }
-        }
-
-        return newDoc;
-    }
-
-    /**
-     * Reads a SolrXML document into a map of fields
-     *
-     * @param parser
-     *            the xml parser
-     * @return the document as a map
-     * @throws XMLStreamException
-     */
-    private Map<String, Object> parseXmlDoc(final XMLStreamReader parser)
-            throws XMLStreamException {
-        Map<String, Object> doc = new HashMap<String, Object>();
-        final StringBuilder buf = new StringBuilder();
-        String name = null;
-        boolean stop = false;
-        // infinite loop until we are done parsing the document or an error
-        // occurs
-        while (!stop) {
-            final int event = parser.next();
-            switch (event) {
-            case XMLStreamConstants.START_ELEMENT:
-                buf.setLength(0);
-                final String localName = parser.getLocalName();
-                // we are looking for field elements only
-                if (!"field".equals(localName)) {
-                    logger.warn("unexpected xml tag /doc/" + localName);
-                    doc = null;
-                    stop = true;
-                }
-
-                // get the name attribute of the field
-                String attrName = "";
-                String attrVal = "";
-                for (int i = 0; i < parser.getAttributeCount(); i++) {
-                    attrName = parser.getAttributeLocalName(i);
-                    attrVal = parser.getAttributeValue(i);
-                    if ("name".equals(attrName)) {
-                        name = attrVal;
-                    }
-                }
-                break;
-            case XMLStreamConstants.END_ELEMENT:
-                if ("doc".equals(parser.getLocalName())) {
-                    // we are done parsing the doc
-                    // break out of loop
-                    stop = true;
-                } else if ("field".equals(parser.getLocalName())) {
-                    // put the field value into the map
-                    // handle multiple values by putting them into a list
-                    if (doc.containsKey(name) && doc.get(name) instanceof List) {
-                        @SuppressWarnings("unchecked")
-                        final List<String> vals = (List<String>) doc.get(name);
-                        vals.add(buf.toString());
-                        doc.put(name, vals);
-                    } else if (doc.containsKey(name)) {
-                        final List<String> vals = new ArrayList<String>();
-                        vals.add((String) doc.get(name));
-                        vals.add(buf.toString());
-                        doc.put(name, vals);
-                    } else {
-                        doc.put(name, buf.toString());
-                    }
-                }
-                break;
-            case XMLStreamConstants.SPACE:
-            case XMLStreamConstants.CDATA:
-            case XMLStreamConstants.CHARACTERS:
-                // save all text data
-                buf.append(parser.getText());
-                break;
-            default:
-                break;
-            }
-        }
-
-        // return the parsed doc
-        return doc;
-    }
-
-    /**
-     * Parse the document id out of the SolrXML delete command
-     *
-     * @param parser
-     *            the xml parser
-     * @return the document id to delete
-     * @throws XMLStreamException
-     */
-    private List<ActionRequest<?>> parseXmlDelete(final XMLStreamReader parser,
-            final RestRequest request) throws XMLStreamException {
-        final StringBuilder buf = new StringBuilder();
-        boolean stop = false;
-        final List<ActionRequest<?>> requestList = new ArrayList<ActionRequest<?>>();
-        // infinite loop until we get docid or error
-        while (!stop) {
-            final int event = parser.next();
-            switch (event) {
-            case XMLStreamConstants.START_ELEMENT:
-                buf.setLength(0);
-                break;
-            case XMLStreamConstants.END_ELEMENT:
-                final String currTag = parser.getLocalName();
-                if ("id".equals(currTag)) {
-                    final String docid = buf.toString();
-                    requestList.add(getDeleteIdRequest(docid, request));
-                } else if ("query".equals(currTag)) {
-                    final String query = buf.toString();
-                    requestList.add(getDeleteQueryRequest(query, request));
-                } else if ("delete".equals(currTag)) {
-                    // done parsing, exit loop
-                    stop = true;
-                } else {
-                    logger.warn("unexpected xml tag /delete/" + currTag);
-                }
-                break;
-            case XMLStreamConstants.SPACE:
-            case XMLStreamConstants.CDATA:
-            case XMLStreamConstants.CHARACTERS:
-                // save all text data (this is the id)
-                buf.append(parser.getText());
-                break;
-            }
-        }
-
-        // return the extracted docid
-        return requestList;
+        SolrResponseUtils.writeResponse(solrResponse, request, channel,
+                responseWriters);
     }
 }
@@ -0,0 +1,201 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.codelibs.elasticsearch.solr.SolrPluginConstants;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Implements Solr's cursorMark on ES scroll contexts. The cursor token is an
+ * opaque encoding of the page number and the scroll id, so every page gets a
+ * new nextCursorMark, and the last page returns the cursorMark it was
+ * requested with, as Solr does.
+ *
+ * A scroll cannot go back, so the page expected next is kept per scroll id,
+ * and a cursorMark that was already used is rejected instead of returning the
+ * following page. Cursors opened on another node are not checked.
+ *
+ * A scroll context keeps the segments of the search open, so the number of
+ * cursors opened on this node is limited by solr.cursor.max, and a cursor is
+ * released when it is not used for solr.cursor.timeout.
+ */
+public class CursorService extends AbstractComponent {
+
+    /** the cursorMark of the first page */
+    public static final String FIRST_CURSOR = "*";
+
+    private static final BaseEncoding ENCODING = BaseEncoding.base64Url()
+            .omitPadding();
+
+    private final Client client;
+
+    private final TimeValue timeout;
+
+    private final int maxCursors;
+
+    // the page number of the next cursorMark by scroll id
+    private final Cache<String, Long> cursors;
+
+    private final CounterMetric opened = new CounterMetric();
+
+    private final CounterMetric completed = new CounterMetric();
+
+    private final CounterMetric rejected = new CounterMetric();
+
+    @Inject
+    public CursorService(final Settings settings, final Client client) {
+        super(settings);
+        this.client = client;
+
+        timeout = settings.getAsTime("solr.cursor.timeout",
+                TimeValue.timeValueMinutes(1));
+        maxCursors = settings.getAsInt("solr.cursor.max", 100);
+        // scroll contexts expire in ES after the same timeout
+        cursors = CacheBuilder.newBuilder()
+                .expireAfterAccess(timeout.millis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @return the keep-alive time of the scroll contexts
+     */
+    public TimeValue getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Checks if a new cursor can be opened.
+     *
+     * @throws EsRejectedExecutionException
+     *             if too many cursors are open
+     */
+    public void checkOpen() {
+        cursors.cleanUp();
+        if (cursors.size() >= maxCursors) {
+            rejected.inc();
+            throw new EsRejectedExecutionException("Too many open cursors: "
+                    + maxCursors);
+        }
+    }
+
+    /**
+     * Returns the scroll id of a cursor token, and marks the token as used.
+     *
+     * @param cursorMark
+     *            the cursor token
+     * @return the scroll id
+     * @throws ElasticsearchIllegalArgumentException
+     *             if the token is invalid or was already used
+     */
+    public String getScrollId(final String cursorMark) {
+        final String value = decode(cursorMark);
+        final int pos = value.indexOf(':');
+        final Long page = Long.valueOf(value.substring(0, pos));
+        final String scrollId = value.substring(pos + 1);
+        if (cursors.getIfPresent(scrollId) != null
+                && !cursors.asMap().replace(scrollId, page, page + 1)) {
+            throw new ElasticsearchIllegalArgumentException(
+                    "cursorMark is out of date, the cursor cannot be replayed: "
+                            + cursorMark);
+        }
+        return scrollId;
+    }
+
+    /**
+     * Returns the token of the next page.
+     *
+     * @param cursorMark
+     *            the cursor token of the current page
+     * @param scrollId
+     *            the scroll id of the current page
+     * @return the cursor token of the next page
+     */
+    public String next(final String cursorMark, final String scrollId) {
+        long page = 0;
+        if (FIRST_CURSOR.equals(cursorMark)) {
+            opened.inc();
+        } else {
+            final String value = decode(cursorMark);
+            page = Long.parseLong(value.substring(0, value.indexOf(':')));
+            final String previousId = value.substring(value.indexOf(':') + 1);
+            if (!previousId.equals(scrollId)) {
+                cursors.invalidate(previousId);
+            }
+        }
+        cursors.put(scrollId, page + 1);
+        return ENCODING.encode((Long.toString(page + 1) + ':' + scrollId)
+                .getBytes(SolrPluginConstants.CHARSET_UTF8));
+    }
+
+    /**
+     * Releases the scroll context of a cursor that reached the end.
+     *
+     * @param scrollId
+     *            the scroll id
+     */
+    public void close(final String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        cursors.invalidate(scrollId);
+        completed.inc();
+        client.prepareClearScroll().addScrollId(scrollId)
+                .execute(new ActionListener<ClearScrollResponse>() {
+                    @Override
+                    public void onResponse(final ClearScrollResponse response) {
+                        // nothing
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable e) {
+                        logger.debug("Failed to clear scroll {}", e, scrollId);
+                    }
+                });
+    }
+
+    private String decode(final String cursorMark) {
+        try {
+            final String value = new String(ENCODING.decode(cursorMark),
+                    SolrPluginConstants.CHARSET_UTF8);
+            final int pos = value.indexOf(':');
+            if (pos > 0) {
+                Long.parseLong(value.substring(0, pos));
+                return value;
+            }
+        } catch (final IllegalArgumentException e) {
+            // invalid encoding or page number
+        }
+        throw new ElasticsearchIllegalArgumentException("Invalid cursorMark: "
+                + cursorMark);
+    }
+
+    /**
+     * @return the statistics of the cursors
+     */
+    public NamedList<Object> getStats() {
+        cursors.cleanUp();
+        final NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("open", cursors.size());
+        stats.add("max", maxCursors);
+        stats.add("timeout", timeout.toString());
+        stats.add("opened", opened.count());
+        stats.add("completed", completed.count());
+        stats.add("rejected", rejected.count());
+        return stats;
+    }
+}
@@ -0,0 +1,124 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestRequest;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Emulates Solr's documentCache. The fields of converted SolrDocuments are
+ * cached by the index UUID, type, id and version of the document and the fl
+ * parameter, so popular documents are not parsed and converted on every
+ * request. A new version of a document, or a document of an index recreated
+ * with the same name, has a new key, so the cache needs no invalidation and
+ * old versions are evicted by the LRU policy.
+ */
+public class DocumentCache extends AbstractComponent {
+
+    private final ClusterService clusterService;
+
+    private final boolean enabled;
+
+    private final Cache<String, SolrDocument> cache;
+
+    @Inject
+    public DocumentCache(final Settings settings,
+            final ClusterService clusterService) {
+        super(settings);
+        this.clusterService = clusterService;
+
+        enabled = settings.getAsBoolean("solr.documentCache.enabled", false);
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(settings.getAsInt("solr.documentCache.size", 4096))
+                .recordStats().build();
+    }
+
+    /**
+     * @return true if converted documents are cached. The versions of hits
+     *         must be requested to look them up.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cache key of a document.
+     *
+     * @param request
+     *            the search request
+     * @param index
+     *            the index of the document
+     * @param type
+     *            the type of the document
+     * @param id
+     *            the id of the document
+     * @param version
+     *            the version of the document
+     * @return the key, or null if the document cannot be cached or the index
+     *         is not found
+     */
+    public String getKey(final RestRequest request, final String index,
+            final String type, final String id, final long version) {
+        if (!enabled || version < 0) {
+            return null;
+        }
+        final IndexMetaData indexMetaData = clusterService.state().metaData()
+                .index(index);
+        if (indexMetaData == null) {
+            return null;
+        }
+        final StringBuilder buf = new StringBuilder(64);
+        buf.append(indexMetaData.getUUID()).append('\u0000').append(type).append('\u0000')
+                .append(id).append('\u0000').append(version);
+        for (final String fl : request.paramAsStringArray("fl",
+                new String[0])) {
+            buf.append('\u0000').append(fl.trim());
+        }
+        return buf.toString();
+    }
+
+    /**
+     * @param key
+     *            the cache key
+     * @return the fields of the document without the score, or null. The
+     *         document must not be modified.
+     */
+    public SolrDocument get(final String key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * @param key
+     *            the cache key
+     * @param doc
+     *            the fields of the document without the score
+     */
+    public void put(final String key, final SolrDocument doc) {
+        cache.put(key, doc);
+    }
+
+    /**
+     * @return the statistics of the cache
+     */
+    public NamedList<Object> getStats() {
+        final CacheStats cacheStats = cache.stats();
+        final NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("enabled", enabled);
+        stats.add("size", cache.size());
+        stats.add("lookups", cacheStats.requestCount());
+        stats.add("hits", cacheStats.hitCount());
+        stats.add("misses", cacheStats.missCount());
+        stats.add("hitratio", (float) cacheStats.hitRate());
+        stats.add("evictions", cacheStats.evictionCount());
+        return stats;
+    }
+}
@@ -0,0 +1,100 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+
+/**
+ * The fields of a Solr fl parameter. The score is always returned, so it is
+ * not a field to fetch, and * returns all fields of the source.
+ */
+public class FieldList {
+
+    private static final String SCORE = "score";
+
+    private static final FieldList ALL = new FieldList(true,
+            Strings.EMPTY_ARRAY, false);
+
+    private final boolean all;
+
+    private final String[] fields;
+
+    private final boolean wildcard;
+
+    private FieldList(final boolean all, final String[] fields,
+            final boolean wildcard) {
+        this.all = all;
+        this.fields = fields;
+        this.wildcard = wildcard;
+    }
+
+    /**
+     * Parses fl parameters, which are separated by commas or spaces.
+     *
+     * @param fl
+     *            the fl parameters
+     * @return the field list
+     */
+    public static FieldList parse(final String[] fl) {
+        final List<String> fields = new ArrayList<String>();
+        boolean specified = false;
+        boolean wildcard = false;
+        for (final String value : fl) {
+            for (final String field : value.trim().split("[\\s,]+")) {
+                if (field.isEmpty()) {
+                    continue;
+                }
+                specified = true;
+                if ("*".equals(field)) {
+                    return ALL;
+                } else if (!SCORE.equals(field)) {
+                    wildcard |= Regex.isSimpleMatchPattern(field);
+                    fields.add(field);
+                }
+            }
+        }
+        if (!specified) {
+            return ALL;
+        }
+        return new FieldList(false, fields.toArray(new String[fields.size()]),
+                wildcard);
+    }
+
+    /**
+     * @return true if all fields of the source are returned
+     */
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * @return the fields or glob patterns to fetch
+     */
+    public String[] getFields() {
+        return fields;
+    }
+
+    /**
+     * @return true if a field is a glob pattern
+     */
+    public boolean hasWildcard() {
+        return wildcard;
+    }
+
+    /**
+     * @return the source filter of the fields, or null to fetch the whole
+     *         source
+     */
+    public FetchSourceContext getFetchSourceContext() {
+        if (all) {
+            return null;
+        } else if (fields.length == 0) {
+            // only the score is returned
+            return new FetchSourceContext(false);
+        }
+        return new FetchSourceContext(fields);
+    }
+}
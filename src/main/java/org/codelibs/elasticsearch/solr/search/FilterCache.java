@@ -0,0 +1,276 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.codelibs.elasticsearch.solr.SolrPluginConstants;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.cache.clear.ClearIndicesCacheRequest;
+import org.elasticsearch.action.admin.indices.cache.clear.ClearIndicesCacheResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
+
+/**
+ * Emulates Solr's filterCache for fq parameters. ES caches the bitsets of a
+ * filter per segment when the filter has a cache key, so each normalized fq
+ * gets a stable cache key, and equivalent fq strings share the bitsets.
+ *
+ * The fq strings with a cache key are kept in a table of at most
+ * solr.filterCache.size entries. When an entry is evicted, its bitsets are
+ * removed from the ES filter cache, so the number of cached fqs is bounded
+ * like Solr's filterCache.
+ */
+public class FilterCache extends AbstractComponent {
+
+    private static final String KEY_PREFIX = "solr_fq_";
+
+    private static final Pattern NOW_PATTERN = Pattern.compile("\\bNOW\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Client client;
+
+    private final boolean enabled;
+
+    private final Cache<String, String> keyCache;
+
+    @Inject
+    public FilterCache(final Settings settings, final Client client) {
+        super(settings);
+        this.client = client;
+
+        enabled = settings.getAsBoolean("solr.filterCache.enabled", true);
+        final boolean clearEvicted = settings.getAsBoolean(
+                "solr.filterCache.clearEvicted", true);
+        final CacheBuilder<Object, Object> builder = CacheBuilder
+                .newBuilder()
+                .maximumSize(settings.getAsInt("solr.filterCache.size", 512))
+                .recordStats();
+        if (clearEvicted) {
+            keyCache = builder.removalListener(
+                    new RemovalListener<String, String>() {
+                        @Override
+                        public void onRemoval(
+                                final RemovalNotification<String, String> notification) {
+                            if (notification.getCause() == RemovalCause.SIZE) {
+                                clear(notification.getValue());
+                            }
+                        }
+                    }).build();
+        } else {
+            keyCache = builder.build();
+        }
+    }
+
+    /**
+     * @return true if fq parameters are cached by default
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the ES cache key of a filter query.
+     *
+     * @param fq
+     *            the filter query without local params
+     * @param dsl
+     *            true if the filter query is a query DSL
+     * @return the cache key
+     */
+    public String getCacheKey(final String fq, final boolean dsl) {
+        final String normalized = dsl ? "dsl:" + fq.trim() : normalize(fq);
+        try {
+            return keyCache.get(normalized, new Callable<String>() {
+                @Override
+                public String call() {
+                    return KEY_PREFIX
+                            + Hashing
+                                    .md5()
+                                    .hashString(normalized,
+                                            SolrPluginConstants.CHARSET_UTF8)
+                                    .toString();
+                }
+            });
+        } catch (final ExecutionException e) {
+            throw new ElasticsearchException("Failed to create a cache key.",
+                    e);
+        }
+    }
+
+    /**
+     * Returns true if a filter query has NOW date math, so its result changes
+     * over time without any change of the index.
+     *
+     * @param fq
+     *            the filter query without local params
+     * @return true if the filter query refers to the current time
+     */
+    public static boolean isTimeRelative(final String fq) {
+        return NOW_PATTERN.matcher(fq).find();
+    }
+
+    private void clear(final String cacheKey) {
+        final ClearIndicesCacheRequest request = new ClearIndicesCacheRequest()
+                .filterKeys(cacheKey);
+        client.admin().indices()
+                .clearCache(request,
+                        new ActionListener<ClearIndicesCacheResponse>() {
+                            @Override
+                            public void onResponse(
+                                    final ClearIndicesCacheResponse response) {
+                                // nothing
+                            }
+
+                            @Override
+                            public void onFailure(final Throwable e) {
+                                logger.warn("Failed to clear filter {}", e,
+                                        cacheKey);
+                            }
+                        });
+    }
+
+    /**
+     * Returns the statistics of the table of cache keys. The hits and misses
+     * are lookups of fq strings in the table, not reuse of the bitsets in the
+     * ES filter cache, which is reported by the node stats of ES.
+     *
+     * @return the statistics of the cache
+     */
+    public NamedList<Object> getStats() {
+        final CacheStats cacheStats = keyCache.stats();
+        final NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("enabled", enabled);
+        stats.add("size", keyCache.size());
+        stats.add("lookups", cacheStats.requestCount());
+        stats.add("hits", cacheStats.hitCount());
+        stats.add("misses", cacheStats.missCount());
+        stats.add("hitratio", (float) cacheStats.hitRate());
+        stats.add("evictions", cacheStats.evictionCount());
+        return stats;
+    }
+
+    /**
+     * Normalizes a Lucene query string, so that the same query written with
+     * other whitespace or redundant outer parentheses has the same string.
+     * Whitespace outside phrases is collapsed and the outer parentheses are
+     * removed. The clauses are not reordered, because the order of terms
+     * matters when they share a field prefix such as "title: foo bar".
+     *
+     * @param query
+     *            the query string
+     * @return the normalized query string
+     */
+    public static String normalize(final String query) {
+        final List<String> tokens = tokenize(query);
+        if (tokens.size() == 1) {
+            final String token = tokens.get(0);
+            if (isEnclosed(token)) {
+                return normalize(token.substring(1, token.length() - 1));
+            }
+        }
+        return join(tokens, " ");
+    }
+
+    /**
+     * Splits a query string into its top-level clauses and operators.
+     */
+    private static List<String> tokenize(final String query) {
+        final List<String> tokens = new ArrayList<String>();
+        final StringBuilder buf = new StringBuilder();
+        int depth = 0;
+        boolean quoted = false;
+        final int length = query.length();
+        for (int i = 0; i < length; i++) {
+            final char c = query.charAt(i);
+            if (c == '\\' && i + 1 < length) {
+                buf.append(c).append(query.charAt(++i));
+                continue;
+            }
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                }
+                buf.append(c);
+            } else if (c == '"') {
+                quoted = true;
+                buf.append(c);
+            } else if (c == '(' || c == '[' || c == '{') {
+                depth++;
+                buf.append(c);
+            } else if (c == ')' || c == ']' || c == '}') {
+                depth--;
+                buf.append(c);
+            } else if (Character.isWhitespace(c)) {
+                if (depth > 0) {
+                    // collapse whitespace in nested clauses
+                    if (buf.length() > 0
+                            && buf.charAt(buf.length() - 1) != ' ') {
+                        buf.append(' ');
+                    }
+                } else if (buf.length() > 0) {
+                    tokens.add(buf.toString());
+                    buf.setLength(0);
+                }
+            } else {
+                buf.append(c);
+            }
+        }
+        if (buf.length() > 0) {
+            tokens.add(buf.toString());
+        }
+        return tokens;
+    }
+
+    private static boolean isEnclosed(final String token) {
+        if (token.length() < 2 || token.charAt(0) != '('
+                || token.charAt(token.length() - 1) != ')') {
+            return false;
+        }
+        // the first parenthesis must be closed by the last one
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < token.length() - 1; i++) {
+            final char c = token.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String join(final List<String> tokens, final String sep) {
+        final StringBuilder buf = new StringBuilder();
+        for (final String token : tokens) {
+            if (buf.length() > 0) {
+                buf.append(sep);
+            }
+            buf.append(token);
+        }
+        return buf.toString();
+    }
+}
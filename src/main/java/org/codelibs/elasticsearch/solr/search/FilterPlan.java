@@ -0,0 +1,182 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.index.query.AndFilterBuilder;
+import org.elasticsearch.index.query.BoolFilterBuilder;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.QueryFilterBuilder;
+
+/**
+ * Plans the filters of fq parameters by their cache and cost local params, as
+ * Solr does:
+ *
+ * <ul>
+ * <li>Cached filters are combined in a bool filter, which intersects their
+ * bitsets.</li>
+ * <li>Filters with cache=false are applied after the cached filters, in the
+ * order of their cost.</li>
+ * <li>Filters with cache=false and cost&gt;=100 are applied as a post filter,
+ * so they are evaluated only on the documents matching the query and the
+ * other filters. Post filters are not used with faceting, because facet
+ * counts must be filtered as well.</li>
+ * </ul>
+ *
+ * An fq with NOW date math, such as ts:[NOW-1HOUR TO NOW], is not cached by
+ * default, because ES keeps the bitsets of a cache key on a segment across
+ * refreshes while Solr drops its filterCache with each new searcher. With
+ * cache=true, it is cached without a cache key, so ES caches the filter of
+ * the resolved dates.
+ *
+ * Only the lucene query type is supported in local params, so other types
+ * such as term or geofilt are rejected instead of being searched as a query
+ * string.
+ */
+public class FilterPlan {
+
+    /** the minimum cost of a filter applied as a post filter */
+    public static final int POST_FILTER_COST = 100;
+
+    private static final String LUCENE_TYPE = "lucene";
+
+    private static final Comparator<CostFilter> COST_ORDER = new Comparator<CostFilter>() {
+        @Override
+        public int compare(final CostFilter f1, final CostFilter f2) {
+            return f1.cost < f2.cost ? -1 : f1.cost == f2.cost ? 0 : 1;
+        }
+    };
+
+    private final FilterBuilder filter;
+
+    private final FilterBuilder postFilter;
+
+    private FilterPlan(final FilterBuilder filter,
+            final FilterBuilder postFilter) {
+        this.filter = filter;
+        this.postFilter = postFilter;
+    }
+
+    /**
+     * Creates the plan of filter queries.
+     *
+     * @param fqs
+     *            the filter queries, optionally with local params
+     * @param dsl
+     *            true if the filter queries are query DSLs
+     * @param allowPostFilter
+     *            false if expensive filters must not be post filters
+     * @param filterCache
+     *            the cache policy of filter queries
+     * @return the plan
+     * @throws ElasticsearchIllegalArgumentException
+     *             if a filter query has a query type other than lucene
+     */
+    public static FilterPlan create(final String[] fqs, final boolean dsl,
+            final boolean allowPostFilter, final FilterCache filterCache) {
+        final List<FilterBuilder> cachedFilters = new ArrayList<FilterBuilder>();
+        final List<CostFilter> uncachedFilters = new ArrayList<CostFilter>();
+        final List<CostFilter> postFilters = new ArrayList<CostFilter>();
+
+        for (final String fq : fqs) {
+            final LocalParams localParams = LocalParams.parse(fq);
+            final String type = localParams.getType();
+            if (type != null && !LUCENE_TYPE.equals(type)) {
+                throw new ElasticsearchIllegalArgumentException(
+                        "Unsupported query type in fq: " + fq);
+            }
+            final String query = localParams.getQuery();
+            final QueryFilterBuilder filterBuilder = FilterBuilders
+                    .queryFilter(dsl ? QueryBuilders.wrapperQuery(query)
+                            : QueryBuilders.queryString(query));
+            final boolean timeRelative = FilterCache.isTimeRelative(query);
+            final boolean cache = localParams.getAsBoolean("cache",
+                    !timeRelative);
+            if (cache && filterCache.isEnabled()) {
+                filterBuilder.cache(true);
+                if (!timeRelative) {
+                    filterBuilder.cacheKey(filterCache.getCacheKey(query, dsl));
+                }
+                cachedFilters.add(filterBuilder);
+                continue;
+            }
+
+            filterBuilder.cache(false);
+            final int cost = localParams.getAsInt("cost", 0);
+            if (!cache && allowPostFilter && cost >= POST_FILTER_COST) {
+                postFilters.add(new CostFilter(filterBuilder, cost));
+            } else {
+                uncachedFilters.add(new CostFilter(filterBuilder, cost));
+            }
+        }
+
+        FilterBuilder filter = null;
+        if (cachedFilters.size() == 1) {
+            filter = cachedFilters.get(0);
+        } else if (cachedFilters.size() > 1) {
+            final BoolFilterBuilder boolFilter = FilterBuilders.boolFilter();
+            for (final FilterBuilder filterBuilder : cachedFilters) {
+                boolFilter.must(filterBuilder);
+            }
+            filter = boolFilter;
+        }
+        filter = and(filter, uncachedFilters);
+
+        return new FilterPlan(filter, and(null, postFilters));
+    }
+
+    /**
+     * Combines the filters with an and filter, which evaluates them in order,
+     * so cheaper filters reduce the documents checked by expensive ones.
+     */
+    private static FilterBuilder and(final FilterBuilder first,
+            final List<CostFilter> filters) {
+        if (filters.isEmpty()) {
+            return first;
+        }
+        if (first == null && filters.size() == 1) {
+            return filters.get(0).filter;
+        }
+
+        Collections.sort(filters, COST_ORDER);
+        final AndFilterBuilder andFilter = FilterBuilders.andFilter();
+        if (first != null) {
+            andFilter.add(first);
+        }
+        for (final CostFilter costFilter : filters) {
+            andFilter.add(costFilter.filter);
+        }
+        return andFilter;
+    }
+
+    /**
+     * @return the filter applied with the query, or null
+     */
+    public FilterBuilder getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return the filter applied after the query, or null
+     */
+    public FilterBuilder getPostFilter() {
+        return postFilter;
+    }
+
+    private static class CostFilter {
+
+        final FilterBuilder filter;
+
+        final int cost;
+
+        CostFilter(final FilterBuilder filter, final int cost) {
+            this.filter = filter;
+            this.cost = cost;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.ElasticsearchParseException;
+
+/**
+ * Solr local params at the beginning of a query, such as
+ * <code>{!cache=false cost=200}price:[10 TO 100]</code>.
+ *
+ * The first bare word is the query type, and the value of the v param
+ * overrides the query following the local params.
+ */
+public class LocalParams {
+
+    private static final String PREFIX = "{!";
+
+    private final Map<String, String> params;
+
+    private final String type;
+
+    private final String query;
+
+    private LocalParams(final Map<String, String> params, final String type,
+            final String query) {
+        this.params = params;
+        this.type = type;
+        this.query = query;
+    }
+
+    /**
+     * Parses the local params of a query.
+     *
+     * @param str
+     *            the query string
+     * @return the local params. If the query has no local params, they are
+     *         empty and the query is returned as is.
+     */
+    public static LocalParams parse(final String str) {
+        if (str == null || !str.startsWith(PREFIX)) {
+            return new LocalParams(Collections.<String, String> emptyMap(),
+                    null, str);
+        }
+
+        final Map<String, String> params = new HashMap<String, String>();
+        String type = null;
+        final int length = str.length();
+        int pos = PREFIX.length();
+        while (true) {
+            while (pos < length && Character.isWhitespace(str.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= length) {
+                throw new ElasticsearchParseException(
+                        "Missing '}' in local params: " + str);
+            }
+            if (str.charAt(pos) == '}') {
+                pos++;
+                break;
+            }
+
+            final int keyStart = pos;
+            while (pos < length) {
+                final char c = str.charAt(pos);
+                if (c == '=' || c == '}' || Character.isWhitespace(c)) {
+                    break;
+                }
+                pos++;
+            }
+            final String key = str.substring(keyStart, pos);
+            if (pos < length && str.charAt(pos) == '=') {
+                pos++;
+                final StringBuilder buf = new StringBuilder();
+                pos = readValue(str, pos, buf);
+                params.put(key, buf.toString());
+            } else if (type == null && params.isEmpty()) {
+                type = key;
+            } else {
+                params.put(key, "true");
+            }
+        }
+
+        if (params.containsKey("type")) {
+            type = params.get("type");
+        }
+        final String query = params.containsKey("v") ? params.get("v") : str
+                .substring(pos);
+        return new LocalParams(params, type, query);
+    }
+
+    private static int readValue(final String str, final int start,
+            final StringBuilder buf) {
+        final int length = str.length();
+        int pos = start;
+        if (pos < length && (str.charAt(pos) == '\'' || str.charAt(pos) == '"')) {
+            final char quote = str.charAt(pos++);
+            while (pos < length) {
+                final char c = str.charAt(pos++);
+                if (c == quote) {
+                    return pos;
+                } else if (c == '\\' && pos < length) {
+                    buf.append(str.charAt(pos++));
+                } else {
+                    buf.append(c);
+                }
+            }
+            throw new ElasticsearchParseException(
+                    "Unterminated quoted value in local params: " + str);
+        }
+
+        while (pos < length) {
+            final char c = str.charAt(pos);
+            if (c == '}' || Character.isWhitespace(c)) {
+                break;
+            }
+            buf.append(c);
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return true if the query has no local params
+     */
+    public boolean isEmpty() {
+        return params.isEmpty() && type == null;
+    }
+
+    /**
+     * @return the query type, such as lucene or geofilt, or null
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the query without the local params
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    public String get(final String key) {
+        return params.get(key);
+    }
+
+    public boolean getAsBoolean(final String key, final boolean defaultValue) {
+        final String value = params.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public int getAsInt(final String key, final int defaultValue) {
+        final String value = params.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            throw new ElasticsearchParseException("Invalid " + key + ": "
+                    + value, e);
+        }
+    }
+}
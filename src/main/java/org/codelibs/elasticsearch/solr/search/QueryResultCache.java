@@ -0,0 +1,501 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.codelibs.elasticsearch.solr.SolrPluginConstants;
+import org.codelibs.elasticsearch.solr.solr.ResponseCompression;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.bytes.ChannelBufferBytesReference;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.netty.buffer.ChannelBuffers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Emulates Solr's queryResultCache for the search handler. The serialized
+ * responses are cached by a hash of the canonical Solr params, which include
+ * the index, the type and the response writer, so a hit skips both the
+ * search and the serialization.
+ *
+ * ES does not expose the refresh generation of the shards on other nodes, so
+ * the updates of the plugin record the time they write to an index. An entry
+ * is stale when its search started less than solr.queryResultCache.
+ * refreshDelay after a write to one of its indices. Writes that bypass this
+ * node are covered by solr.queryResultCache.expire.
+ *
+ * With solr.queryResultWindowSize, the ids and scores of the top hits are
+ * cached per query regardless of start, rows and fl, like Solr's
+ * queryResultWindowSize, and the pages in the window are served by getting
+ * their documents.
+ */
+public class QueryResultCache extends AbstractComponent {
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    private static final String[] DEFAULT_PARAMS = { "start", "0", "rows",
+            "10", "wt", SolrPluginConstants.XML_FORMAT_TYPE };
+
+    // params that do not change the hits in a window
+    private static final Set<String> PAGE_PARAMS = new HashSet<String>(
+            Arrays.asList("start", "rows", "fl", "wt", "json.nl", "cache"));
+
+    private final ClusterService clusterService;
+
+    private final ResponseCompression responseCompression;
+
+    private final boolean enabled;
+
+    private final long refreshDelay;
+
+    private final long maxEntrySize;
+
+    private final boolean offHeap;
+
+    private final Cache<HashCode, Entry> cache;
+
+    private final ConcurrentMap<String, Long> writeTimes = ConcurrentCollections
+            .newConcurrentMap();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final int windowSize;
+
+    private final Cache<HashCode, WindowEntry> windows;
+
+    private final CounterMetric hits = new CounterMetric();
+
+    private final CounterMetric misses = new CounterMetric();
+
+    private final CounterMetric staleHits = new CounterMetric();
+
+    private final CounterMetric windowHits = new CounterMetric();
+
+    private final CounterMetric windowMisses = new CounterMetric();
+
+    @Inject
+    public QueryResultCache(final Settings settings,
+            final ClusterService clusterService,
+            final ResponseCompression responseCompression) {
+        super(settings);
+        this.clusterService = clusterService;
+        this.responseCompression = responseCompression;
+
+        enabled = settings.getAsBoolean("solr.queryResultCache.enabled",
+                false);
+        refreshDelay = settings.getAsTime("solr.queryResultCache.refreshDelay",
+                TimeValue.timeValueSeconds(2)).millis();
+        maxEntrySize = settings.getAsBytesSize(
+                "solr.queryResultCache.maxEntrySize",
+                new ByteSizeValue(1024 * 1024)).bytes();
+        offHeap = settings.getAsBoolean("solr.queryResultCache.offHeap", false);
+        final int size = settings.getAsInt("solr.queryResultCache.size", 512);
+        final long maxBytes = settings.getAsBytesSize(
+                "solr.queryResultCache.maxBytes",
+                new ByteSizeValue(64 * 1024 * 1024)).bytes();
+        final TimeValue expire = settings.getAsTime(
+                "solr.queryResultCache.expire", TimeValue.timeValueSeconds(60));
+
+        // an entry weighs at least maxBytes / size, so both the number of
+        // entries and the total bytes are bounded
+        final int minWeight = (int) Math.max(1, maxBytes / Math.max(1, size));
+        cache = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+                .weigher(new Weigher<HashCode, Entry>() {
+                    @Override
+                    public int weigh(final HashCode key, final Entry entry) {
+                        return Math.max(minWeight, entry.length);
+                    }
+                }).expireAfterWrite(expire.millis(), TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<HashCode, Entry>() {
+                    @Override
+                    public void onRemoval(
+                            final RemovalNotification<HashCode, Entry> notification) {
+                        bytes.addAndGet(-notification.getValue().length);
+                    }
+                }).recordStats().build();
+
+        windowSize = settings.getAsInt("solr.queryResultWindowSize", 0);
+        windows = CacheBuilder
+                .newBuilder()
+                .maximumSize(
+                        settings.getAsInt("solr.queryResultCache.windows", 512))
+                .expireAfterWrite(expire.millis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @return true if search responses are cached
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cache key of a search request, which is a hash of the
+     * params sorted by name, with the default values of start, rows and wt,
+     * and the content encoding accepted by the client.
+     *
+     * @param request
+     *            the search request
+     * @return the cache key
+     */
+    public HashCode getKey(final RestRequest request) {
+        final String encoding = responseCompression.getEncoding(request);
+        return hash(request, Collections.<String> emptySet(),
+                encoding == null ? "" : encoding);
+    }
+
+    private HashCode hash(final RestRequest request,
+            final Set<String> excludes, final String encoding) {
+        final List<String> names = new ArrayList<String>(request.params()
+                .keySet());
+        for (int i = 0; i < DEFAULT_PARAMS.length; i += 2) {
+            if (!request.hasParam(DEFAULT_PARAMS[i])) {
+                names.add(DEFAULT_PARAMS[i]);
+            }
+        }
+        names.removeAll(excludes);
+        Collections.sort(names);
+
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putString(request.path(), SolrPluginConstants.CHARSET_UTF8);
+        hasher.putByte((byte) 0).putString(encoding,
+                SolrPluginConstants.CHARSET_UTF8);
+        for (final String name : names) {
+            hasher.putByte((byte) 0).putString(name,
+                    SolrPluginConstants.CHARSET_UTF8);
+            final String[] values = request.paramAsStringArray(name,
+                    new String[] { getDefault(name) });
+            for (final String value : values) {
+                hasher.putByte((byte) 1);
+                if ("wt".equals(name)) {
+                    hasher.putString(value.toLowerCase(),
+                            SolrPluginConstants.CHARSET_UTF8);
+                } else {
+                    hasher.putString(value, SolrPluginConstants.CHARSET_UTF8);
+                }
+            }
+        }
+        return hasher.hash();
+    }
+
+    private static String getDefault(final String name) {
+        for (int i = 0; i < DEFAULT_PARAMS.length; i += 2) {
+            if (DEFAULT_PARAMS[i].equals(name)) {
+                return DEFAULT_PARAMS[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached response.
+     *
+     * @param key
+     *            the cache key
+     * @return the response, or null if it is not cached or stale
+     */
+    public BytesRestResponse get(final HashCode key) {
+        final Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            misses.inc();
+            return null;
+        }
+        if (!isValid(entry.indices, entry.time)) {
+            cache.invalidate(key);
+            staleHits.inc();
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        final BytesRestResponse response = new BytesRestResponse(
+                RestStatus.OK, entry.contentType, entry.content());
+        if (entry.contentEncoding != null) {
+            response.addHeader(CONTENT_ENCODING, entry.contentEncoding);
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        return response;
+    }
+
+    /**
+     * Caches a response. Responses with an error, larger than
+     * solr.queryResultCache.maxEntrySize, or searched while an index was
+     * being updated are not cached. The caller must not pass the results of
+     * a search with shard failures or a timeout.
+     *
+     * @param key
+     *            the cache key
+     * @param indices
+     *            the searched indices
+     * @param startTime
+     *            the time when the search started
+     * @param response
+     *            the serialized response
+     */
+    public void put(final HashCode key, final String[] indices,
+            final long startTime, final BytesRestResponse response) {
+        final BytesReference content = response.content();
+        if (response.status() != RestStatus.OK
+                || content.length() > maxEntrySize) {
+            return;
+        }
+        final String[] concreteIndices = resolve(indices);
+        if (!isValid(concreteIndices, startTime)) {
+            return;
+        }
+
+        final String contentEncoding = getContentEncoding(response);
+        final Entry entry;
+        if (offHeap) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(content
+                    .length());
+            buffer.put(content.toBytes());
+            buffer.flip();
+            entry = new Entry(concreteIndices, startTime,
+                    response.contentType(), contentEncoding, null, buffer,
+                    content.length());
+        } else {
+            entry = new Entry(concreteIndices, startTime,
+                    response.contentType(), contentEncoding,
+                    content.toBytesArray(), null, content.length());
+        }
+        bytes.addAndGet(entry.length);
+        cache.put(key, entry);
+    }
+
+    private static String getContentEncoding(final BytesRestResponse response) {
+        final Map<String, List<String>> headers = response.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        final List<String> values = headers.get(CONTENT_ENCODING);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * @return the number of hits cached in a window, or 0 if pages are not
+     *         windowed
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Returns true if the page of a search request can be served from a
+     * window. Highlighting, faceting and debugging need the search response,
+     * so they are not windowed.
+     *
+     * @param request
+     *            the search request
+     * @return true if the page is in a window
+     */
+    public boolean isWindowed(final RestRequest request) {
+        if (windowSize <= 0 || !request.paramAsBoolean("cache", true)) {
+            return false;
+        }
+        final int start = request.paramAsInt("start", 0);
+        final int rows = request.paramAsInt("rows", 10);
+        return rows > 0 && start >= 0 && start + rows <= windowSize
+                && !request.paramAsBoolean("hl", false)
+                && !request.paramAsBoolean("facet", false)
+                && request.param("debug") == null;
+    }
+
+    /**
+     * Returns the window key of a search request, which is the hash of the
+     * params without the params of a page, such as start, rows and fl.
+     *
+     * @param request
+     *            the search request
+     * @return the window key
+     */
+    public HashCode getWindowKey(final RestRequest request) {
+        return hash(request, PAGE_PARAMS, "");
+    }
+
+    /**
+     * Returns the cached window.
+     *
+     * @param key
+     *            the window key
+     * @return the window, or null if it is not cached or stale
+     */
+    public ResultWindow getWindow(final HashCode key) {
+        final WindowEntry entry = windows.getIfPresent(key);
+        if (entry == null || !isValid(entry.indices, entry.time)) {
+            windowMisses.inc();
+            return null;
+        }
+        windowHits.inc();
+        return entry.window;
+    }
+
+    /**
+     * Caches a window unless an index was being updated while it was searched.
+     *
+     * @param key
+     *            the window key
+     * @param indices
+     *            the searched indices
+     * @param startTime
+     *            the time when the search started
+     * @param window
+     *            the window
+     */
+    public void putWindow(final HashCode key, final String[] indices,
+            final long startTime, final ResultWindow window) {
+        final String[] concreteIndices = resolve(indices);
+        if (isValid(concreteIndices, startTime)) {
+            windows.put(key, new WindowEntry(concreteIndices, startTime,
+                    window));
+        }
+    }
+
+    /**
+     * Records a write to an index, so the cached responses of the index
+     * become stale.
+     *
+     * @param index
+     *            the index name or alias
+     */
+    public void invalidate(final String index) {
+        if (!enabled && windowSize <= 0 || index == null) {
+            return;
+        }
+        final Long now = Long.valueOf(System.currentTimeMillis());
+        final String[] concreteIndices = resolve(Strings
+                .splitStringByCommaToArray(index));
+        if (concreteIndices.length == 0) {
+            // the index is created by the write
+            writeTimes.put(index, now);
+        }
+        for (final String concreteIndex : concreteIndices) {
+            writeTimes.put(concreteIndex, now);
+        }
+    }
+
+    private boolean isValid(final String[] indices, final long time) {
+        for (final String index : indices) {
+            final Long writeTime = writeTimes.get(index);
+            if (writeTime != null
+                    && time <= writeTime.longValue() + refreshDelay) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String[] resolve(final String[] indices) {
+        return clusterService
+                .state()
+                .metaData()
+                .concreteIndices(IndicesOptions.lenientExpandOpen(), indices);
+    }
+
+    /**
+     * @return the statistics of the cache
+     */
+    public NamedList<Object> getStats() {
+        final long numHits = hits.count();
+        final long lookups = numHits + misses.count();
+        final NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("enabled", enabled);
+        stats.add("size", cache.size());
+        stats.add("bytes", bytes.get());
+        stats.add("offHeap", offHeap);
+        stats.add("lookups", lookups);
+        stats.add("hits", numHits);
+        stats.add("hitratio", lookups == 0 ? 0f : (float) numHits / lookups);
+        stats.add("staleHits", staleHits.count());
+        stats.add("evictions", cache.stats().evictionCount());
+        stats.add("windowSize", windowSize);
+        stats.add("windows", windows.size());
+        stats.add("windowHits", windowHits.count());
+        stats.add("windowMisses", windowMisses.count());
+        return stats;
+    }
+
+    private static class Entry {
+
+        final String[] indices;
+
+        final long time;
+
+        final String contentType;
+
+        final String contentEncoding;
+
+        final BytesReference heapContent;
+
+        final ByteBuffer directContent;
+
+        final int length;
+
+        Entry(final String[] indices, final long time,
+                final String contentType, final String contentEncoding,
+                final BytesReference heapContent,
+                final ByteBuffer directContent, final int length) {
+            this.indices = indices;
+            this.time = time;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.heapContent = heapContent;
+            this.directContent = directContent;
+            this.length = length;
+        }
+
+        BytesReference content() {
+            if (directContent != null) {
+                return new ChannelBufferBytesReference(
+                        ChannelBuffers.wrappedBuffer(directContent.duplicate()));
+            }
+            return heapContent;
+        }
+    }
+
+    private static class WindowEntry {
+
+        final String[] indices;
+
+        final long time;
+
+        final ResultWindow window;
+
+        WindowEntry(final String[] indices, final long time,
+                final ResultWindow window) {
+            this.indices = indices;
+            this.time = time;
+            this.window = window;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+
+/**
+ * The ids and scores of the top hits of a search, like a DocList in Solr's
+ * queryResultCache. The pages in the window are served by getting the
+ * documents of their ids, with the routing and parent of the hits so that the
+ * gets reach the shards of custom routed documents.
+ */
+public class ResultWindow {
+
+    /** the fields to search for the window */
+    public static final String[] ROUTING_FIELDS = { "_routing", "_parent" };
+
+    private final String[] indices;
+
+    private final String[] types;
+
+    private final String[] ids;
+
+    private final String[] routings;
+
+    private final String[] parents;
+
+    private final float[] scores;
+
+    private final long totalHits;
+
+    private final float maxScore;
+
+    private ResultWindow(final String[] indices, final String[] types,
+            final String[] ids, final String[] routings,
+            final String[] parents, final float[] scores,
+            final long totalHits, final float maxScore) {
+        this.indices = indices;
+        this.types = types;
+        this.ids = ids;
+        this.routings = routings;
+        this.parents = parents;
+        this.scores = scores;
+        this.totalHits = totalHits;
+        this.maxScore = maxScore;
+    }
+
+    /**
+     * Creates the window of a search response.
+     *
+     * @param response
+     *            the search response with the fields of ROUTING_FIELDS
+     * @return the window
+     */
+    public static ResultWindow create(final SearchResponse response) {
+        final SearchHits hits = response.getHits();
+        final SearchHit[] searchHits = hits.getHits();
+        final String[] indices = new String[searchHits.length];
+        final String[] types = new String[searchHits.length];
+        final String[] ids = new String[searchHits.length];
+        final String[] routings = new String[searchHits.length];
+        final String[] parents = new String[searchHits.length];
+        final float[] scores = new float[searchHits.length];
+        for (int i = 0; i < searchHits.length; i++) {
+            final SearchHit hit = searchHits[i];
+            indices[i] = hit.getIndex();
+            types[i] = hit.getType();
+            ids[i] = hit.getId();
+            routings[i] = getValue(hit, "_routing");
+            parents[i] = getValue(hit, "_parent");
+            scores[i] = hit.getScore();
+        }
+        return new ResultWindow(indices, types, ids, routings, parents, scores,
+                hits.getTotalHits(), hits.getMaxScore());
+    }
+
+    private static String getValue(final SearchHit hit, final String name) {
+        final SearchHitField field = hit.field(name);
+        if (field == null || field.getValue() == null) {
+            return null;
+        }
+        return field.getValue().toString();
+    }
+
+    /**
+     * Creates a multi-get request of a page in the window.
+     *
+     * @param start
+     *            the offset of the page
+     * @param rows
+     *            the maximum number of documents in the page
+     * @param fetchSourceContext
+     *            the source filter of the fields, or null to get the source
+     * @return the request
+     */
+    public MultiGetRequest createPageRequest(final int start, final int rows,
+            final FetchSourceContext fetchSourceContext) {
+        final MultiGetRequest request = new MultiGetRequest();
+        // get the documents as the search saw them
+        request.realtime(Boolean.FALSE);
+        final int end = Math.min(ids.length, start + rows);
+        for (int i = start; i < end; i++) {
+            request.add(new MultiGetRequest.Item(indices[i], types[i], ids[i])
+                    .routing(routings[i]).parent(parents[i])
+                    .fetchSourceContext(fetchSourceContext));
+        }
+        return request;
+    }
+
+    /**
+     * @param index
+     *            the position in the window
+     * @return the score of the hit
+     */
+    public float getScore(final int index) {
+        return scores[index];
+    }
+
+    /**
+     * @return the number of hits in the window
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    public float getMaxScore() {
+        return maxScore;
+    }
+}
@@ -0,0 +1,47 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+/**
+ * Converts the sort parameter of Solr into ES sorts.
+ */
+public class SortParser {
+
+    protected SortParser() {
+    }
+
+    /**
+     * Adds the sorts of a sort parameter, such as "price desc,score desc".
+     *
+     * @param searchSourceBuilder
+     *            the search source
+     * @param sort
+     *            the sort clauses
+     */
+    public static void addSorts(final SearchSourceBuilder searchSourceBuilder,
+            final String[] sort) {
+        for (final String s : sort) {
+            final String sortStr = s.trim();
+            final int delimiter = sortStr.lastIndexOf(' ');
+            if (delimiter != -1) {
+                String sortField = sortStr.substring(0, delimiter);
+                if ("score".equals(sortField)) {
+                    sortField = "_score";
+                }
+                final String reverse = sortStr.substring(delimiter + 1);
+                if ("asc".equals(reverse)) {
+                    searchSourceBuilder.sort(SortBuilders.fieldSort(sortField)
+                            .order(SortOrder.ASC).ignoreUnmapped(true));
+                } else if ("desc".equals(reverse)) {
+                    searchSourceBuilder.sort(SortBuilders.fieldSort(sortField)
+                            .order(SortOrder.DESC).ignoreUnmapped(true));
+                }
+            } else {
+                searchSourceBuilder.sort(SortBuilders.fieldSort(sortStr)
+                        .ignoreUnmapped(true));
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.Base64;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.DateField;
+import org.codelibs.elasticsearch.solr.rest.ExtendedRestRequest;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Writes the documents of a response in CSV (wt=csv), like Solr's CSV
+ * response writer. The other parts of the response are not written. The
+ * parameters are:
+ *
+ * <ul>
+ * <li>csv.separator - the field separator, default ","</li>
+ * <li>csv.mv.separator - the separator of multiple values, default
+ * csv.separator</li>
+ * <li>csv.header - true to write the field names first, default true</li>
+ * <li>csv.null - the value of a missing field, default empty</li>
+ * </ul>
+ *
+ * The columns are the fields of fl in order, and each row is written as the
+ * hit is converted. If fl is * or has a glob pattern, the columns are the
+ * fields of all documents, so the documents are converted before the header
+ * is written. The score is a column only if fl lists it. Use the export
+ * handler with wt=csv for full result sets.
+ *
+ * A response without documents, such as an error or the response of an
+ * update or admin handler, is written in XML.
+ */
+public class CSVResponseWriter implements ResponseWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; charset=UTF-8";
+
+    private static final String SCORE_FIELD = "score";
+
+    private final ResponseWriter fallbackWriter = new XMLResponseWriter();
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void write(final NamedList<Object> response,
+            final RestRequest request, final OutputStream out)
+            throws IOException {
+        final Object results = response.get("response");
+        if (!(results instanceof SolrDocumentList)) {
+            fallbackWriter.write(response, request, out);
+            return;
+        }
+
+        final Writer writer = new OutputStreamWriter(out,
+                SolrResponseUtils.UTF_8);
+        final SolrDocumentList docs = (SolrDocumentList) results;
+        final Printer printer = new Printer(writer, request);
+        final List<String> fl = getFields(request);
+        final int size = docs.size();
+        if (!fl.isEmpty() && !hasPattern(fl)) {
+            printer.printHeader(fl);
+            for (int i = 0; i < size; i++) {
+                printer.printRow(fl, docs.get(i));
+            }
+        } else {
+            // the columns are known after all documents are converted
+            final boolean score = fl.contains(SCORE_FIELD);
+            final List<SolrDocument> documents = new ArrayList<SolrDocument>(
+                    size);
+            final Set<String> names = new LinkedHashSet<String>();
+            for (int i = 0; i < size; i++) {
+                final SolrDocument doc = docs.get(i);
+                documents.add(doc);
+                names.addAll(doc.getFieldNames());
+            }
+            if (!score) {
+                // every document has the score
+                names.remove(SCORE_FIELD);
+            }
+            printer.printHeader(names);
+            for (final SolrDocument doc : documents) {
+                printer.printRow(names, doc);
+            }
+        }
+        writer.close();
+    }
+
+    /**
+     * @param request
+     *            the request
+     * @return the fields of fl in order
+     */
+    private static List<String> getFields(final RestRequest request) {
+        final List<String> fields = new ArrayList<String>();
+        for (final String value : request.paramAsStringArray("fl",
+                new String[0])) {
+            for (final String field : value.trim().split("[\\s,]+")) {
+                if (!field.isEmpty()) {
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static boolean hasPattern(final List<String> fields) {
+        for (final String field : fields) {
+            if (Regex.isSimpleMatchPattern(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean isCompressible() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * Writes CSV rows with the csv.* parameters of a request. A value is
+     * quoted only if it contains the separator, a quote or a line break.
+     * Multiple values are joined with the multi-value separator, and the
+     * separator and backslash in them are escaped with a backslash.
+     */
+    public static class Printer {
+
+        private static final char ENCAPSULATOR = '"';
+
+        private static final char ESCAPE = '\\';
+
+        private final Writer writer;
+
+        private final char separator;
+
+        private final char mvSeparator;
+
+        private final boolean header;
+
+        private final String nullValue;
+
+        private final StringBuilder buf = new StringBuilder(64);
+
+        private boolean firstInRow = true;
+
+        /**
+         * @param writer
+         *            the output of the rows
+         * @param request
+         *            the request with the csv.* parameters
+         */
+        public Printer(final Writer writer, final RestRequest request) {
+            this.writer = writer;
+            separator = ExtendedRestRequest.paramAsChar(request,
+                    "csv.separator", ',');
+            mvSeparator = ExtendedRestRequest.paramAsChar(request,
+                    "csv.mv.separator", separator);
+            header = request.paramAsBoolean("csv.header", true);
+            nullValue = request.param("csv.null", "");
+        }
+
+        /**
+         * Writes the field names unless csv.header is false.
+         *
+         * @param fields
+         *            the field names
+         * @throws IOException
+         *             if the output fails
+         */
+        public void printHeader(final Collection<String> fields)
+                throws IOException {
+            if (!header) {
+                return;
+            }
+            for (final String field : fields) {
+                print(field);
+            }
+            endRow();
+        }
+
+        /**
+         * Writes the values of the fields of a document.
+         *
+         * @param fields
+         *            the field names
+         * @param doc
+         *            the document
+         * @throws IOException
+         *             if the output fails
+         */
+        public void printRow(final Collection<String> fields,
+                final SolrDocument doc) throws IOException {
+            for (final String field : fields) {
+                print(doc.getFieldValue(field));
+            }
+            endRow();
+        }
+
+        /**
+         * Writes the value of the next column.
+         *
+         * @param value
+         *            the value, a collection or an array of values, or null
+         * @throws IOException
+         *             if the output fails
+         */
+        public void print(final Object value) throws IOException {
+            if (!firstInRow) {
+                writer.write(separator);
+            }
+            firstInRow = false;
+
+            if (value == null) {
+                writeEncoded(nullValue);
+            } else if (value instanceof Collection) {
+                writeEncoded(join(((Collection<?>) value).iterator()));
+            } else if (value instanceof Object[]) {
+                writeEncoded(join(Arrays.asList((Object[]) value).iterator()));
+            } else {
+                writeEncoded(toString(value));
+            }
+        }
+
+        /**
+         * Ends the current row.
+         *
+         * @throws IOException
+         *             if the output fails
+         */
+        public void endRow() throws IOException {
+            writer.write('\n');
+            firstInRow = true;
+        }
+
+        /**
+         * Flushes the rows written so far to the output.
+         *
+         * @throws IOException
+         *             if the output fails
+         */
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        /**
+         * Flushes the rows and closes the output.
+         *
+         * @throws IOException
+         *             if the output fails
+         */
+        public void close() throws IOException {
+            writer.close();
+        }
+
+        private String join(final Iterator<?> values) {
+            buf.setLength(0);
+            while (values.hasNext()) {
+                final Object value = values.next();
+                final String str = value == null ? nullValue
+                        : toString(value);
+                for (int i = 0; i < str.length(); i++) {
+                    final char ch = str.charAt(i);
+                    if (ch == mvSeparator || ch == ESCAPE) {
+                        buf.append(ESCAPE);
+                    }
+                    buf.append(ch);
+                }
+                if (values.hasNext()) {
+                    buf.append(mvSeparator);
+                }
+            }
+            return buf.toString();
+        }
+
+        private static String toString(final Object value) {
+            if (value instanceof String) {
+                return (String) value;
+            } else if (value instanceof Date) {
+                final Date date = (Date) value;
+                final String str = ResponseEncoder.formatDate(date.getTime(),
+                        true);
+                return str != null ? str : DateField.formatExternal(date);
+            } else if (value instanceof byte[]) {
+                final byte[] bytes = (byte[]) value;
+                return Base64.byteArrayToBase64(bytes, 0, bytes.length);
+            }
+            return value.toString();
+        }
+
+        private void writeEncoded(final String value) throws IOException {
+            final int length = value.length();
+            int pos = 0;
+            while (pos < length) {
+                final char ch = value.charAt(pos);
+                if (ch == separator || ch == ENCAPSULATOR || ch == '\n'
+                        || ch == '\r') {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == length) {
+                writer.write(value);
+                return;
+            }
+
+            // quote the value and double the quotes in it
+            writer.write(ENCAPSULATOR);
+            int start = 0;
+            for (int i = value.indexOf(ENCAPSULATOR); i >= 0; i = value
+                    .indexOf(ENCAPSULATOR, i + 1)) {
+                writer.write(value, start, i + 1 - start);
+                writer.write(ENCAPSULATOR);
+                start = i + 1;
+            }
+            writer.write(value, start, length - start);
+            writer.write(ENCAPSULATOR);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.util.Date;
+
+/**
+ * Parses ISO-8601 date times such as 2000-01-01T00:00:00Z,
+ * 2000-01-01T00:00:00.123Z or 2000-01-01T09:00:00.000+0900 into UTC
+ * milliseconds. The parser has no state, so it is thread-safe, and it reads
+ * the characters in place instead of allocating date formats or throwing
+ * exceptions for values that are not dates.
+ */
+public final class IsoDateParser {
+
+    /** the value returned for text that is not a date */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private IsoDateParser() {
+    }
+
+    /**
+     * @param value
+     *            the text
+     * @return the date, or null if the text is not an ISO-8601 date time
+     */
+    public static Date parseDate(final String value) {
+        final long millis = parse(value);
+        return millis == INVALID ? null : new Date(millis);
+    }
+
+    /**
+     * Parses yyyy-MM-dd'T'HH:mm:ss with optional fractional seconds and an
+     * optional zone of Z, +HH:mm or +HHmm. A date time without a zone is in
+     * UTC.
+     *
+     * @param value
+     *            the text
+     * @return the UTC milliseconds, or {@link #INVALID}
+     */
+    public static long parse(final String value) {
+        final int length = value.length();
+        if (length < 19 || value.charAt(4) != '-' || value.charAt(7) != '-'
+                || value.charAt(10) != 'T' || value.charAt(13) != ':'
+                || value.charAt(16) != ':') {
+            return INVALID;
+        }
+
+        final int year = parseDigits(value, 0, 4);
+        final int month = parseDigits(value, 5, 7);
+        final int day = parseDigits(value, 8, 10);
+        final int hour = parseDigits(value, 11, 13);
+        final int minute = parseDigits(value, 14, 16);
+        final int second = parseDigits(value, 17, 19);
+        if (year < 0 || month < 1 || month > 12 || day < 1
+                || day > daysInMonth(year, month) || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return INVALID;
+        }
+
+        int pos = 19;
+        int millis = 0;
+        if (pos < length && value.charAt(pos) == '.') {
+            pos++;
+            final int start = pos;
+            int scale = 100;
+            while (pos < length) {
+                final int digit = value.charAt(pos) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                // digits below milliseconds are truncated
+                millis += digit * scale;
+                scale /= 10;
+                pos++;
+            }
+            if (pos == start) {
+                return INVALID;
+            }
+        }
+
+        long offset = 0;
+        if (pos < length) {
+            final char c = value.charAt(pos);
+            if (c == 'Z') {
+                pos++;
+            } else if (c == '+' || c == '-') {
+                final int offsetHour;
+                final int offsetMinute;
+                if (length - pos == 6 && value.charAt(pos + 3) == ':') {
+                    offsetHour = parseDigits(value, pos + 1, pos + 3);
+                    offsetMinute = parseDigits(value, pos + 4, pos + 6);
+                } else if (length - pos == 5) {
+                    offsetHour = parseDigits(value, pos + 1, pos + 3);
+                    offsetMinute = parseDigits(value, pos + 3, pos + 5);
+                } else if (length - pos == 3) {
+                    offsetHour = parseDigits(value, pos + 1, pos + 3);
+                    offsetMinute = 0;
+                } else {
+                    return INVALID;
+                }
+                if (offsetHour < 0 || offsetHour > 23 || offsetMinute < 0
+                        || offsetMinute > 59) {
+                    return INVALID;
+                }
+                offset = offsetHour * MILLIS_PER_HOUR + offsetMinute
+                        * MILLIS_PER_MINUTE;
+                if (c == '-') {
+                    offset = -offset;
+                }
+                pos = length;
+            }
+        }
+        if (pos != length) {
+            return INVALID;
+        }
+
+        return daysFromEpoch(year, month, day) * MILLIS_PER_DAY + hour
+                * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE + second
+                * MILLIS_PER_SECOND + millis - offset;
+    }
+
+    private static int parseDigits(final String value, final int start,
+            final int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    private static int daysInMonth(final int year, final int month) {
+        switch (month) {
+        case 2:
+            return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29
+                    : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    /**
+     * Returns the days since 1970-01-01 of a date in the proleptic Gregorian
+     * calendar.
+     */
+    private static long daysFromEpoch(final int year, final int month,
+            final int day) {
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = (y >= 0 ? y : y - 399) / 400;
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2)
+                / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra
+                / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
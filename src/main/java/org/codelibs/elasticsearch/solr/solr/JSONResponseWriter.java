@@ -0,0 +1,79 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import org.apache.solr.common.util.NamedList;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Writes responses in Solr's JSON format (wt=json). The json.nl parameter
+ * sets the style of NamedLists.
+ */
+public class JSONResponseWriter implements ResponseWriter {
+
+    static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void write(final NamedList<Object> response,
+            final RestRequest request, final OutputStream out)
+            throws IOException {
+        write(response, getNamedListStyle(request), out);
+    }
+
+    /**
+     * Writes a response in JSON.
+     *
+     * @param response
+     *            the response
+     * @param namedListStyle
+     *            the json.nl style of NamedLists
+     * @param out
+     *            the output of the response
+     * @throws IOException
+     *             if the output fails
+     */
+    public static void write(final NamedList<Object> response,
+            final String namedListStyle, final OutputStream out)
+            throws IOException {
+        final Writer writer = new OutputStreamWriter(out,
+                SolrResponseUtils.UTF_8);
+        final JSONWriter jw = new JSONWriter(writer);
+        jw.setNamedListStyle(namedListStyle);
+        jw.write(response);
+        writer.close();
+    }
+
+    /**
+     * @param request
+     *            the request
+     * @return the json.nl parameter in lower case, or an empty string
+     */
+    static String getNamedListStyle(final RestRequest request) {
+        final String jsonnl = request.param("json.nl");
+        return jsonnl != null ? jsonnl.toLowerCase(Locale.ROOT) : "";
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean isCompressible() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+}
@@ -68,6 +68,8 @@ public class JSONWriter {
 	private static final String ARRAY_SEPARATOR = ",";
 	private static final String ARRAY_CLOSER = "]";
 	
+	private static final int MAX_KEY_CACHE_SIZE = 1024;
+	
 	
 	
 	
@@ -78,6 +80,7 @@ public class JSONWriter {
 	private Writer _writer = null;
 	private String _namedListStyle = "";
 	private ReturnFields _returnFields = null;
+	private final Map<String, String> _keyCache = new HashMap<String, String>();
 	
 	
 	
@@ -416,8 +419,20 @@ public class JSONWriter {
 	 */
 	protected void writeKey(String fname, boolean needsEscaping)
 			throws IOException {
-		writeStr(fname, needsEscaping);
-		_writer.write(MAP_KEY_ATTRIBUTION);
+		if (!needsEscaping) {
+			writeStr(fname, false);
+			_writer.write(MAP_KEY_ATTRIBUTION);
+			return;
+		}
+		// field names repeat in every document, so keep their escaped form
+		String key = _keyCache.get(fname);
+		if (key == null) {
+			key = ResponseEncoder.quoteJsonString(fname) + MAP_KEY_ATTRIBUTION;
+			if (_keyCache.size() < MAX_KEY_CACHE_SIZE) {
+				_keyCache.put(fname, key);
+			}
+		}
+		_writer.write(key);
 	}
 
 	/**
@@ -544,10 +559,7 @@ public class JSONWriter {
 	 */
 	public void writeStr(String val, boolean needsEscaping)
 			throws IOException {
-		// it might be more efficient to use a stringbuilder or write substrings
-		// if writing chars to the stream is slow.
 		if (needsEscaping) {
-
 			/*
 			 * http://www.ietf.org/internet-drafts/draft-crockford-jsonorg-json-04.
 			 * txt All Unicode characters may be placed within the quotation
@@ -555,57 +567,7 @@ public class JSONWriter {
 			 * mark, reverse solidus, and the control characters (U+0000 through
 			 * U+001F).
 			 */
-			_writer.write('"');
-
-			for (int i = 0; i < val.length(); i++) {
-				char ch = val.charAt(i);
-				if ((ch > '#' && ch != '\\' && ch < '\u2028') || ch == ' ') { // fast
-																				// path
-					_writer.write(ch);
-					continue;
-				}
-				switch (ch) {
-				case '"':
-				case '\\':
-					_writer.write('\\');
-					_writer.write(ch);
-					break;
-				case '\r':
-					_writer.write('\\');
-					_writer.write('r');
-					break;
-				case '\n':
-					_writer.write('\\');
-					_writer.write('n');
-					break;
-				case '\t':
-					_writer.write('\\');
-					_writer.write('t');
-					break;
-				case '\b':
-					_writer.write('\\');
-					_writer.write('b');
-					break;
-				case '\f':
-					_writer.write('\\');
-					_writer.write('f');
-					break;
-				case '\u2028': // fall through
-				case '\u2029':
-					unicodeEscape(_writer, ch);
-					break;
-				// case '/':
-				default: {
-					if (ch <= 0x1F) {
-						unicodeEscape(_writer, ch);
-					} else {
-						_writer.write(ch);
-					}
-				}
-				}
-			}
-
-			_writer.write('"');
+			ResponseEncoder.writeJsonString(_writer, val);
 		} else {
 			_writer.write('"');
 			_writer.write(val);
@@ -861,7 +823,8 @@ public class JSONWriter {
 	}
 
 	public void writeDate(Date val) throws IOException {
-		writeDate(DateField.formatExternal(val));
+		final String date = ResponseEncoder.formatDate(val.getTime(), true);
+		writeDate(date != null ? date : DateField.formatExternal(val));
 	}
 	
 	
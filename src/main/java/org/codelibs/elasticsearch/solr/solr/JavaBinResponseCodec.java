@@ -0,0 +1,48 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.solr.common.util.FastOutputStream;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * Writes responses in JavaBin with an output buffer kept per thread.
+ * JavaBinCodec already writes the documents of a SolrDocumentList one at a
+ * time with get(i), so the lazy list of a search response converts each hit
+ * just before it is encoded.
+ *
+ * Field names are written as JavaBin extern strings, which the client
+ * resolves per response, so the string table of a codec cannot outlive its
+ * response and a codec is created for each response.
+ */
+public class JavaBinResponseCodec extends JavaBinCodec {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * Writes a response in JavaBin.
+     *
+     * @param response
+     *            the response
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    public static void write(final NamedList<Object> response,
+            final OutputStream out) throws IOException {
+        // marshal flushes the buffer to the stream when it returns
+        final FastOutputStream fos = new FastOutputStream(out, BUFFERS.get(),
+                0);
+        new JavaBinResponseCodec().marshal(response, fos);
+    }
+}
@@ -0,0 +1,42 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.solr.common.util.NamedList;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Writes responses in JavaBin (wt=javabin) with {@link JavaBinResponseCodec}.
+ */
+public class JavaBinResponseWriter implements ResponseWriter {
+
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void write(final NamedList<Object> response,
+            final RestRequest request, final OutputStream out)
+            throws IOException {
+        JavaBinResponseCodec.write(response, out);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean isCompressible() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Negotiates the content encoding of Solr responses with the Accept-Encoding
+ * header of a request. A response is written uncompressed until it exceeds
+ * solr.compression.minSize, and then the rest is compressed as the writer
+ * produces it, so small responses are not compressed and large ones are not
+ * compressed in a second pass.
+ */
+public class ResponseCompression extends AbstractComponent {
+
+    public static final String GZIP = "gzip";
+
+    public static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final boolean enabled;
+
+    private final int minSize;
+
+    private final int level;
+
+    @Inject
+    public ResponseCompression(final Settings settings) {
+        super(settings);
+
+        enabled = settings.getAsBoolean("solr.compression.enabled", true);
+        minSize = (int) settings.getAsBytesSize("solr.compression.minSize",
+                new ByteSizeValue(1024)).bytes();
+        level = settings.getAsInt("solr.compression.level",
+                Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Returns the encoding accepted by the client, preferring gzip.
+     *
+     * @param request
+     *            the request
+     * @return gzip, deflate, or null if the response is not compressed
+     */
+    public String getEncoding(final RestRequest request) {
+        if (!enabled) {
+            return null;
+        }
+        final String header = request.header("Accept-Encoding");
+        if (header == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (final String token : header.split(",")) {
+            final int pos = token.indexOf(';');
+            final String coding = (pos < 0 ? token : token.substring(0, pos))
+                    .trim();
+            if (pos >= 0 && isZeroQuality(token.substring(pos + 1))) {
+                continue;
+            }
+            if (GZIP.equalsIgnoreCase(coding) || "*".equals(coding)) {
+                return GZIP;
+            } else if (DEFLATE.equalsIgnoreCase(coding)) {
+                deflate = true;
+            }
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    private static boolean isZeroQuality(final String params) {
+        for (final String param : params.split(";")) {
+            final String value = param.trim();
+            if (value.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(value.substring(2)) <= 0;
+                } catch (final NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the output of a response to a request.
+     *
+     * @param request
+     *            the request
+     * @return the output
+     */
+    public CompressedOutput createOutput(final RestRequest request) {
+        return new CompressedOutput(getEncoding(request), minSize, level);
+    }
+
+    /**
+     * Writes a response into paged bytes, and compresses it when it grows
+     * beyond the minimum size. The output must be closed before its bytes are
+     * read.
+     */
+    public static class CompressedOutput extends OutputStream {
+
+        private final BytesStreamOutput out = new BytesStreamOutput();
+
+        private final String encoding;
+
+        private final int minSize;
+
+        private final int level;
+
+        private OutputStream compressor;
+
+        private Deflater deflater;
+
+        private boolean closed;
+
+        /**
+         * @param encoding
+         *            gzip, deflate, or null to write uncompressed bytes
+         * @param minSize
+         *            the size to start compressing at
+         * @param level
+         *            the compression level
+         */
+        public CompressedOutput(final String encoding, final int minSize,
+                final int level) {
+            this.encoding = encoding;
+            this.minSize = minSize;
+            this.level = level;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            getStream(1).write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+                throws IOException {
+            getStream(len).write(b, off, len);
+        }
+
+        private OutputStream getStream(final int len) throws IOException {
+            if (compressor == null && encoding != null
+                    && out.size() + len > minSize) {
+                // compress the bytes written so far and continue
+                final BytesReference head = out.bytes().copyBytesArray();
+                out.reset();
+                if (GZIP.equals(encoding)) {
+                    compressor = new GZIPOutputStream(out, BUFFER_SIZE) {
+                        {
+                            def.setLevel(level);
+                        }
+                    };
+                } else {
+                    deflater = new Deflater(level);
+                    compressor = new DeflaterOutputStream(out, deflater,
+                            BUFFER_SIZE);
+                }
+                head.writeTo(compressor);
+            }
+            return compressor != null ? compressor : out;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (compressor != null) {
+                compressor.close();
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+        }
+
+        /**
+         * @return the encoding of the bytes, or null if they are not
+         *         compressed
+         */
+        public String getContentEncoding() {
+            return compressor != null ? encoding : null;
+        }
+
+        /**
+         * @return the number of bytes written to the response so far
+         */
+        public int size() {
+            return out.size();
+        }
+
+        /**
+         * @return the bytes of the response
+         */
+        public BytesReference bytes() {
+            return out.bytes();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Table-driven escaping and date formatting shared by the response writers.
+ * Strings are scanned for the characters that need escaping, and the runs of
+ * safe characters between them are written in bulk, which matters for text
+ * such as Japanese where nearly every character is safe.
+ */
+public final class ResponseEncoder {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** JSON escapes of ASCII characters, null if the character is safe */
+    private static final String[] JSON_ESCAPES = new String[128];
+
+    private static final String LINE_SEPARATOR_ESCAPE = "\\u2028";
+
+    private static final String PARAGRAPH_SEPARATOR_ESCAPE = "\\u2029";
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    static {
+        for (int ch = 0; ch < 0x20; ch++) {
+            JSON_ESCAPES[ch] = unicodeEscape((char) ch);
+        }
+        JSON_ESCAPES['"'] = "\\\"";
+        JSON_ESCAPES['\\'] = "\\\\";
+        JSON_ESCAPES['\r'] = "\\r";
+        JSON_ESCAPES['\n'] = "\\n";
+        JSON_ESCAPES['\t'] = "\\t";
+        JSON_ESCAPES['\b'] = "\\b";
+        JSON_ESCAPES['\f'] = "\\f";
+    }
+
+    private ResponseEncoder() {
+    }
+
+    /**
+     * Writes a quoted JSON string. Quotation marks, reverse solidus and
+     * control characters are escaped, and so are U+2028 and U+2029, which are
+     * line terminators in JavaScript.
+     *
+     * @param out
+     *            the writer
+     * @param val
+     *            the string
+     * @throws IOException
+     *             if the writer fails
+     */
+    public static void writeJsonString(final Writer out, final String val)
+            throws IOException {
+        out.write('"');
+        final int length = val.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final String escape = getJsonEscape(val.charAt(i));
+            if (escape != null) {
+                if (i > start) {
+                    out.write(val, start, i - start);
+                }
+                out.write(escape);
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            out.write(val, start, length - start);
+        }
+        out.write('"');
+    }
+
+    /**
+     * @param val
+     *            the string
+     * @return the quoted JSON string
+     */
+    public static String quoteJsonString(final String val) {
+        final int length = val.length();
+        final StringBuilder buf = new StringBuilder(length + 2);
+        buf.append('"');
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final String escape = getJsonEscape(val.charAt(i));
+            if (escape != null) {
+                buf.append(val, start, i).append(escape);
+                start = i + 1;
+            }
+        }
+        buf.append(val, start, length).append('"');
+        return buf.toString();
+    }
+
+    private static String getJsonEscape(final char ch) {
+        if (ch < 128) {
+            return JSON_ESCAPES[ch];
+        } else if (ch == '\u2028') {
+            return LINE_SEPARATOR_ESCAPE;
+        } else if (ch == '\u2029') {
+            return PARAGRAPH_SEPARATOR_ESCAPE;
+        }
+        return null;
+    }
+
+    private static String unicodeEscape(final char ch) {
+        return new String(new char[] { '\\', 'u', HEX_DIGITS[ch >>> 12],
+                HEX_DIGITS[ch >>> 8 & 0xf], HEX_DIGITS[ch >>> 4 & 0xf],
+                HEX_DIGITS[ch & 0xf] });
+    }
+
+    /**
+     * Formats a date as yyyy-MM-dd'T'HH:mm:ss[.SSS]'Z' in UTC. The
+     * milliseconds are written only if requested, without trailing zeros, and
+     * are omitted when they are zero, as Solr's canonical date format does.
+     *
+     * @param millis
+     *            the UTC milliseconds
+     * @param withMillis
+     *            true to write the milliseconds
+     * @return the formatted date, or null if the year is not in 0000-9999
+     */
+    public static String formatDate(final long millis,
+            final boolean withMillis) {
+        final long days = floorDiv(millis, MILLIS_PER_DAY);
+        final int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+
+        // the civil date of days since 1970-01-01
+        final long z = days + 719468;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final long dayOfEra = z - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra
+                / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra
+                - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int mp = (int) ((5 * dayOfYear + 2) / 153);
+        final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return null;
+        }
+
+        final int fraction = millisOfDay % 1000;
+        final int seconds = millisOfDay / 1000;
+        final char[] buf = new char[24];
+        int pos = 0;
+        pos = writeDigits(buf, pos, (int) year, 4);
+        buf[pos++] = '-';
+        pos = writeDigits(buf, pos, month, 2);
+        buf[pos++] = '-';
+        pos = writeDigits(buf, pos, day, 2);
+        buf[pos++] = 'T';
+        pos = writeDigits(buf, pos, seconds / 3600, 2);
+        buf[pos++] = ':';
+        pos = writeDigits(buf, pos, seconds / 60 % 60, 2);
+        buf[pos++] = ':';
+        pos = writeDigits(buf, pos, seconds % 60, 2);
+        if (withMillis && fraction != 0) {
+            buf[pos++] = '.';
+            pos = writeDigits(buf, pos, fraction, 3);
+            while (buf[pos - 1] == '0') {
+                pos--;
+            }
+        }
+        buf[pos++] = 'Z';
+        return new String(buf, 0, pos);
+    }
+
+    private static int writeDigits(final char[] buf, final int pos,
+            final int value, final int width) {
+        int v = value;
+        for (int i = pos + width - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        return pos + width;
+    }
+
+    private static long floorDiv(final long x, final long y) {
+        final long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+}
@@ -0,0 +1,54 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.solr.common.util.NamedList;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Serializes Solr responses in the format of a wt parameter, like Solr's
+ * QueryResponseWriter. Writers are looked up in {@link ResponseWriters}, and
+ * writers of other formats are registered with solr.responseWriter.{wt}.class.
+ * A writer is shared by all requests, so it must be thread-safe.
+ */
+public interface ResponseWriter {
+
+    /**
+     * @return the content type of the responses
+     */
+    String getContentType();
+
+    /**
+     * Writes a response.
+     *
+     * @param response
+     *            the response
+     * @param request
+     *            the request with the parameters of the writer
+     * @param out
+     *            the output of the response
+     * @throws IOException
+     *             if the output fails
+     */
+    void write(NamedList<Object> response, RestRequest request,
+            OutputStream out) throws IOException;
+
+    /**
+     * @return true if the documents of a SolrDocumentList are read once and
+     *         in order while they are written, so they can be converted from
+     *         the search hits as the writer reaches them
+     */
+    boolean isStreaming();
+
+    /**
+     * @return true if the responses can be compressed with the encoding
+     *         accepted by the client
+     */
+    boolean isCompressible();
+
+    /**
+     * @return true if the responses can be stored in the queryResultCache
+     */
+    boolean isCacheable();
+}
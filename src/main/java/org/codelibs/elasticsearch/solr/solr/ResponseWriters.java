@@ -0,0 +1,226 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.codelibs.elasticsearch.solr.SolrPluginConstants;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestRequest;
+
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * The registry of response writers by the wt parameter. The built-in writers
+ * are xml, json, javabin, csv, cbor and smile, and other writers are
+ * registered with the settings:
+ *
+ * <pre>
+ * solr.responseWriter.{wt}.class: the class of the ResponseWriter
+ * </pre>
+ *
+ * A writer class has a public constructor that takes the settings of its
+ * group, or a public no-argument constructor. A registered writer replaces the
+ * built-in writer of the same wt, and an unknown wt is written in XML. The
+ * number of responses, the bytes before compression and the time of each
+ * writer are counted.
+ */
+public class ResponseWriters extends AbstractComponent {
+
+    private static final String DEFAULT_FORMAT_TYPE = SolrPluginConstants.XML_FORMAT_TYPE;
+
+    private static volatile ResponseWriters defaultWriters;
+
+    private final Map<String, MeteredWriter> writers = new LinkedHashMap<String, MeteredWriter>();
+
+    private final MeteredWriter defaultWriter;
+
+    @Inject
+    public ResponseWriters(final Settings settings) {
+        super(settings);
+
+        register(SolrPluginConstants.XML_FORMAT_TYPE, new XMLResponseWriter());
+        register(SolrPluginConstants.JSON_FORMAT_TYPE,
+                new JSONResponseWriter());
+        register(SolrPluginConstants.JAVABIN_FORMAT_TYPE,
+                new JavaBinResponseWriter());
+        register(SolrPluginConstants.CSV_FORMAT_TYPE, new CSVResponseWriter());
+        register(SolrPluginConstants.CBOR_FORMAT_TYPE,
+                new XContentResponseWriter(XContentType.CBOR));
+        register(SolrPluginConstants.SMILE_FORMAT_TYPE,
+                new XContentResponseWriter(XContentType.SMILE));
+
+        for (final Map.Entry<String, Settings> entry : settings.getGroups(
+                "solr.responseWriter").entrySet()) {
+            final String wt = entry.getKey().toLowerCase(Locale.ROOT);
+            register(wt, createWriter(wt, entry.getValue()));
+            logger.info("Registered the response writer of wt={}", wt);
+        }
+
+        defaultWriter = writers.get(DEFAULT_FORMAT_TYPE);
+    }
+
+    /**
+     * @return the built-in writers, for the responses written without the
+     *         registry of the node
+     */
+    static ResponseWriters getDefault() {
+        if (defaultWriters == null) {
+            defaultWriters = new ResponseWriters(ImmutableSettings.EMPTY);
+        }
+        return defaultWriters;
+    }
+
+    private void register(final String wt, final ResponseWriter writer) {
+        writers.put(wt, new MeteredWriter(writer));
+    }
+
+    private ResponseWriter createWriter(final String wt,
+            final Settings writerSettings) {
+        final String className = writerSettings.get("class");
+        if (className == null) {
+            throw new ElasticsearchIllegalArgumentException(
+                    "solr.responseWriter." + wt + ".class is not specified.");
+        }
+        try {
+            final Class<?> writerClass = settings.getClassLoader().loadClass(
+                    className);
+            try {
+                return (ResponseWriter) writerClass.getConstructor(
+                        Settings.class).newInstance(writerSettings);
+            } catch (final NoSuchMethodException e) {
+                return (ResponseWriter) writerClass.newInstance();
+            }
+        } catch (final Exception e) {
+            throw new ElasticsearchException("Failed to create the writer "
+                    + className + " of wt=" + wt, e);
+        }
+    }
+
+    /**
+     * @param wt
+     *            the wt parameter, or null
+     * @return the writer of the format, or the XML writer if the format is
+     *         unknown
+     */
+    public ResponseWriter get(final String wt) {
+        if (wt == null) {
+            return defaultWriter;
+        }
+        MeteredWriter writer = writers.get(wt);
+        if (writer == null) {
+            writer = writers.get(wt.toLowerCase(Locale.ROOT));
+        }
+        return writer != null ? writer : defaultWriter;
+    }
+
+    /**
+     * @param request
+     *            the request
+     * @return the writer of the wt parameter of the request
+     */
+    public ResponseWriter get(final RestRequest request) {
+        return get(request.param("wt"));
+    }
+
+    /**
+     * @return the statistics of the writers
+     */
+    public NamedList<Object> getStats() {
+        final NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        for (final Map.Entry<String, MeteredWriter> entry : writers
+                .entrySet()) {
+            stats.add(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Counts the responses, bytes and time of a writer.
+     */
+    private static class MeteredWriter implements ResponseWriter {
+
+        private final ResponseWriter writer;
+
+        private final CounterMetric requests = new CounterMetric();
+
+        private final CounterMetric errors = new CounterMetric();
+
+        private final CounterMetric bytes = new CounterMetric();
+
+        private final CounterMetric nanos = new CounterMetric();
+
+        MeteredWriter(final ResponseWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public String getContentType() {
+            return writer.getContentType();
+        }
+
+        @Override
+        public void write(final NamedList<Object> response,
+                final RestRequest request, final OutputStream out)
+                throws IOException {
+            final long startTime = System.nanoTime();
+            final CountingOutputStream counter = new CountingOutputStream(out);
+            boolean success = false;
+            try {
+                writer.write(response, request, counter);
+                success = true;
+            } finally {
+                requests.inc();
+                if (!success) {
+                    errors.inc();
+                }
+                bytes.inc(counter.getCount());
+                nanos.inc(System.nanoTime() - startTime);
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return writer.isStreaming();
+        }
+
+        @Override
+        public boolean isCompressible() {
+            return writer.isCompressible();
+        }
+
+        @Override
+        public boolean isCacheable() {
+            return writer.isCacheable();
+        }
+
+        NamedList<Object> getStats() {
+            final long count = requests.count();
+            final long millis = TimeUnit.NANOSECONDS.toMillis(nanos.count());
+            final NamedList<Object> stats = new SimpleOrderedMap<Object>();
+            stats.add("class", writer.getClass().getName());
+            stats.add("streaming", writer.isStreaming());
+            stats.add("compressible", writer.isCompressible());
+            stats.add("cacheable", writer.isCacheable());
+            stats.add("requests", count);
+            stats.add("errors", errors.count());
+            stats.add("bytes", bytes.count());
+            stats.add("totalTime", millis);
+            stats.add("avgTimePerRequest", count == 0 ? 0f : (float) millis
+                    / count);
+            return stats;
+        }
+    }
+}
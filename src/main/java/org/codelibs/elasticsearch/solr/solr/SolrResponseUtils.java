@@ -1,29 +1,32 @@
 package org.codelibs.elasticsearch.solr.solr;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
 import java.nio.charset.Charset;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Pattern;
 
 import org.apache.lucene.search.Explanation;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
-import org.apache.solr.common.util.JavaBinCodec;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.codelibs.elasticsearch.solr.SolrPluginConstants;
-import org.elasticsearch.ElasticsearchException;
+import org.codelibs.elasticsearch.solr.index.mapper.FieldTypeResolver;
+import org.codelibs.elasticsearch.solr.index.mapper.MappingView;
+import org.codelibs.elasticsearch.solr.rest.ExtendedRestRequest;
+import org.codelibs.elasticsearch.solr.search.DocumentCache;
+import org.codelibs.elasticsearch.solr.search.ResultWindow;
+import org.codelibs.elasticsearch.solr.solr.ResponseCompression.CompressedOutput;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.text.Text;
+import org.elasticsearch.index.get.GetField;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestRequest;
@@ -35,6 +38,7 @@ import org.elasticsearch.search.aggregations.Aggregation;
 import org.elasticsearch.search.aggregations.bucket.filter.Filter;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.highlight.HighlightField;
+import org.elasticsearch.search.lookup.SourceLookup;
 
 import com.google.common.io.BaseEncoding;
 
@@ -43,47 +47,24 @@ public class SolrResponseUtils {
     private static final ESLogger logger = Loggers
             .getLogger(SolrResponseUtils.class);
 
-    private static final char[] XML_START1 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
-            .toCharArray();
-
-    private static final char[] XML_START2_NOSCHEMA = "<response>\n"
-            .toCharArray();
-
-    private static final String CONTENT_TYPE_OCTET = "application/octet-stream";
-
-    private static final String CONTENT_TYPE_XML = "application/xml; charset=UTF-8";
-    
-    private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
-
     public static final Charset UTF_8 = Charset.forName("UTF-8");
 
-    // regex and date format to detect ISO8601 date formats
-    private static final Pattern ISO_DATE_PATTERN = Pattern
-            .compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(?:\\.\\d+)?Z");
-
-    private static final String YYYY_MM_DD_T_HH_MM_SS_Z = "yyyy-MM-dd'T'HH:mm:ss'Z'";
-
-    private static final String YYYY_MM_DD_T_HH_MM_SS_SSS_Z = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
-
-    private static final TimeZone TIMEZONE_UTC = TimeZone.getTimeZone("UTC");
-
     protected SolrResponseUtils() {
     }
 
-    private static Date parseISODateFormat(final String value) {
-        try {
-            final SimpleDateFormat sdf = new SimpleDateFormat(YYYY_MM_DD_T_HH_MM_SS_SSS_Z, Locale.ROOT);
-            sdf.setTimeZone(TIMEZONE_UTC);
-            return sdf.parse(value);
-        } catch (final ParseException e) {
-            try {
-                final SimpleDateFormat sdf = new SimpleDateFormat(YYYY_MM_DD_T_HH_MM_SS_Z, Locale.ROOT);
-                sdf.setTimeZone(TIMEZONE_UTC);
-                return sdf.parse(value);
-            } catch (final ParseException e1) {
-                throw new ElasticsearchException("Could not parse " + value, e);
-            }
-        }
+    /**
+     * Converts the search response into a NamedList that the Solr Response
+     * Writer can use.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @param response
+     *            the ES SearchResponse
+     * @return a NamedList of the response
+     */
+    public static NamedList<Object> createSearchResponse(
+            final RestRequest request, final SearchResponse response) {
+        return createSearchResponse(request, response, null, null);
     }
 
     /**
@@ -94,15 +75,60 @@ public class SolrResponseUtils {
      *            the ES RestRequest
      * @param response
      *            the ES SearchResponse
+     * @param documentCache
+     *            the cache of converted documents, or null
+     * @param fieldTypeResolver
+     *            the mappings to convert the field values, or null
      * @return a NamedList of the response
      */
     public static NamedList<Object> createSearchResponse(
-            final RestRequest request, final SearchResponse response) {
-        final NamedList<Object> resp = new SimpleOrderedMap<Object>();
+            final RestRequest request, final SearchResponse response,
+            final DocumentCache documentCache,
+            final FieldTypeResolver fieldTypeResolver) {
+        final NamedList<Object> debugList = new SimpleOrderedMap<Object>();
+        return createSearchResponse(request, response,
+                convertToSolrDocumentList(request, response, debugList,
+                        documentCache, fieldTypeResolver), debugList);
+    }
+
+    /**
+     * Creates a NamedList of the search response whose documents are a view
+     * of the search hits. Each hit is converted when the response writer
+     * reaches it, so the converted documents are not all held in the heap
+     * with the hits while the response is serialized.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @param response
+     *            the ES SearchResponse
+     * @param documentCache
+     *            the cache of converted documents, or null
+     * @param fieldTypeResolver
+     *            the mappings to convert the field values, or null
+     * @return a NamedList of the response
+     */
+    public static NamedList<Object> createSearchResultView(
+            final RestRequest request, final SearchResponse response,
+            final DocumentCache documentCache,
+            final FieldTypeResolver fieldTypeResolver) {
         final NamedList<Object> debugList = new SimpleOrderedMap<Object>();
+        final SearchHits hits = response.getHits();
+        final SolrDocumentList results = new SearchHitDocumentList(request,
+                hits.getHits(), documentCache, new MappingViews(
+                        fieldTypeResolver));
+        results.setMaxScore(hits.getMaxScore());
+        results.setNumFound(hits.getTotalHits());
+        results.setStart(request.paramAsInt("start", 0));
+        addExplanations(hits.getHits(), debugList);
+        return createSearchResponse(request, response, results, debugList);
+    }
+
+    private static NamedList<Object> createSearchResponse(
+            final RestRequest request, final SearchResponse response,
+            final SolrDocumentList results, final NamedList<Object> debugList) {
+        final NamedList<Object> resp = new SimpleOrderedMap<Object>();
         resp.add("responseHeader", createResponseHeader(request, response));
-        resp.add("response",
-                convertToSolrDocumentList(request, response, debugList));
+        resp.add("response", results);
 
         // add highlight node if highlighting was requested
         final NamedList<Object> highlighting = createHighlightResponse(request,
@@ -125,6 +151,105 @@ public class SolrResponseUtils {
         return resp;
     }
 
+    /**
+     * Converts a page of a result window into a NamedList that the Solr
+     * Response Writer can use.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @param window
+     *            the result window
+     * @param response
+     *            the documents of the page
+     * @param qTime
+     *            the time of the request in milliseconds
+     * @param documentCache
+     *            the cache of converted documents, or null
+     * @param fieldTypeResolver
+     *            the mappings to convert the field values, or null
+     * @return a NamedList of the response
+     */
+    public static NamedList<Object> createWindowResponse(
+            final RestRequest request, final ResultWindow window,
+            final MultiGetResponse response, final int qTime,
+            final DocumentCache documentCache,
+            final FieldTypeResolver fieldTypeResolver) {
+        final SolrDocumentList results = new SolrDocumentList();
+        results.setMaxScore(window.getMaxScore());
+        results.setNumFound(window.getTotalHits());
+        final int start = request.paramAsInt("start", 0);
+        results.setStart(start);
+
+        final MappingViews mappingViews = new MappingViews(fieldTypeResolver);
+        final MultiGetItemResponse[] items = response.getResponses();
+        for (int i = 0; i < items.length; i++) {
+            final GetResponse getResponse = items[i].getResponse();
+            // skip documents deleted after the window was searched
+            if (getResponse == null || !getResponse.isExists()) {
+                continue;
+            }
+
+            final SolrDocument doc = new SolrDocument();
+            doc.addField("score", window.getScore(start + i));
+            final String docKey = documentCache == null ? null
+                    : documentCache.getKey(request, getResponse.getIndex(),
+                            getResponse.getType(), getResponse.getId(),
+                            getResponse.getVersion());
+            if (!addCachedFields(doc, documentCache, docKey)) {
+                final MappingView mappingView = mappingViews.get(
+                        getResponse.getIndex(), getResponse.getType());
+                final Map<String, GetField> fields = getResponse.getFields();
+                if (fields == null || fields.isEmpty()) {
+                    final Map<String, Object> source = getResponse
+                            .getSourceAsMap();
+                    if (source != null) {
+                        for (final Map.Entry<String, Object> entry : source
+                                .entrySet()) {
+                            addField(doc, mappingView, entry.getKey(),
+                                    entry.getValue());
+                        }
+                    }
+                } else {
+                    for (final Map.Entry<String, GetField> entry : fields
+                            .entrySet()) {
+                        addField(doc, mappingView, entry.getKey(),
+                                getValue(entry.getValue().getValues()));
+                    }
+                }
+                cacheFields(doc, documentCache, docKey);
+            }
+            results.add(doc);
+        }
+
+        final NamedList<Object> resp = new SimpleOrderedMap<Object>();
+        resp.add("responseHeader", createResponseHeader(request, qTime));
+        resp.add("response", results);
+        return resp;
+    }
+
+    /**
+     * Creates the response of a request that only counts documents.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @param numFound
+     *            the number of documents
+     * @param qTime
+     *            the time of the request in milliseconds
+     * @return a NamedList of the response
+     */
+    public static NamedList<Object> createCountResponse(
+            final RestRequest request, final long numFound, final int qTime) {
+        final SolrDocumentList results = new SolrDocumentList();
+        results.setNumFound(numFound);
+        results.setStart(request.paramAsInt("start", 0));
+
+        final NamedList<Object> resp = new SimpleOrderedMap<Object>();
+        resp.add("responseHeader", createResponseHeader(request, qTime));
+        resp.add("response", results);
+        return resp;
+    }
+
     /**
      * Creates the Solr response header based on the search response.
      *
@@ -136,14 +261,21 @@ public class SolrResponseUtils {
      */
     public static NamedList<Object> createResponseHeader(
             final RestRequest request, final SearchResponse response) {
+        return createResponseHeader(request, (int) response.getTookInMillis());
+    }
+
+    private static NamedList<Object> createResponseHeader(
+            final RestRequest request, final int qTime) {
         // generate response header
         final NamedList<Object> responseHeader = new SimpleOrderedMap<Object>();
         responseHeader.add("status", 0);
-        responseHeader.add("QTime", (int) response.getTookInMillis());
+        responseHeader.add("QTime", qTime);
 
         // echo params in header
         final NamedList<Object> solrParams = new SimpleOrderedMap<Object>();
-        for (final String key : request.params().keySet()) {
+        final Collection<String> keys = request instanceof ExtendedRestRequest ? ((ExtendedRestRequest) request)
+                .paramNames() : request.params().keySet();
+        for (final String key : keys) {
             final String[] values = request.paramAsStringArray(key,
                     new String[0]);
             if (values.length > 0) {
@@ -296,7 +428,29 @@ public class SolrResponseUtils {
     public static SolrDocumentList convertToSolrDocumentList(
             final RestRequest request, final SearchResponse response,
             final NamedList<Object> debugList) {
-        NamedList<Object> explainList = null;
+        return convertToSolrDocumentList(request, response, debugList, null,
+                null);
+    }
+
+    /**
+     * Converts the search results into a SolrDocumentList that can be
+     * serialized by the Solr Response Writer.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @param response
+     *            the ES SearchResponse
+     * @param documentCache
+     *            the cache of converted documents, or null
+     * @param fieldTypeResolver
+     *            the mappings to convert the field values, or null
+     * @return search results as a SolrDocumentList
+     */
+    public static SolrDocumentList convertToSolrDocumentList(
+            final RestRequest request, final SearchResponse response,
+            final NamedList<Object> debugList,
+            final DocumentCache documentCache,
+            final FieldTypeResolver fieldTypeResolver) {
         final SolrDocumentList results = new SolrDocumentList();
 
         // get the ES hits
@@ -307,75 +461,347 @@ public class SolrResponseUtils {
         results.setNumFound(hits.getTotalHits());
         results.setStart(request.paramAsInt("start", 0));
 
+        final MappingViews mappingViews = new MappingViews(fieldTypeResolver);
+
         // loop though the results and convert each
         // one to a SolrDocument
         for (final SearchHit hit : hits.getHits()) {
-            final SolrDocument doc = new SolrDocument();
+            // add the SolrDocument to the SolrDocumentList
+            results.add(createDocument(request, hit, documentCache,
+                    mappingViews));
+        }
 
-            // always add score to document
-            doc.addField("score", hit.score());
+        addExplanations(hits.getHits(), debugList);
 
+        return results;
+    }
+
+    private static void addExplanations(final SearchHit[] hits,
+            final NamedList<Object> debugList) {
+        NamedList<Object> explainList = null;
+        for (final SearchHit hit : hits) {
+            final Explanation explanation = hit.getExplanation();
+            if (explanation != null) {
+                if (explainList == null) {
+                    explainList = new SimpleOrderedMap<Object>();
+                }
+                explainList.add(hit.getId(), explanation.toString());
+            }
+        }
+
+        if (explainList != null) {
+            debugList.add("explain", explainList);
+        }
+    }
+
+    private static SolrDocument createDocument(final RestRequest request,
+            final SearchHit hit, final DocumentCache documentCache,
+            final MappingViews mappingViews) {
+        final SolrDocument doc = new SolrDocument();
+
+        // always add score to document
+        doc.addField("score", hit.score());
+
+        final String docKey = documentCache == null ? null : documentCache
+                .getKey(request, hit.getIndex(), hit.getType(), hit.getId(),
+                        hit.getVersion());
+        if (!addCachedFields(doc, documentCache, docKey)) {
+            final MappingView mappingView = mappingViews.get(hit.getIndex(),
+                    hit.getType());
             // attempt to get the returned fields
             // if none returned, use the source fields
             final Map<String, SearchHitField> fields = hit.getFields();
-            final Map<String, Object> source = hit.sourceAsMap();
             if (fields.isEmpty()) {
+                // parse the source without keeping the map in the hit
+                final BytesReference sourceRef = hit.sourceRef();
+                final Map<String, Object> source = sourceRef == null ? null
+                        : SourceLookup.sourceAsMap(sourceRef);
                 if (source != null) {
                     for (final Map.Entry<String, Object> entry : source
                             .entrySet()) {
-                        final String sourceField = entry.getKey();
-                        Object fieldValue = entry.getValue();
-
-                        // ES does not return date fields as Date Objects
-                        // detect if the string is a date, and if so
-                        // convert it to a Date object
-                        if (fieldValue instanceof String
-                                && ISO_DATE_PATTERN.matcher(
-                                        fieldValue.toString()).matches()) {
-                            fieldValue = parseISODateFormat(fieldValue
-                                    .toString());
-                        }
-
-                        doc.addField(sourceField, fieldValue);
+                        addField(doc, mappingView, entry.getKey(),
+                                entry.getValue());
                     }
                 }
             } else {
                 for (final Map.Entry<String, SearchHitField> entry : fields
                         .entrySet()) {
-                    final String fieldName = entry.getKey();
-                    final SearchHitField field = entry.getValue();
-                    Object fieldValue = field.getValue();
-
-                    // ES does not return date fields as Date Objects
-                    // detect if the string is a date, and if so
-                    // convert it to a Date object
-                    if (fieldValue instanceof String
-                            && ISO_DATE_PATTERN.matcher(fieldValue.toString())
-                                    .matches()) {
-                        fieldValue = parseISODateFormat(fieldValue.toString());
-                    }
-
-                    doc.addField(fieldName, fieldValue);
+                    addField(doc, mappingView, entry.getKey(),
+                            getValue(entry.getValue().getValues()));
                 }
             }
+            cacheFields(doc, documentCache, docKey);
+        }
+        return doc;
+    }
 
-            final Explanation explanation = hit.getExplanation();
-            if (explanation != null) {
-                if (explainList == null) {
-                    explainList = new SimpleOrderedMap<Object>();
+    /**
+     * A read-only SolrDocumentList view of search hits. A hit is converted to
+     * a SolrDocument each time a response writer gets it. The backing array
+     * of the ArrayList is always empty, so every read method delegates to an
+     * AbstractList of the hits, and the modifying methods are unsupported.
+     * The view is serialized as a SolrDocumentList of the converted
+     * documents. The Java 8 methods of ArrayList, such as forEach and
+     * spliterator, cannot be overridden at source level 1.7, so the view must
+     * be read with the List methods of Java 7.
+     */
+    private static class SearchHitDocumentList extends SolrDocumentList {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<SolrDocument> docs;
+
+        SearchHitDocumentList(final RestRequest request,
+                final SearchHit[] hits, final DocumentCache documentCache,
+                final MappingViews mappingViews) {
+            docs = new AbstractList<SolrDocument>() {
+                @Override
+                public SolrDocument get(final int index) {
+                    return createDocument(request, hits[index],
+                            documentCache, mappingViews);
                 }
-                explainList.add(hit.getId(), explanation.toString());
+
+                @Override
+                public int size() {
+                    return hits.length;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return docs.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return docs.isEmpty();
+        }
+
+        @Override
+        public SolrDocument get(final int index) {
+            return docs.get(index);
+        }
+
+        @Override
+        public Iterator<SolrDocument> iterator() {
+            return docs.iterator();
+        }
+
+        @Override
+        public ListIterator<SolrDocument> listIterator() {
+            return docs.listIterator();
+        }
+
+        @Override
+        public ListIterator<SolrDocument> listIterator(final int index) {
+            return docs.listIterator(index);
+        }
+
+        @Override
+        public List<SolrDocument> subList(final int fromIndex,
+                final int toIndex) {
+            return docs.subList(fromIndex, toIndex);
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return docs.contains(o);
+        }
+
+        @Override
+        public boolean containsAll(final Collection<?> c) {
+            return docs.containsAll(c);
+        }
+
+        @Override
+        public int indexOf(final Object o) {
+            return docs.indexOf(o);
+        }
+
+        @Override
+        public int lastIndexOf(final Object o) {
+            return docs.lastIndexOf(o);
+        }
+
+        @Override
+        public Object[] toArray() {
+            return docs.toArray();
+        }
+
+        @Override
+        public <T> T[] toArray(final T[] a) {
+            return docs.toArray(a);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return docs.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return docs.hashCode();
+        }
+
+        @Override
+        public boolean add(final SolrDocument e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(final int index, final SolrDocument element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(final Collection<? extends SolrDocument> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(final int index,
+                final Collection<? extends SolrDocument> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SolrDocument set(final int index, final SolrDocument element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SolrDocument remove(final int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(final Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeAll(final Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean retainAll(final Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Object writeReplace() {
+            final SolrDocumentList list = new SolrDocumentList();
+            list.setNumFound(getNumFound());
+            list.setStart(getStart());
+            list.setMaxScore(getMaxScore());
+            list.addAll(docs);
+            return list;
+        }
+    }
+
+    /**
+     * Adds the cached fields of a document after its score.
+     *
+     * @return false if the document is not cached
+     */
+    private static boolean addCachedFields(final SolrDocument doc,
+            final DocumentCache documentCache, final String docKey) {
+        if (docKey == null) {
+            return false;
+        }
+        final SolrDocument cachedDoc = documentCache.get(docKey);
+        if (cachedDoc == null) {
+            return false;
+        }
+        doc.putAll(cachedDoc);
+        return true;
+    }
+
+    /**
+     * Caches the fields of a converted document without its score, which is
+     * the first field.
+     */
+    private static void cacheFields(final SolrDocument doc,
+            final DocumentCache documentCache, final String docKey) {
+        if (docKey == null) {
+            return;
+        }
+        final SolrDocument cachedDoc = new SolrDocument();
+        boolean first = true;
+        for (final Map.Entry<String, Object> entry : doc) {
+            if (first) {
+                first = false;
+            } else {
+                cachedDoc.setField(entry.getKey(), entry.getValue());
             }
+        }
+        documentCache.put(docKey, cachedDoc);
+    }
 
-            // add the SolrDocument to the SolrDocumentList
-            results.add(doc);
+    private static Object getValue(final List<Object> values) {
+        return values.size() == 1 ? values.get(0) : values;
+    }
+
+    private static void addField(final SolrDocument doc,
+            final MappingView mappingView, final String fieldName,
+            final Object value) {
+        Object fieldValue = value;
+
+        if (mappingView != null) {
+            // ES returns dates as text or epoch milliseconds
+            fieldValue = mappingView.convertResponseValue(fieldName,
+                    fieldValue);
+        } else if (fieldValue instanceof String) {
+            // no mapping, detect if the string is a date
+            final Date date = IsoDateParser.parseDate((String) fieldValue);
+            if (date != null) {
+                fieldValue = date;
+            }
         }
 
-        if (explainList != null) {
-            debugList.add("explain", explainList);
+        doc.addField(fieldName, fieldValue);
+    }
+
+    /**
+     * Looks up the mapping views of hits, which are mostly from the same index
+     * and type.
+     */
+    private static class MappingViews {
+
+        private final FieldTypeResolver fieldTypeResolver;
+
+        private String index;
+
+        private String type;
+
+        private MappingView mappingView;
+
+        MappingViews(final FieldTypeResolver fieldTypeResolver) {
+            this.fieldTypeResolver = fieldTypeResolver;
         }
 
-        return results;
+        /**
+         * @return the mapping view, or null to detect dates in the values
+         */
+        MappingView get(final String index, final String type) {
+            if (fieldTypeResolver == null) {
+                return null;
+            }
+            if (!index.equals(this.index) || !type.equals(this.type)) {
+                final MappingView view = fieldTypeResolver.getMappingView(
+                        index, type);
+                this.index = index;
+                this.type = type;
+                mappingView = view.isEmpty() ? null : view;
+            }
+            return mappingView;
+        }
     }
 
     /**
@@ -391,84 +817,93 @@ public class SolrResponseUtils {
      */
     public static void writeResponse(final NamedList<Object> obj,
             final RestRequest request, final RestChannel channel) {
-        // determine what kind of output writer the Solr client is expecting
-        final String wt = request.hasParam("wt") ? request.param("wt")
-                .toLowerCase() : SolrPluginConstants.XML_FORMAT_TYPE;
-               
-        final String jsonnl = request.hasParam("json.nl") ? request.param("json.nl")
-                .toLowerCase() : "";
-
-        // determine what kind of response we need to send
-        if (wt.equals(SolrPluginConstants.XML_FORMAT_TYPE)) {
-            writeXmlResponse(obj, channel);
-        } else if (wt.equals(SolrPluginConstants.JSON_FORMAT_TYPE)) {
-            writeJsonResponse(obj, channel, jsonnl);
-        } else if (wt.equals(SolrPluginConstants.JAVABIN_FORMAT_TYPE)) {
-            writeJavaBinResponse(obj, channel);
-        } else {
-            // default xml response
-            writeXmlResponse(obj, channel);
-        }
+        writeResponse(obj, request, channel, null);
     }
 
     /**
-     * Write the response object in JavaBin format.
+     * Serializes the NamedList in the specified output format and sends it to
+     * the Solr Client.
      *
      * @param obj
-     *            the response object
+     *            the NamedList response to serialize
+     * @param request
+     *            the ES RestRequest
      * @param channel
      *            the ES RestChannel
+     * @param writers
+     *            the response writers, or null for the built-in writers
      */
-    private static void writeJavaBinResponse(final NamedList<Object> obj,
-            final RestChannel channel) {
-        final ByteArrayOutputStream bo = new ByteArrayOutputStream();
-
-        // try to marshal the data
-        try {
-            new JavaBinCodec().marshal(obj, bo);
-        } catch (final IOException e) {
-            logger.error("Error writing JavaBin response", e);
-        }
+    public static void writeResponse(final NamedList<Object> obj,
+            final RestRequest request, final RestChannel channel,
+            final ResponseWriters writers) {
+        channel.sendResponse(createResponse(obj, request, writers, null));
+    }
 
-        final Object errorResponse = obj.get("error");
-        // send the response
-        channel.sendResponse(new BytesRestResponse(
-                errorResponse != null ? RestStatus.INTERNAL_SERVER_ERROR
-                        : RestStatus.OK, CONTENT_TYPE_OCTET, bo.toByteArray()));
+    /**
+     * Serializes the NamedList in the specified output format.
+     *
+     * @param obj
+     *            the NamedList response to serialize
+     * @param request
+     *            the ES RestRequest
+     * @return the serialized response
+     */
+    public static BytesRestResponse createResponse(
+            final NamedList<Object> obj, final RestRequest request) {
+        return createResponse(obj, request, null, null);
     }
 
-    private static void writeXmlResponse(final NamedList<Object> obj,
-            final RestChannel channel) {
-        final Writer writer = new StringWriter();
+    /**
+     * Serializes the NamedList with the writer of the wt parameter,
+     * compressed with the encoding accepted by the client if the writer
+     * allows it. If the writer fails, the response is a 500 error instead of
+     * the partial body.
+     *
+     * @param obj
+     *            the NamedList response to serialize
+     * @param request
+     *            the ES RestRequest
+     * @param writers
+     *            the response writers, or null for the built-in writers
+     * @param compression
+     *            the compression of responses, or null
+     * @return the serialized response
+     */
+    public static BytesRestResponse createResponse(
+            final NamedList<Object> obj, final RestRequest request,
+            final ResponseWriters writers,
+            final ResponseCompression compression) {
+        // determine what kind of output writer the Solr client is expecting
+        final ResponseWriter writer = (writers != null ? writers
+                : ResponseWriters.getDefault()).get(request);
+        final boolean compressible = compression != null
+                && writer.isCompressible();
 
-        // try to serialize the data to xml
+        final CompressedOutput out = compressible ? compression
+                .createOutput(request) : new CompressedOutput(null, 0, 0);
         try {
-            writer.write(XML_START1);
-            writer.write(XML_START2_NOSCHEMA);
-
-            // initialize the xml writer
-            final XMLWriter xw = new XMLWriter(writer);
-
-            // loop though each object and convert it to xml
-            final int sz = obj.size();
-            for (int i = 0; i < sz; i++) {
-                xw.writeVal(obj.getName(i), obj.getVal(i));
-            }
-
-            writer.write("\n</response>\n");
-            writer.close();
+            writer.write(obj, request, out);
+            out.close();
         } catch (final IOException e) {
-            logger.error("Error writing XML response", e);
+            // the partial, possibly compressed, body cannot be sent
+            logger.error("Error writing response", e);
+            return new BytesRestResponse(RestStatus.INTERNAL_SERVER_ERROR,
+                    "Failed to write the response: " + e.getMessage());
         }
 
-        // send the response
         final Object errorResponse = obj.get("error");
-        channel.sendResponse(new BytesRestResponse(
+        final BytesRestResponse response = new BytesRestResponse(
                 errorResponse != null ? RestStatus.INTERNAL_SERVER_ERROR
-                        : RestStatus.OK, CONTENT_TYPE_XML, writer.toString()
-                        .getBytes(UTF_8)));
+                        : RestStatus.OK, writer.getContentType(), out.bytes());
+        if (out.getContentEncoding() != null) {
+            response.addHeader("Content-Encoding", out.getContentEncoding());
+        }
+        if (compressible) {
+            response.addHeader("Vary", "Accept-Encoding");
+        }
+        return response;
     }
-    
+
     public static void writeJsonResponse(final NamedList<Object> obj,
             final RestChannel channel) {
     	writeJsonResponse(obj, channel, "");
@@ -476,25 +911,17 @@ public class SolrResponseUtils {
     
     public static void writeJsonResponse(final NamedList<Object> obj,
             final RestChannel channel, final String namedListStyle) {
-    	
-    	final Writer writer = new StringWriter();
-    	
-        // try to serialize the data to xml
+        final CompressedOutput out = new CompressedOutput(null, 0, 0);
         try {
-        	JSONWriter jw = new JSONWriter(writer);
-        	jw.setNamedListStyle(namedListStyle);
-            jw.write(obj);
-            writer.close();
-        } catch (Exception e) {
-        	logger.error("Error writing JSON response", e);
-        }
-        
+            JSONResponseWriter.write(obj, namedListStyle, out);
+        } catch (final IOException e) {
+            logger.error("Error writing JSON response", e);
+        }
         final Object errorResponse = obj.get("error");
         channel.sendResponse(new BytesRestResponse(
                 errorResponse != null ? RestStatus.INTERNAL_SERVER_ERROR
-                        : RestStatus.OK, CONTENT_TYPE_JSON, writer.toString()
-                        .getBytes(UTF_8)));
-
+                        : RestStatus.OK, JSONResponseWriter.CONTENT_TYPE, out
+                        .bytes()));
     }
     
 }
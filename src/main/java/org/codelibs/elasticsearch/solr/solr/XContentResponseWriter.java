@@ -0,0 +1,287 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.schema.DateField;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Writes responses with an XContent generator, for the binary wt=cbor and
+ * wt=smile formats. The structure is the same as the JSON writer's: NamedLists
+ * follow the json.nl style, documents lists have numFound, start, maxScore and
+ * docs, and dates are strings in Solr's format. Byte arrays are written as
+ * binary values instead of base64 strings.
+ */
+public class XContentResponseWriter implements ResponseWriter {
+
+    private final XContentType type;
+
+    /**
+     * @param type
+     *            the XContent type, such as CBOR or SMILE
+     */
+    public XContentResponseWriter(final XContentType type) {
+        this.type = type;
+    }
+
+    @Override
+    public String getContentType() {
+        return type.restContentType();
+    }
+
+    @Override
+    public void write(final NamedList<Object> response,
+            final RestRequest request, final OutputStream out)
+            throws IOException {
+        final XContentBuilder builder = XContentFactory.contentBuilder(type,
+                out);
+        new Generator(builder, JSONResponseWriter.getNamedListStyle(request))
+                .writeNamedListAsMap(response);
+        builder.close();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean isCompressible() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * Writes the values of a response to a builder.
+     */
+    private static class Generator {
+
+        private static final String JSON_NL_MAP = "map";
+
+        private static final String JSON_NL_ARROFARR = "arrarr";
+
+        private static final String JSON_NL_ARROFMAP = "arrmap";
+
+        private final XContentBuilder builder;
+
+        private final String namedListStyle;
+
+        Generator(final XContentBuilder builder, final String namedListStyle) {
+            this.builder = builder;
+            this.namedListStyle = namedListStyle;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void writeVal(final Object val) throws IOException {
+            if (val == null) {
+                builder.nullValue();
+            } else if (val instanceof String) {
+                builder.value((String) val);
+            } else if (val instanceof Integer || val instanceof Short
+                    || val instanceof Byte) {
+                builder.value(((Number) val).intValue());
+            } else if (val instanceof Long) {
+                builder.value(((Long) val).longValue());
+            } else if (val instanceof Float) {
+                builder.value(((Float) val).floatValue());
+            } else if (val instanceof Double) {
+                builder.value(((Double) val).doubleValue());
+            } else if (val instanceof Boolean) {
+                builder.value(((Boolean) val).booleanValue());
+            } else if (val instanceof Date) {
+                writeDate((Date) val);
+            } else if (val instanceof SolrDocument) {
+                writeSolrDocument((SolrDocument) val);
+            } else if (val instanceof SolrDocumentList) {
+                writeSolrDocumentList((SolrDocumentList) val);
+            } else if (val instanceof Map) {
+                writeMap((Map<Object, Object>) val);
+            } else if (val instanceof NamedList) {
+                writeNamedList((NamedList<Object>) val);
+            } else if (val instanceof byte[]) {
+                builder.value((byte[]) val);
+            } else if (val instanceof Iterable) {
+                writeArray(((Iterable<Object>) val).iterator());
+            } else if (val instanceof Object[]) {
+                builder.startArray();
+                for (final Object o : (Object[]) val) {
+                    writeVal(o);
+                }
+                builder.endArray();
+            } else if (val instanceof Iterator) {
+                writeArray((Iterator<Object>) val);
+            } else {
+                builder.value(val.toString());
+            }
+        }
+
+        private void writeDate(final Date date) throws IOException {
+            final String value = ResponseEncoder.formatDate(date.getTime(),
+                    true);
+            builder.value(value != null ? value : DateField
+                    .formatExternal(date));
+        }
+
+        private void writeArray(final Iterator<Object> values)
+                throws IOException {
+            builder.startArray();
+            while (values.hasNext()) {
+                writeVal(values.next());
+            }
+            builder.endArray();
+        }
+
+        private void writeMap(final Map<Object, Object> map)
+                throws IOException {
+            builder.startObject();
+            for (final Map.Entry<Object, Object> entry : map.entrySet()) {
+                builder.field(String.valueOf(entry.getKey()));
+                writeVal(entry.getValue());
+            }
+            builder.endObject();
+        }
+
+        private void writeSolrDocumentList(final SolrDocumentList docs)
+                throws IOException {
+            builder.startObject();
+            builder.field("numFound", docs.getNumFound());
+            builder.field("start", docs.getStart());
+            if (docs.getMaxScore() != null) {
+                builder.field("maxScore", docs.getMaxScore().floatValue());
+            }
+            builder.startArray("docs");
+            final int size = docs.size();
+            for (int i = 0; i < size; i++) {
+                writeSolrDocument(docs.get(i));
+            }
+            builder.endArray();
+            builder.endObject();
+        }
+
+        private void writeSolrDocument(final SolrDocument doc)
+                throws IOException {
+            builder.startObject();
+            for (final Map.Entry<String, Object> entry : doc) {
+                builder.field(entry.getKey());
+                writeVal(entry.getValue());
+            }
+            builder.endObject();
+        }
+
+        private void writeNamedList(final NamedList<Object> val)
+                throws IOException {
+            if (JSON_NL_MAP.equals(namedListStyle)
+                    || namedListStyle.isEmpty()
+                    && val instanceof SimpleOrderedMap) {
+                writeNamedListAsMap(val);
+            } else if (JSON_NL_ARROFARR.equals(namedListStyle)) {
+                writeNamedListAsArrArr(val);
+            } else if (JSON_NL_ARROFMAP.equals(namedListStyle)) {
+                writeNamedListAsArrMap(val);
+            } else {
+                writeNamedListAsFlat(val);
+            }
+        }
+
+        /**
+         * Writes a NamedList as an object. The values of a repeated name are
+         * written together as an array, as the JSON writer does.
+         */
+        @SuppressWarnings("unchecked")
+        private void writeNamedListAsMap(final NamedList<Object> val)
+                throws IOException {
+            final int size = val.size();
+            final Map<String, Object> map = new LinkedHashMap<String, Object>(
+                    size);
+            for (int i = 0; i < size; i++) {
+                final String key = val.getName(i) == null ? "" : val.getName(i);
+                final Object value = val.getVal(i);
+                if (!map.containsKey(key)) {
+                    map.put(key, value);
+                } else if (map.get(key) instanceof RepeatedValues) {
+                    ((List<Object>) map.get(key)).add(value);
+                } else {
+                    final List<Object> values = new RepeatedValues();
+                    values.add(map.get(key));
+                    values.add(value);
+                    map.put(key, values);
+                }
+            }
+
+            builder.startObject();
+            for (final Map.Entry<String, Object> entry : map.entrySet()) {
+                builder.field(entry.getKey());
+                writeVal(entry.getValue());
+            }
+            builder.endObject();
+        }
+
+        private void writeNamedListAsArrMap(final NamedList<Object> val)
+                throws IOException {
+            builder.startArray();
+            final int size = val.size();
+            for (int i = 0; i < size; i++) {
+                final String key = val.getName(i);
+                if (key == null) {
+                    writeVal(val.getVal(i));
+                } else {
+                    builder.startObject();
+                    builder.field(key);
+                    writeVal(val.getVal(i));
+                    builder.endObject();
+                }
+            }
+            builder.endArray();
+        }
+
+        private void writeNamedListAsArrArr(final NamedList<Object> val)
+                throws IOException {
+            builder.startArray();
+            final int size = val.size();
+            for (int i = 0; i < size; i++) {
+                builder.startArray();
+                writeVal(val.getName(i));
+                writeVal(val.getVal(i));
+                builder.endArray();
+            }
+            builder.endArray();
+        }
+
+        private void writeNamedListAsFlat(final NamedList<Object> val)
+                throws IOException {
+            builder.startArray();
+            final int size = val.size();
+            for (int i = 0; i < size; i++) {
+                writeVal(val.getName(i));
+                writeVal(val.getVal(i));
+            }
+            builder.endArray();
+        }
+    }
+
+    /**
+     * The values of a repeated name in a NamedList.
+     */
+    private static class RepeatedValues extends ArrayList<Object> {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
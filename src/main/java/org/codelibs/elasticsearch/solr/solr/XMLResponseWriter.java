@@ -0,0 +1,63 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.solr.common.util.NamedList;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Writes responses in Solr's XML format (wt=xml).
+ */
+public class XMLResponseWriter implements ResponseWriter {
+
+    private static final char[] XML_START1 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            .toCharArray();
+
+    private static final char[] XML_START2_NOSCHEMA = "<response>\n"
+            .toCharArray();
+
+    private static final String CONTENT_TYPE = "application/xml; charset=UTF-8";
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void write(final NamedList<Object> response,
+            final RestRequest request, final OutputStream out)
+            throws IOException {
+        final Writer writer = new OutputStreamWriter(out,
+                SolrResponseUtils.UTF_8);
+        writer.write(XML_START1);
+        writer.write(XML_START2_NOSCHEMA);
+
+        // loop though each object and convert it to xml
+        final XMLWriter xw = new XMLWriter(writer);
+        final int sz = response.size();
+        for (int i = 0; i < sz; i++) {
+            xw.writeVal(response.getName(i), response.getVal(i));
+        }
+
+        writer.write("\n</response>\n");
+        writer.close();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean isCompressible() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+}
@@ -460,8 +460,14 @@ final public class XMLWriter {
     }
 
     public void writeDate(final String name, final Date val) throws IOException {
-        // updated to use Joda time
-        this.writeDate(name, new DateTime(val).withZone(DateTimeZone.UTC).toString(dateFormat));
+        final String date = ResponseEncoder.formatDate(val.getTime(), false);
+        if (date != null) {
+            this.writeDate(name, date);
+        } else {
+            // years out of 0000-9999 are left to Joda time
+            this.writeDate(name, new DateTime(val).withZone(DateTimeZone.UTC)
+                    .toString(dateFormat));
+        }
     }
 
     public void writeDate(final String name, final String val)
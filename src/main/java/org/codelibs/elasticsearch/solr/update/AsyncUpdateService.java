@@ -0,0 +1,418 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest.ACTION;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.codelibs.elasticsearch.solr.solr.JavaBinUpdateRequestCodec;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.indices.flush.FlushRequest;
+import org.elasticsearch.action.admin.indices.optimize.OptimizeRequest;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.action.support.replication.ShardReplicationOperationRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Accepts update requests with async=true. The update commands are stored in
+ * an {@link UpdateJournal} in the JavaBin format, and the request is
+ * acknowledged as soon as they are written. A background thread replays the
+ * journal into the indices in the order of the requests. The journal is
+ * opened only if solr.journal.enabled is true, which is false by default.
+ *
+ * Bulk items rejected by the cluster because it is busy are retried with a
+ * backoff, up to solr.journal.maxRetries times. A record that is still
+ * rejected then, or fails for another reason, is counted as failed and
+ * skipped, so it does not block the records after it. Documents without an
+ * id get a generated id before they are stored, so a replayed record
+ * overwrites the same documents.
+ */
+public class AsyncUpdateService extends
+        AbstractLifecycleComponent<AsyncUpdateService> {
+
+    private final Client client;
+
+    private final IndexRequestFactory requestFactory;
+
+    private final FieldNamePool fieldNamePool;
+
+    private final boolean enabled;
+
+    private final Path journalDir;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final boolean sync;
+
+    private final int bulkActions;
+
+    private final TimeValue retryInterval;
+
+    private final TimeValue maxRetryInterval;
+
+    private final int maxRetries;
+
+    private final boolean commitAsFlush;
+
+    private final boolean optimizeAsOptimize;
+
+    private volatile UpdateJournal journal;
+
+    private volatile Thread drainerThread;
+
+    private volatile boolean running = false;
+
+    private volatile long startTime;
+
+    private volatile long numReplayed;
+
+    private volatile long numReplayFailed;
+
+    private volatile long numRetries;
+
+    private volatile long numReplayedCommands;
+
+    @Inject
+    public AsyncUpdateService(final Settings settings, final Client client,
+            final Environment environment,
+            final IndexRequestFactory requestFactory,
+            final FieldNamePool fieldNamePool) {
+        super(settings);
+        this.client = client;
+        this.requestFactory = requestFactory;
+        this.fieldNamePool = fieldNamePool;
+
+        enabled = settings.getAsBoolean("solr.journal.enabled", false);
+        final String dir = settings.get("solr.journal.dir");
+        journalDir = dir != null ? Paths.get(dir)
+                : environment.dataWithClusterFiles()[0].toPath()
+                        .resolve("solr").resolve("journal");
+        segmentSize = (int) Math.min(Integer.MAX_VALUE, settings
+                .getAsBytesSize("solr.journal.segmentSize",
+                        new ByteSizeValue(64, ByteSizeUnit.MB)).bytes());
+        maxSegments = settings.getAsInt("solr.journal.maxSegments", 16);
+        sync = settings.getAsBoolean("solr.journal.sync", true);
+        bulkActions = settings.getAsInt("solr.journal.bulkActions",
+                settings.getAsInt("solr.bulkActions", 1000));
+        retryInterval = settings.getAsTime("solr.journal.retryInterval",
+                TimeValue.timeValueSeconds(1));
+        maxRetryInterval = settings.getAsTime("solr.journal.maxRetryInterval",
+                TimeValue.timeValueSeconds(30));
+        maxRetries = settings.getAsInt("solr.journal.maxRetries", 20);
+        commitAsFlush = settings.getAsBoolean("solr.commitAsFlush", true);
+        optimizeAsOptimize = settings.getAsBoolean("solr.optimizeAsOptimize",
+                true);
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            journal = new UpdateJournal(journalDir, segmentSize, maxSegments,
+                    sync);
+        } catch (final IOException e) {
+            throw new ElasticsearchException("Failed to open the journal in "
+                    + journalDir, e);
+        }
+
+        running = true;
+        startTime = System.currentTimeMillis();
+        drainerThread = EsExecutors.daemonThreadFactory(settings,
+                "solr_journal").newThread(new Drainer());
+        drainerThread.start();
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+        running = false;
+        final Thread thread = drainerThread;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(10000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drainerThread = null;
+        }
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+        final UpdateJournal current = journal;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (final IOException e) {
+                logger.warn("Failed to close the journal.", e);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Stores the update commands into the journal.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @param params
+     *            the update parameters
+     * @param reader
+     *            the update commands
+     * @throws IOException
+     * @throws EsRejectedExecutionException
+     *             if the journal is disabled or full
+     */
+    public void submit(final RestRequest request, final UpdateParams params,
+            final UpdateReader reader) throws IOException {
+        final UpdateJournal current = journal;
+        if (current == null) {
+            throw new EsRejectedExecutionException(
+                    "async updates are disabled by solr.journal.enabled.");
+        }
+
+        final UpdateRequest updateRequest = new UpdateRequest();
+        boolean commit = request.paramAsBoolean("commit", false);
+        boolean optimize = request.paramAsBoolean("optimize", false);
+        UpdateCommand command;
+        while ((command = reader.next()) != null) {
+            switch (command.getType()) {
+            case ADD:
+                final Map<String, Object> doc = command.getDocument();
+                if (params.getId() == null) {
+                    requestFactory.assignId(doc);
+                }
+                updateRequest.add(toSolrInputDocument(doc));
+                break;
+            case DELETE_BY_ID:
+                updateRequest.deleteById(command.getValue());
+                break;
+            case DELETE_BY_QUERY:
+                updateRequest.deleteByQuery(command.getValue());
+                break;
+            case COMMIT:
+                commit = true;
+                break;
+            case OPTIMIZE:
+                optimize = true;
+                break;
+            default:
+                break;
+            }
+        }
+        if (commit) {
+            updateRequest.setAction(ACTION.COMMIT, false, false);
+        } else if (optimize) {
+            updateRequest.setAction(ACTION.OPTIMIZE, false, false);
+        }
+        setParams(updateRequest, params);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JavaBinUpdateRequestCodec().marshal(updateRequest, out);
+        current.append(out.toByteArray());
+    }
+
+    private static SolrInputDocument toSolrInputDocument(
+            final Map<String, Object> doc) {
+        final SolrInputDocument solrDoc = new SolrInputDocument();
+        for (final Map.Entry<String, Object> entry : doc.entrySet()) {
+            solrDoc.addField(entry.getKey(), entry.getValue());
+        }
+        return solrDoc;
+    }
+
+    private static void setParams(final UpdateRequest updateRequest,
+            final UpdateParams params) {
+        setParam(updateRequest, "index", params.getIndex());
+        setParam(updateRequest, "type", params.getType());
+        setParam(updateRequest, "id", params.getId());
+        setParam(updateRequest, "routing", params.getRouting());
+        setParam(updateRequest, "parent", params.getParent());
+        if (params.getTimeout() != null) {
+            setParam(updateRequest, "timeout", params.getTimeout().toString());
+        }
+        if (params.getRefresh() != null) {
+            setParam(updateRequest, "refresh", params.getRefresh().toString());
+        }
+        setParam(updateRequest, "replication", params.getReplication());
+        setParam(updateRequest, "consistency", params.getConsistency());
+    }
+
+    private static void setParam(final UpdateRequest updateRequest,
+            final String name, final String value) {
+        if (value != null) {
+            updateRequest.setParam(name, value);
+        }
+    }
+
+    private static UpdateParams getParams(final SolrParams solrParams) {
+        final String timeout = solrParams.get("timeout");
+        final String refresh = solrParams.get("refresh");
+        return new UpdateParams(solrParams.get("index"),
+                solrParams.get("type"), solrParams.get("id"),
+                solrParams.get("routing"), solrParams.get("parent"),
+                TimeValue.parseTimeValue(timeout,
+                        ShardReplicationOperationRequest.DEFAULT_TIMEOUT),
+                refresh == null ? null : Boolean.valueOf(refresh),
+                solrParams.get("replication"), solrParams.get("consistency"));
+    }
+
+    /**
+     * @return the statistics of the journal
+     */
+    public NamedList<Object> getStats() {
+        final NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        final UpdateJournal current = journal;
+        stats.add("enabled", current != null);
+        if (current == null) {
+            return stats;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long oldestTimestamp = current.getOldestTimestamp();
+        stats.add("path", journalDir.toString());
+        stats.add("segments", current.getNumSegments());
+        stats.add("pending", current.getNumPending());
+        stats.add("lag", oldestTimestamp == 0 ? 0 : now - oldestTimestamp);
+        stats.add("appended", current.getNumAppended());
+        stats.add("replayed", numReplayed);
+        // corrupted records are lost as well as failed ones
+        stats.add("replayFailed", numReplayFailed + current.getNumCorrupted());
+        stats.add("corrupted", current.getNumCorrupted());
+        stats.add("retries", numRetries);
+        stats.add("replayedCommands", numReplayedCommands);
+        final long elapsed = now - startTime;
+        if (elapsed > 0) {
+            stats.add("commandsPerSecond", numReplayedCommands * 1000f
+                    / elapsed);
+        }
+        return stats;
+    }
+
+    /**
+     * Replays the records of the journal one by one, so the updates of an
+     * index are applied in the order they were accepted.
+     */
+    private class Drainer implements Runnable {
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    final UpdateJournal current = journal;
+                    final UpdateJournal.Record record = current == null ? null
+                            : current.poll(1000);
+                    if (record == null) {
+                        continue;
+                    }
+                    if (replay(record)) {
+                        current.commit(record);
+                    }
+                } catch (final InterruptedException e) {
+                    // stopping
+                } catch (final Exception e) {
+                    logger.error("Failed to replay the journal.", e);
+                    sleep(retryInterval.millis());
+                }
+            }
+        }
+
+        /**
+         * @return true if the record was processed, false if stopping
+         */
+        private boolean replay(final UpdateJournal.Record record)
+                throws InterruptedException {
+            long interval = retryInterval.millis();
+            int retries = 0;
+            while (running) {
+                final BulkIndexer.Result result;
+                final UpdateParams params;
+                try {
+                    final JavaBinUpdateReader reader = new JavaBinUpdateReader(
+                            new ByteArrayInputStream(record.getData()),
+                            fieldNamePool);
+                    params = getParams(reader.getUpdateRequest().getParams());
+                    final PlainActionFuture<BulkIndexer.Result> future = PlainActionFuture
+                            .newFuture();
+                    new BulkIndexer(client, requestFactory, params, reader,
+                            future).bulkActions(bulkActions).start();
+                    result = future.actionGet();
+                } catch (final IOException e) {
+                    logger.error("Discarded an unreadable update record.", e);
+                    numReplayFailed++;
+                    return true;
+                }
+
+                if (result.getNumRejected() > 0 && retries < maxRetries) {
+                    // the cluster is busy
+                    retries++;
+                    numRetries++;
+                    logger.debug("Retrying an update record in {}ms: {}",
+                            interval, result.getFailureMessage());
+                    Thread.sleep(interval);
+                    interval = Math.min(interval * 2,
+                            maxRetryInterval.millis());
+                    continue;
+                }
+
+                numReplayed++;
+                numReplayedCommands += result.getNumCommands();
+                if (result.hasFailures()) {
+                    numReplayFailed++;
+                    logger.error("Failed to replay an update record"
+                            + " after {} retries: {}", retries,
+                            result.getFailureMessage());
+                } else if (result.isCommit() && commitAsFlush) {
+                    try {
+                        client.admin().indices()
+                                .flush(new FlushRequest(params.getIndex()))
+                                .actionGet();
+                    } catch (final ElasticsearchException e) {
+                        logger.error("Failed to commit indices.", e);
+                    }
+                } else if (result.isOptimize() && optimizeAsOptimize) {
+                    try {
+                        client.admin().indices()
+                                .optimize(new OptimizeRequest(params.getIndex()))
+                                .actionGet();
+                    } catch (final ElasticsearchException e) {
+                        logger.error("Failed to optimize indices.", e);
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private void sleep(final long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (final InterruptedException e) {
+                // stopping
+            }
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse.Failure;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.deletebyquery.DeleteByQueryRequest;
+import org.elasticsearch.action.deletebyquery.DeleteByQueryResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Indexes the commands of an {@link UpdateReader} in bulk requests of a
+ * bounded size. Commands are read only when a bulk request can be sent, so
+ * the number of decoded documents in memory is bounded by bulkActions *
+ * concurrency.
+ *
+ * With prefetch enabled, the commands of the next bulk request are read while
+ * the previous one is executed, so decoding the content overlaps indexing
+ * without changing the order of the bulk requests.
+ *
+ * Delete-by-query requests are sent after all bulk requests complete, and
+ * commit and optimize commands are reported in the {@link Result} so that the
+ * caller can execute them at the end.
+ */
+public class BulkIndexer {
+
+    private static final ESLogger logger = Loggers.getLogger(BulkIndexer.class);
+
+    private final Client client;
+
+    private final IndexRequestFactory requestFactory;
+
+    private final UpdateParams params;
+
+    private final UpdateReader reader;
+
+    private final ActionListener<Result> listener;
+
+    private int bulkActions = 1000;
+
+    private int concurrency = 1;
+
+    private Executor executor;
+
+    private boolean prefetch = false;
+
+    private BulkRequest prefetched;
+
+    private final Object readLock = new Object();
+
+    private final List<DeleteByQueryRequest> deleteQueryList = new ArrayList<DeleteByQueryRequest>();
+
+    private final AtomicLong numCommands = new AtomicLong();
+
+    private final AtomicLong numSucceeded = new AtomicLong();
+
+    private final AtomicLong numFailed = new AtomicLong();
+
+    private final AtomicLong numRejected = new AtomicLong();
+
+    private int inFlight = 0;
+
+    private boolean exhausted = false;
+
+    private boolean finished = false;
+
+    private boolean commit = false;
+
+    private boolean optimize = false;
+
+    private StringBuilder failureBuf;
+
+    public BulkIndexer(final Client client,
+            final IndexRequestFactory requestFactory,
+            final UpdateParams params, final UpdateReader reader,
+            final ActionListener<Result> listener) {
+        this.client = client;
+        this.requestFactory = requestFactory;
+        this.params = params;
+        this.reader = reader;
+        this.listener = listener;
+    }
+
+    /**
+     * @param bulkActions
+     *            the maximum number of actions in a bulk request
+     * @return this indexer
+     */
+    public BulkIndexer bulkActions(final int bulkActions) {
+        this.bulkActions = Math.max(1, bulkActions);
+        return this;
+    }
+
+    /**
+     * @param concurrency
+     *            the maximum number of bulk requests executed at the same time
+     * @return this indexer
+     */
+    public BulkIndexer concurrency(final int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    /**
+     * @param prefetch
+     *            true if the next bulk request is read while the previous one
+     *            is executed
+     * @return this indexer
+     */
+    public BulkIndexer prefetch(final boolean prefetch) {
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    /**
+     * @param executor
+     *            the executor reading the next commands after a bulk request
+     *            completes. If null, they are read on the listener thread.
+     * @return this indexer
+     */
+    public BulkIndexer executor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Starts indexing. The commands for the first bulk requests are read on
+     * the calling thread.
+     */
+    public void start() {
+        for (int i = 0; i < concurrency; i++) {
+            if (!sendNext()) {
+                break;
+            }
+        }
+        checkFinished();
+    }
+
+    /**
+     * @return the number of commands read so far
+     */
+    public long getNumCommands() {
+        return numCommands.get();
+    }
+
+    /**
+     * @return the number of bulk items that succeeded so far
+     */
+    public long getNumSucceeded() {
+        return numSucceeded.get();
+    }
+
+    /**
+     * @return the number of bulk items that failed so far
+     */
+    public long getNumFailed() {
+        return numFailed.get();
+    }
+
+    /**
+     * Reads the next commands and sends them as a bulk request.
+     *
+     * @return true if a bulk request was sent
+     */
+    private boolean sendNext() {
+        final BulkRequest bulkRequest;
+        synchronized (readLock) {
+            if (prefetched != null) {
+                bulkRequest = prefetched;
+                prefetched = null;
+            } else {
+                bulkRequest = readNext();
+                if (bulkRequest == null) {
+                    return false;
+                }
+            }
+            inFlight++;
+        }
+
+        client.bulk(bulkRequest,
+                new BulkListener(bulkRequest.numberOfActions()));
+
+        if (prefetch) {
+            synchronized (readLock) {
+                if (prefetched == null) {
+                    prefetched = readNext();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the commands of the next bulk request. The caller must hold
+     * readLock.
+     *
+     * @return the bulk request, or null if there is no more index or delete
+     *         command
+     */
+    private BulkRequest readNext() {
+        if (exhausted) {
+            return null;
+        }
+        final BulkRequest bulkRequest = Requests.bulkRequest();
+        // read the next commands on the listener thread pool
+        bulkRequest.listenerThreaded(true);
+        try {
+            while (bulkRequest.numberOfActions() < bulkActions) {
+                final UpdateCommand command = reader.next();
+                if (command == null) {
+                    exhausted = true;
+                    break;
+                }
+                numCommands.incrementAndGet();
+                switch (command.getType()) {
+                case ADD:
+                    bulkRequest.add(requestFactory.createIndexRequest(
+                            command.getDocument(), params));
+                    break;
+                case DELETE_BY_ID:
+                    bulkRequest.add(requestFactory.createDeleteRequest(
+                            command.getValue(), params));
+                    break;
+                case DELETE_BY_QUERY:
+                    deleteQueryList.add(requestFactory
+                            .createDeleteByQueryRequest(
+                                    command.getValue(), params));
+                    break;
+                case COMMIT:
+                    commit = true;
+                    break;
+                case OPTIMIZE:
+                    optimize = true;
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (final Exception e) {
+            logger.error("Error processing update content", e);
+            exhausted = true;
+            addFailure(e.getMessage() == null ? e.getClass().getName() : e
+                    .getMessage());
+            return null;
+        }
+        if (bulkRequest.numberOfActions() == 0) {
+            return null;
+        }
+        requestFactory.invalidateResults(params);
+        return bulkRequest;
+    }
+
+    private void sendNextOrFinish() {
+        if (!sendNext()) {
+            checkFinished();
+        }
+    }
+
+    private void checkFinished() {
+        synchronized (readLock) {
+            if (finished || inFlight > 0 || !exhausted || prefetched != null) {
+                return;
+            }
+            finished = true;
+        }
+
+        try {
+            reader.close();
+        } catch (final IOException e) {
+            logger.warn("Failed to close an update reader.", e);
+        }
+
+        if (failureBuf == null && !deleteQueryList.isEmpty()) {
+            deleteByQueries();
+        } else {
+            notifyListener();
+        }
+    }
+
+    private void deleteByQueries() {
+        requestFactory.invalidateResults(params);
+        final AtomicInteger counter = new AtomicInteger(deleteQueryList.size());
+        for (final DeleteByQueryRequest deleteQueryRequest : deleteQueryList) {
+            client.deleteByQuery(deleteQueryRequest,
+                    new ActionListener<DeleteByQueryResponse>() {
+
+                        @Override
+                        public void onResponse(
+                                final DeleteByQueryResponse response) {
+                            if (counter.decrementAndGet() == 0) {
+                                notifyListener();
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(final Throwable t) {
+                            logger.error("DeleteByQuery request failed", t);
+                            addFailure(t.getMessage());
+                            if (counter.decrementAndGet() == 0) {
+                                notifyListener();
+                            }
+                        }
+                    });
+        }
+    }
+
+    private void notifyListener() {
+        requestFactory.invalidateResults(params);
+        final String failureMsg;
+        synchronized (readLock) {
+            failureMsg = failureBuf == null ? null : failureBuf.toString();
+        }
+        listener.onResponse(new Result(numCommands.get(), numSucceeded.get(),
+                numFailed.get(), numRejected.get(), failureMsg, commit,
+                optimize));
+    }
+
+    private void addFailure(final String msg) {
+        synchronized (readLock) {
+            if (failureBuf == null) {
+                failureBuf = new StringBuilder();
+            }
+            failureBuf.append(msg).append('\n');
+        }
+    }
+
+    private class BulkListener implements ActionListener<BulkResponse> {
+
+        private final int numActions;
+
+        BulkListener(final int numActions) {
+            this.numActions = numActions;
+        }
+
+        @Override
+        public void onResponse(final BulkResponse response) {
+            for (final BulkItemResponse itemResponse : response) {
+                final Failure failure = itemResponse.getFailure();
+                if (failure != null) {
+                    numFailed.incrementAndGet();
+                    if (failure.getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                        numRejected.incrementAndGet();
+                    }
+                    addFailure("Index request failed {index:"
+                            + failure.getIndex() + ", type:"
+                            + failure.getType() + ", id:" + failure.getId()
+                            + ", reason:" + failure.getMessage() + "}");
+                } else {
+                    numSucceeded.incrementAndGet();
+                }
+            }
+            completed();
+        }
+
+        @Override
+        public void onFailure(final Throwable e) {
+            logger.error("Bulk request failed", e);
+            numFailed.addAndGet(numActions);
+            if (isRejected(e)) {
+                numRejected.addAndGet(numActions);
+            }
+            addFailure(e.getMessage());
+            synchronized (readLock) {
+                // stop reading the content
+                exhausted = true;
+                prefetched = null;
+            }
+            completed();
+        }
+
+        /**
+         * @return true if the cluster rejected the request because it is
+         *         busy, so sending it again later can succeed
+         */
+        private boolean isRejected(final Throwable e) {
+            final Throwable cause = ExceptionsHelper.unwrapCause(e);
+            final RestStatus status = ExceptionsHelper.status(cause);
+            return cause instanceof EsRejectedExecutionException
+                    || status == RestStatus.TOO_MANY_REQUESTS;
+        }
+
+        private void completed() {
+            synchronized (readLock) {
+                inFlight--;
+            }
+            if (executor == null) {
+                sendNextOrFinish();
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendNextOrFinish();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * The result of the indexing.
+     */
+    public static class Result {
+
+        private final long numCommands;
+
+        private final long numSucceeded;
+
+        private final long numFailed;
+
+        private final long numRejected;
+
+        private final String failureMessage;
+
+        private final boolean commit;
+
+        private final boolean optimize;
+
+        Result(final long numCommands, final long numSucceeded,
+                final long numFailed, final long numRejected,
+                final String failureMessage, final boolean commit,
+                final boolean optimize) {
+            this.numCommands = numCommands;
+            this.numSucceeded = numSucceeded;
+            this.numFailed = numFailed;
+            this.numRejected = numRejected;
+            this.failureMessage = failureMessage;
+            this.commit = commit;
+            this.optimize = optimize;
+        }
+
+        public long getNumCommands() {
+            return numCommands;
+        }
+
+        public long getNumSucceeded() {
+            return numSucceeded;
+        }
+
+        public long getNumFailed() {
+            return numFailed;
+        }
+
+        /**
+         * @return the number of failed items that were rejected by the
+         *         cluster because it was busy, as items or as a whole bulk
+         *         request. Sending them again may succeed.
+         */
+        public long getNumRejected() {
+            return numRejected;
+        }
+
+        /**
+         * @return the failure messages, or null if all commands succeeded
+         */
+        public String getFailureMessage() {
+            return failureMessage;
+        }
+
+        public boolean hasFailures() {
+            return failureMessage != null;
+        }
+
+        /**
+         * @return true if the content contained a commit command
+         */
+        public boolean isCommit() {
+            return commit;
+        }
+
+        /**
+         * @return true if the content contained an optimize command
+         */
+        public boolean isOptimize() {
+            return optimize;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codelibs.elasticsearch.solr.index.mapper.MappingView;
+import org.codelibs.elasticsearch.solr.rest.ExtendedRestRequest;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Reads Solr CSV update content row by row. This is a port of the parameters
+ * supported by Solr's CSV update handler:
+ *
+ * <ul>
+ * <li>separator - the field separator, default ","</li>
+ * <li>encapsulator - the character used to quote values, default '"'</li>
+ * <li>header - true if the first line contains the field names</li>
+ * <li>fieldnames - comma separated field names, overriding the header</li>
+ * <li>skip - comma separated field names that are not indexed</li>
+ * <li>skipLines - the number of lines to discard before the header</li>
+ * <li>trim - trims leading and trailing whitespace from values</li>
+ * <li>keepEmpty - keeps empty values</li>
+ * <li>split, f.&lt;field&gt;.split - splits a value into multiple values</li>
+ * <li>f.&lt;field&gt;.separator - the separator used when splitting</li>
+ * </ul>
+ *
+ * Values are converted by the target type mapping, so numeric and boolean
+ * columns are sent to Elasticsearch with their mapped types.
+ */
+public class CSVUpdateReader implements UpdateReader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private int bufferPos = 0;
+
+    private int bufferLength = 0;
+
+    private boolean eof = false;
+
+    private final char separator;
+
+    private final char encapsulator;
+
+    private final boolean trim;
+
+    private final boolean keepEmpty;
+
+    private final MappingView mappingView;
+
+    private final FieldNamePool fieldNamePool;
+
+    private String[] fieldNames;
+
+    private FieldOption[] fieldOptions;
+
+    private final List<String> values = new ArrayList<String>();
+
+    private final StringBuilder valueBuf = new StringBuilder(64);
+
+    private int lineNumber = 0;
+
+    public CSVUpdateReader(final Reader reader, final RestRequest request,
+            final MappingView mappingView, final FieldNamePool fieldNamePool)
+            throws IOException {
+        this.reader = reader;
+        this.mappingView = mappingView;
+        this.fieldNamePool = fieldNamePool;
+
+        separator = ExtendedRestRequest.paramAsChar(request, "separator", ',');
+        encapsulator = ExtendedRestRequest.paramAsChar(request,
+                "encapsulator", '"');
+        trim = request.paramAsBoolean("trim", false);
+        keepEmpty = request.paramAsBoolean("keepEmpty", false);
+
+        final int skipLines = request.paramAsInt("skipLines", 0);
+        for (int i = 0; i < skipLines; i++) {
+            if (!readRecord()) {
+                break;
+            }
+        }
+
+        final boolean header = request.paramAsBoolean("header", true);
+        final String fieldnames = request.param("fieldnames");
+        if (header) {
+            if (!readRecord()) {
+                fieldNames = Strings.EMPTY_ARRAY;
+            } else if (fieldnames == null) {
+                fieldNames = values.toArray(new String[values.size()]);
+            }
+        }
+        if (fieldnames != null) {
+            fieldNames = Strings.splitStringByCommaToArray(fieldnames);
+        }
+        if (fieldNames == null) {
+            throw new ElasticsearchParseException(
+                    "fieldnames must be specified when header=false");
+        }
+
+        final Set<String> skipFields = new HashSet<String>();
+        for (final String skip : Strings.splitStringByCommaToArray(request
+                .param("skip"))) {
+            skipFields.add(skip.trim());
+        }
+
+        final boolean split = request.paramAsBoolean("split", false);
+        fieldOptions = new FieldOption[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            final String name = fieldNamePool.name(fieldNames[i].trim());
+            fieldNames[i] = name;
+            if (name.isEmpty() || skipFields.contains(name)) {
+                continue;
+            }
+            final FieldOption option = new FieldOption();
+            option.split = request.paramAsBoolean("f." + name + ".split",
+                    split);
+            option.separator = ExtendedRestRequest.paramAsChar(request, "f."
+                    + name + ".separator", ',');
+            fieldOptions[i] = option;
+        }
+    }
+
+    /**
+     * Reads the next row as an add command.
+     *
+     * @return the add command, or null at the end of the content
+     * @throws IOException
+     */
+    @Override
+    public UpdateCommand next() throws IOException {
+        while (readRecord()) {
+            if (values.size() == 1 && values.get(0).isEmpty()) {
+                // blank line
+                continue;
+            }
+            if (values.size() > fieldNames.length) {
+                throw new ElasticsearchParseException("Line " + lineNumber
+                        + " has " + values.size() + " values, but "
+                        + fieldNames.length + " fields are defined");
+            }
+
+            final Map<String, Object> doc = new HashMap<String, Object>(
+                    fieldNames.length * 2);
+            for (int i = 0; i < values.size(); i++) {
+                final FieldOption option = fieldOptions[i];
+                if (option == null) {
+                    continue;
+                }
+                final String name = fieldNames[i];
+                final String value = trim ? values.get(i).trim() : values
+                        .get(i);
+                if (option.split) {
+                    final List<Object> list = new ArrayList<Object>();
+                    int start = 0;
+                    int end;
+                    while ((end = value.indexOf(option.separator, start)) >= 0) {
+                        addValue(list, name, value.substring(start, end));
+                        start = end + 1;
+                    }
+                    addValue(list, name, value.substring(start));
+                    if (list.size() == 1) {
+                        doc.put(name, list.get(0));
+                    } else if (!list.isEmpty()) {
+                        doc.put(name, list);
+                    }
+                } else if (keepEmpty || !value.isEmpty()) {
+                    doc.put(name, mappingView.convertValue(name, value));
+                }
+            }
+            return UpdateCommand.add(doc);
+        }
+        return null;
+    }
+
+    private void addValue(final List<Object> list, final String name,
+            final String value) {
+        final String v = trim ? value.trim() : value;
+        if (keepEmpty || !v.isEmpty()) {
+            list.add(mappingView.convertValue(name, v));
+        }
+    }
+
+    private int read() throws IOException {
+        if (bufferPos >= bufferLength) {
+            if (eof) {
+                return -1;
+            }
+            bufferLength = reader.read(buffer, 0, buffer.length);
+            bufferPos = 0;
+            if (bufferLength <= 0) {
+                eof = true;
+                bufferLength = 0;
+                return -1;
+            }
+        }
+        return buffer[bufferPos++];
+    }
+
+    private void unread() {
+        bufferPos--;
+    }
+
+    /**
+     * Reads one record into values.
+     *
+     * @return false if no more records exist
+     * @throws IOException
+     */
+    private boolean readRecord() throws IOException {
+        values.clear();
+        valueBuf.setLength(0);
+
+        int c = read();
+        if (c == -1) {
+            return false;
+        }
+        lineNumber++;
+
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new ElasticsearchParseException(
+                            "Unterminated encapsulated value at line "
+                                    + lineNumber);
+                } else if (c == encapsulator) {
+                    final int next = read();
+                    if (next == encapsulator) {
+                        valueBuf.append((char) c);
+                    } else {
+                        quoted = false;
+                        c = next;
+                        continue;
+                    }
+                } else {
+                    if (c == '\n') {
+                        lineNumber++;
+                    }
+                    valueBuf.append((char) c);
+                }
+            } else if (c == -1 || c == '\n') {
+                values.add(getValue());
+                return true;
+            } else if (c == '\r') {
+                if (read() != '\n' && !eof) {
+                    unread();
+                }
+                values.add(getValue());
+                return true;
+            } else if (c == separator) {
+                values.add(getValue());
+                valueBuf.setLength(0);
+            } else if (c == encapsulator && valueBuf.length() == 0) {
+                quoted = true;
+            } else {
+                valueBuf.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    private String getValue() {
+        final int index = values.size();
+        if (fieldNames != null && index < fieldNames.length) {
+            return fieldNamePool.value(fieldNames[index], valueBuf);
+        }
+        return valueBuf.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static class FieldOption {
+        boolean split;
+
+        char separator;
+    }
+}
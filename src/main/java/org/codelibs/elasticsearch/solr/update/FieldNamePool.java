@@ -0,0 +1,95 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+
+/**
+ * Shares the field names of decoded update documents. Values of the fields in
+ * solr.fieldValuePool.fields, such as categories or status codes, are shared
+ * in the same way.
+ */
+public class FieldNamePool extends AbstractComponent {
+
+    private final StringPool namePool;
+
+    private final StringPool valuePool;
+
+    private final Set<String> valueFields;
+
+    @Inject
+    public FieldNamePool(final Settings settings) {
+        super(settings);
+
+        namePool = new StringPool(settings.getAsInt("solr.fieldNamePool.size",
+                1024), settings.getAsInt("solr.fieldNamePool.maxLength", 128));
+
+        valueFields = new HashSet<String>(Arrays.asList(settings.getAsArray(
+                "solr.fieldValuePool.fields", new String[0])));
+        valuePool = valueFields.isEmpty() ? null : new StringPool(
+                settings.getAsInt("solr.fieldValuePool.size", 4096),
+                settings.getAsInt("solr.fieldValuePool.maxLength", 64));
+    }
+
+    /**
+     * @param name
+     *            the field name
+     * @return the shared instance of the field name
+     */
+    public String name(final CharSequence name) {
+        return namePool.get(name);
+    }
+
+    /**
+     * @param name
+     *            the field name
+     * @return true if the values of the field are shared
+     */
+    public boolean isPooledValue(final String name) {
+        return valuePool != null && valueFields.contains(name);
+    }
+
+    /**
+     * Returns the value of a field. The value is shared if the field is in
+     * solr.fieldValuePool.fields.
+     *
+     * @param name
+     *            the field name
+     * @param value
+     *            the field value
+     * @return the value
+     */
+    public String value(final String name, final CharSequence value) {
+        if (isPooledValue(name)) {
+            return valuePool.get(value);
+        }
+        return value.toString();
+    }
+
+    /**
+     * @return the statistics of the pools
+     */
+    public NamedList<Object> getStats() {
+        final NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("names", getStats(namePool));
+        if (valuePool != null) {
+            stats.add("values", getStats(valuePool));
+        }
+        return stats;
+    }
+
+    private static NamedList<Object> getStats(final StringPool pool) {
+        final NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        stats.add("size", pool.getSize());
+        stats.add("hits", pool.getHits());
+        stats.add("misses", pool.getMisses());
+        stats.add("hitRate", pool.getHitRate());
+        return stats;
+    }
+}
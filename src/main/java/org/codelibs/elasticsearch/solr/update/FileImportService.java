@@ -0,0 +1,407 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import javax.xml.stream.XMLInputFactory;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.codelibs.elasticsearch.solr.SolrPluginConstants;
+import org.codelibs.elasticsearch.solr.index.mapper.FieldTypeResolver;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.flush.FlushRequest;
+import org.elasticsearch.action.admin.indices.flush.FlushResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Imports Solr update files on the local file system (stream.file or
+ * stream.url=file://...). A file is read as a stream and its documents are
+ * indexed by several bulk requests in parallel. Only files in the directories
+ * of solr.streamFile.allowedDirs can be imported, and the import is disabled
+ * if no directory is configured.
+ *
+ * Imports run in the background, and their progress is kept on the node that
+ * received the request.
+ */
+public class FileImportService extends AbstractComponent {
+
+    private static final int MAX_FINISHED_TASKS = 100;
+
+    private final Client client;
+
+    private final ThreadPool threadPool;
+
+    private final IndexRequestFactory requestFactory;
+
+    private final FieldTypeResolver fieldTypeResolver;
+
+    private final FieldNamePool fieldNamePool;
+
+    private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+    private final Path[] allowedDirs;
+
+    private final int concurrency;
+
+    private final int bulkActions;
+
+    private final boolean bulkPrefetch;
+
+    private final boolean commitAsFlush;
+
+    private final ConcurrentMap<String, ImportTask> taskMap = ConcurrentCollections
+            .newConcurrentMap();
+
+    @Inject
+    public FileImportService(final Settings settings, final Client client,
+            final ThreadPool threadPool,
+            final IndexRequestFactory requestFactory,
+            final FieldTypeResolver fieldTypeResolver,
+            final FieldNamePool fieldNamePool) {
+        super(settings);
+        this.client = client;
+        this.threadPool = threadPool;
+        this.requestFactory = requestFactory;
+        this.fieldTypeResolver = fieldTypeResolver;
+        this.fieldNamePool = fieldNamePool;
+
+        final String[] dirs = settings.getAsArray("solr.streamFile.allowedDirs");
+        final List<Path> dirList = new ArrayList<Path>(dirs.length);
+        for (final String dir : dirs) {
+            try {
+                dirList.add(Paths.get(dir).toRealPath());
+            } catch (final IOException e) {
+                logger.warn("Invalid solr.streamFile.allowedDirs: {}", e, dir);
+            }
+        }
+        allowedDirs = dirList.toArray(new Path[dirList.size()]);
+        concurrency = settings.getAsInt("solr.streamFile.concurrency", Math
+                .max(1, Runtime.getRuntime().availableProcessors() / 2));
+        bulkActions = settings.getAsInt("solr.streamFile.bulkActions",
+                settings.getAsInt("solr.bulkActions", 1000));
+        bulkPrefetch = settings.getAsBoolean("solr.bulkPrefetch", true);
+        commitAsFlush = settings.getAsBoolean("solr.commitAsFlush", true);
+    }
+
+    /**
+     * Returns the local file given by stream.file or stream.url.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @return the file path, or null if the request has no local file
+     */
+    public static String getStreamFile(final RestRequest request) {
+        final String streamFile = request.param("stream.file");
+        if (streamFile != null) {
+            return streamFile;
+        }
+        final String streamUrl = request.param("stream.url");
+        if (streamUrl != null && streamUrl.startsWith("file:")) {
+            try {
+                return Paths.get(new URI(streamUrl)).toString();
+            } catch (final URISyntaxException e) {
+                throw new ElasticsearchIllegalArgumentException(
+                        "Invalid stream.url: " + streamUrl, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts importing the local file of the request in the background.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @param streamFile
+     *            the local file to import
+     * @return the import task
+     */
+    public ImportTask startImport(final RestRequest request,
+            final String streamFile) {
+        if (allowedDirs.length == 0) {
+            throw new ElasticsearchIllegalArgumentException(
+                    "stream.file is disabled. Set solr.streamFile.allowedDirs to enable it.");
+        }
+
+        final Path path;
+        try {
+            path = Paths.get(streamFile).toRealPath();
+        } catch (final IOException e) {
+            throw new ElasticsearchIllegalArgumentException(
+                    "Cannot read " + streamFile, e);
+        }
+        if (!isAllowed(path) || !Files.isRegularFile(path)) {
+            throw new ElasticsearchIllegalArgumentException(streamFile
+                    + " is not a file in solr.streamFile.allowedDirs.");
+        }
+
+        final String format = getFormat(request, path);
+        final UpdateParams params = requestFactory.createParams(request);
+        final ImportTask task = new ImportTask(UUID.randomUUID().toString(),
+                path, format);
+        final boolean commit = request.paramAsBoolean("commit", false);
+        final Executor executor = threadPool.executor(ThreadPool.Names.GENERIC);
+
+        removeFinishedTasks();
+        taskMap.put(task.getId(), task);
+        logger.info("Importing {} as {} into {}/{}", path, format,
+                params.getIndex(), params.getType());
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final UpdateReader reader = createReader(request, params,
+                            task, format);
+                    final BulkIndexer indexer = new BulkIndexer(client,
+                            requestFactory, params, reader,
+                            new ActionListener<BulkIndexer.Result>() {
+                                @Override
+                                public void onResponse(
+                                        final BulkIndexer.Result result) {
+                                    if (result.hasFailures()) {
+                                        task.finish(result.getFailureMessage());
+                                    } else if (commitAsFlush
+                                            && (commit || result.isCommit())) {
+                                        flush(task, params.getIndex());
+                                    } else {
+                                        task.finish(null);
+                                    }
+                                }
+
+                                @Override
+                                public void onFailure(final Throwable e) {
+                                    task.finish(e.getMessage());
+                                }
+                            }).bulkActions(bulkActions)
+                            .concurrency(concurrency).prefetch(bulkPrefetch)
+                            .executor(executor);
+                    task.indexer = indexer;
+                    indexer.start();
+                } catch (final Exception e) {
+                    logger.error("Failed to import {}", e, task.getPath());
+                    task.finish(e.getMessage());
+                }
+            }
+        });
+
+        return task;
+    }
+
+    private void flush(final ImportTask task, final String index) {
+        client.admin().indices()
+                .flush(new FlushRequest(index), new ActionListener<FlushResponse>() {
+                    @Override
+                    public void onResponse(final FlushResponse response) {
+                        task.finish(null);
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable t) {
+                        logger.error("Failed to commit indices.", t);
+                        task.finish(t.getMessage());
+                    }
+                });
+    }
+
+    private boolean isAllowed(final Path path) {
+        for (final Path dir : allowedDirs) {
+            if (path.startsWith(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getFormat(final RestRequest request, final Path path) {
+        final String contentType = request.param("stream.contentType");
+        if (contentType != null) {
+            if (contentType.indexOf("javabin") >= 0) {
+                return SolrPluginConstants.JAVABIN_FORMAT_TYPE;
+            } else if (contentType.indexOf("csv") >= 0) {
+                return SolrPluginConstants.CSV_FORMAT_TYPE;
+            }
+            return SolrPluginConstants.XML_FORMAT_TYPE;
+        }
+
+        final String name = path.getFileName().toString()
+                .toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) {
+            return SolrPluginConstants.CSV_FORMAT_TYPE;
+        } else if (name.endsWith(".javabin") || name.endsWith(".bin")) {
+            return SolrPluginConstants.JAVABIN_FORMAT_TYPE;
+        }
+        return SolrPluginConstants.XML_FORMAT_TYPE;
+    }
+
+    private UpdateReader createReader(final RestRequest request,
+            final UpdateParams params, final ImportTask task,
+            final String format) throws IOException {
+        final InputStream in = task.open();
+        if (SolrPluginConstants.JAVABIN_FORMAT_TYPE.equals(format)) {
+            // decode the documents one by one instead of the whole file
+            return new JavaBinUpdateReader(in, fieldNamePool,
+                    threadPool.executor(ThreadPool.Names.GENERIC), bulkActions);
+        } else if (SolrPluginConstants.CSV_FORMAT_TYPE.equals(format)) {
+            return new CSVUpdateReader(new InputStreamReader(in,
+                    SolrPluginConstants.CHARSET_UTF8), request,
+                    fieldTypeResolver.getMappingView(params.getIndex(),
+                            params.getType()), fieldNamePool);
+        }
+        return new XMLUpdateReader(inputFactory, in, fieldNamePool);
+    }
+
+    private void removeFinishedTasks() {
+        if (taskMap.size() < MAX_FINISHED_TASKS) {
+            return;
+        }
+        ImportTask oldest = null;
+        for (final ImportTask task : taskMap.values()) {
+            if (task.isFinished()
+                    && (oldest == null || task.startTime < oldest.startTime)) {
+                oldest = task;
+            }
+        }
+        if (oldest != null) {
+            taskMap.remove(oldest.getId());
+        }
+    }
+
+    /**
+     * @param id
+     *            the import id
+     * @return the import task, or null if not found
+     */
+    public ImportTask getTask(final String id) {
+        return taskMap.get(id);
+    }
+
+    /**
+     * @return the progress of all imports
+     */
+    public NamedList<Object> getStatus() {
+        final NamedList<Object> status = new SimpleOrderedMap<Object>();
+        for (final ImportTask task : taskMap.values()) {
+            status.add(task.getId(), task.getStatus());
+        }
+        return status;
+    }
+
+    /**
+     * The progress of an import.
+     */
+    public static class ImportTask {
+
+        private final String id;
+
+        private final Path path;
+
+        private final String format;
+
+        private final long startTime = System.currentTimeMillis();
+
+        private volatile long fileSize;
+
+        private volatile long endTime = 0;
+
+        private volatile String errorMessage;
+
+        private volatile CountingInputStream countingStream;
+
+        private volatile BulkIndexer indexer;
+
+        ImportTask(final String id, final Path path, final String format) {
+            this.id = id;
+            this.path = path;
+            this.format = format;
+        }
+
+        InputStream open() throws IOException {
+            fileSize = Files.size(path);
+            countingStream = new CountingInputStream(Files.newInputStream(path));
+            return new BufferedInputStream(countingStream, 64 * 1024);
+        }
+
+        void finish(final String errorMessage) {
+            this.errorMessage = errorMessage;
+            endTime = System.currentTimeMillis();
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public boolean isFinished() {
+            return endTime > 0;
+        }
+
+        public NamedList<Object> getStatus() {
+            final NamedList<Object> status = new SimpleOrderedMap<Object>();
+            status.add("id", id);
+            status.add("file", path.toString());
+            status.add("format", format);
+            if (!isFinished()) {
+                status.add("status", "running");
+            } else if (errorMessage == null) {
+                status.add("status", "done");
+            } else {
+                status.add("status", "failed");
+                status.add("msg", errorMessage);
+            }
+            status.add("startTime", new Date(startTime));
+            if (isFinished()) {
+                status.add("endTime", new Date(endTime));
+            }
+            final long elapsed = (isFinished() ? endTime : System
+                    .currentTimeMillis()) - startTime;
+            status.add("elapsedTime", elapsed);
+
+            final CountingInputStream stream = countingStream;
+            final long bytesRead = stream == null ? 0 : stream.getCount();
+            status.add("fileSize", fileSize);
+            status.add("bytesRead", bytesRead);
+            status.add("progress", fileSize == 0 ? 0.0f
+                    : (float) bytesRead / fileSize);
+
+            final BulkIndexer bulkIndexer = indexer;
+            if (bulkIndexer != null) {
+                status.add("numCommands", bulkIndexer.getNumCommands());
+                status.add("numSucceeded", bulkIndexer.getNumSucceeded());
+                status.add("numFailed", bulkIndexer.getNumFailed());
+                if (elapsed > 0) {
+                    status.add("docsPerSecond",
+                            bulkIndexer.getNumSucceeded() * 1000f / elapsed);
+                }
+            }
+            return status;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.codec.binary.Hex;
+import org.codelibs.elasticsearch.solr.SolrPluginConstants;
+import org.codelibs.elasticsearch.solr.search.QueryResultCache;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.WriteConsistencyLevel;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.deletebyquery.DeleteByQueryRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.QuerySourceBuilder;
+import org.elasticsearch.action.support.replication.ReplicationType;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Converts Solr update commands into ES index and delete requests.
+ */
+public class IndexRequestFactory extends AbstractComponent {
+
+    // fields in the Solr input document to scan for a document id
+    private static final String[] DEFAULT_ID_FIELDS = { "id", "docid",
+            "documentid", "contentid", "uuid", "url" };
+
+    // Set this flag to false if you want to disable the hashing of id's as they
+    // are provided by the Solr Input document
+    // , which is the default behaviour.
+    // You can configure this by adding 'plugin.diji.MockSolrPlugin.hashIds:
+    // false' to elasticsearch.yml
+    private final boolean hashIds;
+
+    private final String defaultIndexName;
+
+    private final String defaultTypeName;
+
+    private final String[] idFields;
+
+    private final boolean lowercaseExpandedTerms;
+
+    private final boolean autoGeneratePhraseQueries;
+
+    private final QueryResultCache queryResultCache;
+
+    @Inject
+    public IndexRequestFactory(final Settings settings,
+            final QueryResultCache queryResultCache) {
+        super(settings);
+        this.queryResultCache = queryResultCache;
+
+        hashIds = settings.getAsBoolean("solr.hashIds", false);
+        logger.info("Solr input document id's will " + (hashIds ? "" : "not ")
+                + "be hashed to created Elasticsearch document id's");
+
+        defaultIndexName = settings.get("solr.default.index",
+                SolrPluginConstants.DEFAULT_INDEX_NAME);
+        defaultTypeName = settings.get("solr.default.type",
+                SolrPluginConstants.DEFAULT_TYPE_NAME);
+
+        idFields = settings.getAsArray("solr.idFields", DEFAULT_ID_FIELDS);
+
+        lowercaseExpandedTerms = settings.getAsBoolean(
+                "solr.lowercaseExpandedTerms", false);
+        autoGeneratePhraseQueries = settings.getAsBoolean(
+                "solr.autoGeneratePhraseQueries", true);
+    }
+
+    /**
+     * Creates the update parameters of the request, using the default index
+     * and type of the plugin.
+     *
+     * @param request
+     *            the ES rest request
+     * @return the update parameters
+     */
+    public UpdateParams createParams(final RestRequest request) {
+        return UpdateParams.create(request, defaultIndexName, defaultTypeName);
+    }
+
+    /**
+     * Makes the cached search responses of the target index stale. This is
+     * called before and after the requests of the params are executed.
+     *
+     * @param params
+     *            the update parameters
+     */
+    public void invalidateResults(final UpdateParams params) {
+        queryResultCache.invalidate(params.getIndex());
+    }
+
+    /**
+     * Generates an ES DeleteRequest object based on the Solr document id
+     *
+     * @param id
+     *            the Solr document id
+     * @param params
+     *            the update parameters
+     * @return the ES delete request
+     */
+    public DeleteRequest createDeleteRequest(final String id,
+            final UpdateParams params) {
+        // create the delete request object
+        final DeleteRequest deleteRequest = new DeleteRequest(
+                params.getIndex(), params.getType(), getId(id));
+        deleteRequest.parent(params.getParent());
+
+        // TODO: this was causing issues, do we need it?
+        // deleteRequest.version(RestActions.parseVersion(request));
+        // deleteRequest.versionType(VersionType.fromString(request.param("version_type"),
+        // deleteRequest.versionType()));
+
+        deleteRequest.routing(params.getRouting());
+
+        return deleteRequest;
+    }
+
+    // TODO replace with deleting ids with scan/scroll
+    public DeleteByQueryRequest createDeleteByQueryRequest(final String query,
+            final UpdateParams params) {
+        // create the delete request object
+        final DeleteByQueryRequest deleteRequest = Requests
+                .deleteByQueryRequest(params.getIndex());
+        deleteRequest.source(new QuerySourceBuilder()
+                .setQuery(QueryBuilders.queryStringQuery(query)
+                        .lowercaseExpandedTerms(lowercaseExpandedTerms)
+                        .autoGeneratePhraseQueries(autoGeneratePhraseQueries)));
+
+        deleteRequest.routing(params.getRouting());
+
+        return deleteRequest;
+    }
+
+    /**
+     * Converts a Solr document into an ES IndexRequest
+     *
+     * @param doc
+     *            the Solr input document to convert
+     * @param params
+     *            the update parameters
+     * @return the ES index request object
+     */
+    public IndexRequest createIndexRequest(final Map<String, Object> doc,
+            final UpdateParams params) {
+        // Get the id from request or if not available generate an id for the
+        // document
+        final String id = params.getId() != null ? params.getId()
+                : getIdForDoc(doc);
+
+        // create an IndexRequest for this document
+        final IndexRequest indexRequest = new IndexRequest(params.getIndex(),
+                params.getType(), id);
+        indexRequest.routing(params.getRouting());
+        indexRequest.parent(params.getParent());
+        indexRequest.source(doc);
+        indexRequest.timeout(params.getTimeout());
+        if (params.getRefresh() != null) {
+            indexRequest.refresh(params.getRefresh().booleanValue());
+        }
+
+        // TODO: this caused issues, do we need it?
+        // indexRequest.version(RestActions.parseVersion(request));
+        // indexRequest.versionType(VersionType.fromString(request.param("version_type"),
+        // indexRequest.versionType()));
+
+        indexRequest.opType(IndexRequest.OpType.INDEX);
+
+        // TODO: force creation of index, do we need it?
+        // indexRequest.create(true);
+
+        if (params.getReplication() != null) {
+            indexRequest.replicationType(ReplicationType.fromString(params
+                    .getReplication()));
+        }
+
+        if (params.getConsistency() != null) {
+            indexRequest.consistencyLevel(WriteConsistencyLevel
+                    .fromString(params.getConsistency()));
+        }
+
+        // we just send a response, no need to fork
+        indexRequest.listenerThreaded(true);
+
+        // we don't spawn, then fork if local
+        indexRequest.operationThreaded(true);
+
+        return indexRequest;
+    }
+
+    /**
+     * Stores the Solr document id into the "id" field of the document. A
+     * random id is generated if the document has no id, so the document keeps
+     * the same id when it is indexed again.
+     *
+     * @param doc
+     *            the input document
+     */
+    public void assignId(final Map<String, Object> doc) {
+        getIdForDoc(doc);
+    }
+
+    /**
+     * Generates document id. A Solr document id may not be a valid ES id, so we
+     * attempt to find the Solr document id and convert it into a valid ES
+     * document id. We keep the original Solr id so the document can be found
+     * and deleted later if needed.
+     *
+     * We check for Solr document id's in the following fields: id, docid,
+     * documentid, contentid, uuid, url
+     *
+     * If no id is found, we generate a random one.
+     *
+     * @param doc
+     *            the input document
+     * @return the generated document id
+     */
+    private String getIdForDoc(final Map<String, Object> doc) {
+        // start with a random id
+        String id = null;
+
+        // scan the input document for an id
+        for (final String idField : idFields) {
+            if (doc.containsKey(idField)) {
+                id = doc.get(idField).toString();
+                break;
+            }
+        }
+
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+        }
+
+        // always store the id back into the "id" field
+        // so we can get it back in results
+        doc.put("id", id);
+
+        // return the id which is the md5 of either the
+        // random uuid or id found in the input document.
+        return getId(id);
+    }
+
+    /**
+     * Return the given id or a hashed version thereof, based on the plugin
+     * configuration
+     *
+     * @param id
+     * @return
+     */
+    private final String getId(final String id) {
+        return hashIds ? getMD5(id) : id;
+    }
+
+    /**
+     * Calculates the md5 hex digest of the given input string
+     *
+     * @param input
+     *            the string to md5
+     * @return the md5 hex digest
+     */
+    private String getMD5(final String input) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("MD5");
+            final byte[] bytes = input
+                    .getBytes(SolrPluginConstants.CHARSET_UTF8);
+            final byte[] digest = md.digest(bytes);
+            final char[] encodeHex = Hex.encodeHex(digest);
+            return String.valueOf(encodeHex);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new ElasticsearchException("Failed to encode " + input, e);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest.ACTION;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.codelibs.elasticsearch.solr.solr.JavaBinUpdateRequestCodec;
+import org.codelibs.elasticsearch.solr.solr.JavaBinUpdateRequestCodec.StreamingUpdateHandler;
+
+/**
+ * Reads update commands from a JavaBin encoded UpdateRequest.
+ *
+ * By default, the whole UpdateRequest is decoded on the first read. For large
+ * content such as an imported file, the reader can stream the documents: the
+ * content is decoded by a task of an executor, which hands the documents over
+ * through a bounded queue, so at most queueSize decoded documents wait in
+ * memory. The deletes and the commit or optimize action are read after the
+ * documents, as in the default mode.
+ */
+public class JavaBinUpdateReader implements UpdateReader {
+
+    private static final long OFFER_INTERVAL = 100;
+
+    private final InputStream in;
+
+    private final FieldNamePool fieldNamePool;
+
+    private final Executor executor;
+
+    private final int queueSize;
+
+    // the decoded documents, followed by the UpdateRequest or a Throwable
+    private BlockingQueue<Object> queue;
+
+    private volatile boolean closed = false;
+
+    private UpdateRequest updateRequest;
+
+    private Iterator<SolrInputDocument> docIter;
+
+    private Iterator<String> deleteIdIter;
+
+    private Iterator<String> deleteQueryIter;
+
+    private boolean actionRead = false;
+
+    public JavaBinUpdateReader(final InputStream in,
+            final FieldNamePool fieldNamePool) {
+        this(in, fieldNamePool, null, 0);
+    }
+
+    /**
+     * @param in
+     *            the JavaBin content
+     * @param fieldNamePool
+     *            the pool sharing field names
+     * @param executor
+     *            the executor decoding the content, or null to decode the
+     *            whole content on the first read
+     * @param queueSize
+     *            the maximum number of decoded documents not read yet
+     */
+    public JavaBinUpdateReader(final InputStream in,
+            final FieldNamePool fieldNamePool, final Executor executor,
+            final int queueSize) {
+        this.in = in;
+        this.fieldNamePool = fieldNamePool;
+        this.executor = executor;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Returns the UpdateRequest decoded from the content. The content is
+     * decoded on the first call. When the documents are streamed, the request
+     * is available after all documents are read, and has no documents.
+     *
+     * @return the UpdateRequest
+     * @throws IOException
+     */
+    public UpdateRequest getUpdateRequest() throws IOException {
+        if (updateRequest == null) {
+            // We will use the JavaBin codec from solrj
+            // unmarshal the input to a SolrUpdate request
+            final JavaBinUpdateRequestCodec codec = new JavaBinUpdateRequestCodec();
+            setUpdateRequest(codec.unmarshal(in, null));
+        }
+        return updateRequest;
+    }
+
+    private static <T> Iterator<T> iterator(final List<T> list) {
+        if (list == null) {
+            return Collections.<T> emptyList().iterator();
+        }
+        return list.iterator();
+    }
+
+    private void setUpdateRequest(final UpdateRequest req) {
+        updateRequest = req;
+        docIter = iterator(req.getDocuments());
+        deleteIdIter = iterator(req.getDeleteById());
+        deleteQueryIter = iterator(req.getDeleteQuery());
+    }
+
+    @Override
+    public UpdateCommand next() throws IOException {
+        if (executor != null && updateRequest == null) {
+            final SolrInputDocument doc = takeDocument();
+            if (doc != null) {
+                return UpdateCommand.add(convertToMap(doc, fieldNamePool));
+            }
+        }
+
+        final UpdateRequest req = getUpdateRequest();
+
+        // convert the SolrInputDocument into a map which will be used
+        // as the ES source field
+        if (docIter.hasNext()) {
+            return UpdateCommand.add(convertToMap(docIter.next(),
+                    fieldNamePool));
+        }
+
+        // See if we have any documents to delete
+        if (deleteIdIter.hasNext()) {
+            return UpdateCommand.deleteById(deleteIdIter.next());
+        }
+        if (deleteQueryIter.hasNext()) {
+            return UpdateCommand.deleteByQuery(deleteQueryIter.next());
+        }
+
+        if (!actionRead) {
+            actionRead = true;
+            if (req.getAction() == ACTION.COMMIT) {
+                return UpdateCommand.commit();
+            } else if (req.getAction() == ACTION.OPTIMIZE) {
+                return UpdateCommand.optimize();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the next document decoded by the executor. The decoding starts on
+     * the first call.
+     *
+     * @return the document, or null after the last document
+     */
+    private SolrInputDocument takeDocument() throws IOException {
+        if (queue == null) {
+            queue = new ArrayBlockingQueue<Object>(queueSize);
+            executor.execute(new Decoder());
+        }
+
+        final Object value;
+        try {
+            value = queue.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding.");
+        }
+        if (value instanceof SolrInputDocument) {
+            return (SolrInputDocument) value;
+        } else if (value instanceof UpdateRequest) {
+            setUpdateRequest((UpdateRequest) value);
+            return null;
+        }
+        // nothing more is read after a failure
+        setUpdateRequest(new UpdateRequest());
+        throw new IOException("Failed to decode the JavaBin content.",
+                (Throwable) value);
+    }
+
+    /**
+     * Decodes the content and puts the documents into the queue.
+     */
+    private class Decoder implements Runnable, StreamingUpdateHandler {
+
+        @Override
+        public void run() {
+            try {
+                put(new JavaBinUpdateRequestCodec().unmarshal(in, this));
+            } catch (final Throwable t) {
+                if (!closed) {
+                    // the documents not read yet are not indexed
+                    queue.clear();
+                    queue.offer(t);
+                }
+            }
+        }
+
+        @Override
+        public void update(final SolrInputDocument document,
+                final UpdateRequest req) {
+            if (document != null) {
+                put(document);
+            }
+        }
+
+        private void put(final Object value) {
+            try {
+                while (!queue.offer(value, OFFER_INTERVAL,
+                        TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        throw new IllegalStateException(
+                                "The reader is closed.");
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while decoding.",
+                        e);
+            }
+        }
+    }
+
+    /**
+     * Converts a SolrInputDocument into a Map
+     *
+     * @param doc
+     *            the SolrInputDocument to convert
+     * @param fieldNamePool
+     *            the pool sharing field names
+     * @return the input document as a map
+     */
+    public static Map<String, Object> convertToMap(
+            final SolrInputDocument doc, final FieldNamePool fieldNamePool) {
+        // create the Map we will put the fields in
+        final Map<String, Object> newDoc = new HashMap<String, Object>();
+
+        // loop though all the fields and insert them into the map
+        final Collection<SolrInputField> fields = doc.values();
+        if (fields != null) {
+            for (final SolrInputField field : fields) {
+                final String name = fieldNamePool.name(field.getName());
+                final Object value = field.getValue();
+                if (value instanceof String
+                        && fieldNamePool.isPooledValue(name)) {
+                    newDoc.put(name,
+                            fieldNamePool.value(name, (String) value));
+                } else {
+                    newDoc.put(name, value);
+                }
+            }
+        }
+
+        return newDoc;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        in.close();
+    }
+}
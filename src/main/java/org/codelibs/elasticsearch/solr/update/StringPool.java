@@ -0,0 +1,99 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+
+/**
+ * A bounded table of shared String instances. Each string is stored in a slot
+ * chosen by its hash, and a miss replaces the string in the slot, so the table
+ * never grows and needs no lock. Frequent strings stay in the table, and the
+ * decoders get the same instance for equal names instead of new copies.
+ */
+public class StringPool {
+
+    private final AtomicReferenceArray<String> table;
+
+    private final int mask;
+
+    private final int maxLength;
+
+    private final CounterMetric hits = new CounterMetric();
+
+    private final CounterMetric misses = new CounterMetric();
+
+    /**
+     * @param size
+     *            the number of slots, rounded up to a power of two
+     * @param maxLength
+     *            the maximum length of pooled strings
+     */
+    public StringPool(final int size, final int maxLength) {
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        table = new AtomicReferenceArray<String>(capacity);
+        mask = capacity - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Returns the shared instance of the characters. A new String is created
+     * only if the characters are not in the table.
+     *
+     * @param chars
+     *            the characters, such as a String or a StringBuilder
+     * @return the shared instance
+     */
+    public String get(final CharSequence chars) {
+        final int length = chars.length();
+        if (length > maxLength) {
+            misses.inc();
+            return chars.toString();
+        }
+
+        // the same hash as String#hashCode
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        final int index = (hash ^ hash >>> 16) & mask;
+
+        final String cached = table.get(index);
+        if (cached != null && cached.length() == length
+                && cached.contentEquals(chars)) {
+            hits.inc();
+            return cached;
+        }
+
+        misses.inc();
+        final String value = chars.toString();
+        table.lazySet(index, value);
+        return value;
+    }
+
+    public long getHits() {
+        return hits.count();
+    }
+
+    public long getMisses() {
+        return misses.count();
+    }
+
+    /**
+     * @return the ratio of lookups returning a shared instance
+     */
+    public float getHitRate() {
+        final long h = hits.count();
+        final long total = h + misses.count();
+        return total == 0 ? 0f : (float) h / total;
+    }
+
+    /**
+     * @return the number of slots
+     */
+    public int getSize() {
+        return table.length();
+    }
+}
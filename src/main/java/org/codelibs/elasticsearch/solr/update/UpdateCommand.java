@@ -0,0 +1,71 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.util.Map;
+
+/**
+ * A command decoded from Solr update content.
+ */
+public class UpdateCommand {
+
+    public enum Type {
+        ADD, DELETE_BY_ID, DELETE_BY_QUERY, COMMIT, OPTIMIZE
+    }
+
+    private static final UpdateCommand COMMIT = new UpdateCommand(Type.COMMIT,
+            null, null);
+
+    private static final UpdateCommand OPTIMIZE = new UpdateCommand(
+            Type.OPTIMIZE, null, null);
+
+    private final Type type;
+
+    private final Map<String, Object> document;
+
+    private final String value;
+
+    private UpdateCommand(final Type type, final Map<String, Object> document,
+            final String value) {
+        this.type = type;
+        this.document = document;
+        this.value = value;
+    }
+
+    public static UpdateCommand add(final Map<String, Object> document) {
+        return new UpdateCommand(Type.ADD, document, null);
+    }
+
+    public static UpdateCommand deleteById(final String id) {
+        return new UpdateCommand(Type.DELETE_BY_ID, null, id);
+    }
+
+    public static UpdateCommand deleteByQuery(final String query) {
+        return new UpdateCommand(Type.DELETE_BY_QUERY, null, query);
+    }
+
+    public static UpdateCommand commit() {
+        return COMMIT;
+    }
+
+    public static UpdateCommand optimize() {
+        return OPTIMIZE;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the document to add, or null if this is not an add command
+     */
+    public Map<String, Object> getDocument() {
+        return document;
+    }
+
+    /**
+     * @return the id or query to delete, or null if this is not a delete
+     *         command
+     */
+    public String getValue() {
+        return value;
+    }
+}
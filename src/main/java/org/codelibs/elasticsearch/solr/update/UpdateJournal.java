@@ -0,0 +1,520 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+
+/**
+ * A journal of update records stored in memory-mapped segment files of a
+ * fixed size. Records are appended by producers and read in order by a single
+ * consumer, which commits each record after processing it. The position of
+ * the last committed record is kept in a checkpoint file, so uncommitted
+ * records are read again after a restart.
+ *
+ * A record consists of a 16 byte header (length, CRC32 and timestamp) and its
+ * data. The length is written last, so a partially written record is never
+ * read. A record whose data does not match its CRC is skipped by its length
+ * and counted as corrupted. If the length itself is out of the segment, the
+ * rest of the segment cannot be read and is skipped with an error.
+ *
+ * Each segment is mapped once while it exists, and the mapping is released
+ * when the segment is deleted after its records are committed.
+ */
+public class UpdateJournal implements Closeable {
+
+    private static final ESLogger logger = Loggers
+            .getLogger(UpdateJournal.class);
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path dir;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final boolean sync;
+
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<Long, MappedByteBuffer>();
+
+    private final MappedByteBuffer checkpointBuffer;
+
+    private long writeSegment;
+
+    private MappedByteBuffer writeBuffer;
+
+    private int writePos;
+
+    private long readSegment;
+
+    private MappedByteBuffer readBuffer;
+
+    private int readPos;
+
+    private long numPending;
+
+    private long numAppended;
+
+    private long numCommitted;
+
+    private long numCorrupted;
+
+    private boolean closed = false;
+
+    /**
+     * Opens the journal in the directory, recovering the uncommitted records.
+     *
+     * @param dir
+     *            the journal directory
+     * @param segmentSize
+     *            the size of a segment file in bytes
+     * @param maxSegments
+     *            the maximum number of segment files
+     * @param sync
+     *            true if each append and commit is forced to the storage
+     * @throws IOException
+     */
+    public UpdateJournal(final Path dir, final int segmentSize,
+            final int maxSegments, final boolean sync) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(2, maxSegments);
+        this.sync = sync;
+
+        Files.createDirectories(dir);
+        checkpointBuffer = map(dir.resolve(CHECKPOINT_FILE), 12);
+        readSegment = checkpointBuffer.getLong(0);
+        readPos = checkpointBuffer.getInt(8);
+
+        final TreeSet<Long> segmentIds = new TreeSet<Long>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+                final long id = Long.parseLong(name.substring(
+                        SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+                if (id < readSegment) {
+                    // already committed
+                    Files.delete(path);
+                } else {
+                    segmentIds.add(id);
+                }
+            }
+        }
+
+        recover(segmentIds);
+    }
+
+    private void recover(final TreeSet<Long> segmentIds) throws IOException {
+        if (segmentIds.isEmpty()) {
+            writeSegment = readSegment;
+            readPos = 0;
+            return;
+        }
+
+        for (final Long id : segmentIds) {
+            segments.put(id, map(getSegmentPath(id), segmentSize));
+        }
+
+        // append after the last record of the last segment
+        writeSegment = segments.lastKey();
+        writeBuffer = segments.get(writeSegment);
+        writePos = writeSegment == readSegment ? readPos : 0;
+        int length;
+        while ((length = getLength(writeBuffer, writePos)) > 0) {
+            writePos += HEADER_SIZE + length;
+        }
+        if (length < 0) {
+            numCorrupted++;
+            logger.error("Discarded the records after a corrupted header at {}"
+                    + " in segment {} of {}", writePos, writeSegment, dir);
+        }
+        // clear a partially written record
+        if (writePos + 4 <= segmentSize) {
+            writeBuffer.putInt(writePos, 0);
+        }
+
+        numPending = countPending();
+        if (numPending > 0) {
+            logger.info("Recovered {} update records in {}", numPending, dir);
+        }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param data
+     *            the record data
+     * @throws IOException
+     * @throws EsRejectedExecutionException
+     *             if the journal is full
+     */
+    public void append(final byte[] data) throws IOException {
+        if (data.length + HEADER_SIZE > segmentSize) {
+            throw new ElasticsearchIllegalArgumentException("The update of "
+                    + data.length + " bytes exceeds the journal segment size.");
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        final long timestamp = System.currentTimeMillis();
+
+        synchronized (this) {
+            ensureOpen();
+            if (writeBuffer == null
+                    || writePos + HEADER_SIZE + data.length > segmentSize) {
+                if (segments.size() >= maxSegments) {
+                    throw new EsRejectedExecutionException(
+                            "The update journal is full: " + numPending
+                                    + " records are pending.");
+                }
+                rollSegment();
+            }
+
+            writeBuffer.putInt(writePos + 4, (int) crc.getValue());
+            writeBuffer.putLong(writePos + 8, timestamp);
+            final ByteBuffer buffer = writeBuffer.duplicate();
+            buffer.position(writePos + HEADER_SIZE);
+            buffer.put(data);
+            if (writePos + HEADER_SIZE + data.length + 4 <= segmentSize) {
+                // the end mark of the segment
+                writeBuffer.putInt(writePos + HEADER_SIZE + data.length, 0);
+            }
+            writeBuffer.putInt(writePos, data.length);
+            if (sync) {
+                writeBuffer.force();
+            }
+
+            writePos += HEADER_SIZE + data.length;
+            numPending++;
+            numAppended++;
+            notifyAll();
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if (writeBuffer != null) {
+            writeSegment++;
+        }
+        writeBuffer = map(getSegmentPath(writeSegment), segmentSize);
+        writePos = 0;
+        segments.put(writeSegment, writeBuffer);
+    }
+
+    /**
+     * Returns the oldest uncommitted record, waiting for a record if the
+     * journal is empty. The same record is returned until it is committed.
+     *
+     * @param timeout
+     *            the maximum time to wait in milliseconds
+     * @return the record, or null if no record is appended within the timeout
+     * @throws InterruptedException
+     */
+    public synchronized Record poll(final long timeout)
+            throws InterruptedException {
+        Record record = peek();
+        if (record == null && timeout > 0) {
+            wait(timeout);
+            record = peek();
+        }
+        return record;
+    }
+
+    private Record peek() {
+        if (closed) {
+            return null;
+        }
+        while (true) {
+            if (readBuffer == null) {
+                final Map.Entry<Long, MappedByteBuffer> entry = segments
+                        .ceilingEntry(readSegment);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.getKey() != readSegment) {
+                    readSegment = entry.getKey();
+                    readPos = 0;
+                }
+                readBuffer = entry.getValue();
+            }
+
+            final int length = getLength(readBuffer, readPos);
+            if (length > 0) {
+                final byte[] data = readData(readBuffer, readPos, length);
+                if (data != null) {
+                    return new Record(readSegment, readPos,
+                            readBuffer.getLong(readPos + 8), data);
+                }
+                numCorrupted++;
+                numPending--;
+                logger.error("Skipped a corrupted update record at {}"
+                        + " in segment {} of {}", readPos, readSegment, dir);
+                readPos += HEADER_SIZE + length;
+                saveCheckpoint();
+                continue;
+            } else if (length < 0) {
+                // the following records of the segment cannot be found
+                numCorrupted++;
+                if (readSegment == writeSegment) {
+                    logger.error("Skipped the records from {} to {} after a"
+                            + " corrupted header in segment {} of {}",
+                            readPos, writePos, readSegment, dir);
+                    readPos = writePos;
+                } else {
+                    logger.error("Skipped the records after a corrupted"
+                            + " header at {} in segment {} of {}", readPos,
+                            readSegment, dir);
+                    readBuffer = null;
+                    readSegment++;
+                    readPos = 0;
+                }
+                saveCheckpoint();
+                numPending = countPending();
+                continue;
+            }
+
+            // the end of the segment
+            if (segments.higherKey(readSegment) == null) {
+                return null;
+            }
+            readBuffer = null;
+            readSegment++;
+            readPos = 0;
+        }
+    }
+
+    /**
+     * Returns the data length of the record at the position, 0 at the end of
+     * the records in the segment, or -1 if the length is out of the segment.
+     */
+    private int getLength(final MappedByteBuffer buffer, final int pos) {
+        if (pos + HEADER_SIZE > segmentSize) {
+            return 0;
+        }
+        final int length = buffer.getInt(pos);
+        if (length < 0 || length > segmentSize - HEADER_SIZE - pos) {
+            return -1;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the data of the record at the position, or null if the data
+     * does not match the CRC.
+     */
+    private byte[] readData(final MappedByteBuffer buffer, final int pos,
+            final int length) {
+        final byte[] data = new byte[length];
+        final ByteBuffer dataBuffer = buffer.duplicate();
+        dataBuffer.position(pos + HEADER_SIZE);
+        dataBuffer.get(data);
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Counts the records after the read position.
+     */
+    private long countPending() {
+        long count = 0;
+        for (final Map.Entry<Long, MappedByteBuffer> entry : segments.tailMap(
+                readSegment, true).entrySet()) {
+            int pos = entry.getKey() == readSegment ? readPos : 0;
+            int length;
+            while ((length = getLength(entry.getValue(), pos)) > 0) {
+                count++;
+                pos += HEADER_SIZE + length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Marks the record as processed. Segments before the record are deleted.
+     *
+     * @param record
+     *            the record returned by {@link #poll(long)}
+     * @throws IOException
+     */
+    public synchronized void commit(final Record record) throws IOException {
+        if (closed || record.segment != readSegment || record.pos != readPos) {
+            return;
+        }
+
+        readPos += HEADER_SIZE + record.data.length;
+        saveCheckpoint();
+
+        while (!segments.isEmpty() && segments.firstKey() < readSegment) {
+            final Map.Entry<Long, MappedByteBuffer> entry = segments
+                    .pollFirstEntry();
+            unmap(entry.getValue());
+            Files.deleteIfExists(getSegmentPath(entry.getKey()));
+        }
+
+        numPending--;
+        numCommitted++;
+    }
+
+    private void saveCheckpoint() {
+        // the position is written first, so the record is read again rather
+        // than skipped if the process crashes in between
+        checkpointBuffer.putInt(8, readPos);
+        checkpointBuffer.putLong(0, readSegment);
+        if (sync) {
+            checkpointBuffer.force();
+        }
+    }
+
+    public synchronized long getNumPending() {
+        return numPending;
+    }
+
+    public synchronized long getNumAppended() {
+        return numAppended;
+    }
+
+    public synchronized long getNumCommitted() {
+        return numCommitted;
+    }
+
+    /**
+     * @return the number of corrupted records and headers skipped
+     */
+    public synchronized long getNumCorrupted() {
+        return numCorrupted;
+    }
+
+    public synchronized int getNumSegments() {
+        return segments.size();
+    }
+
+    /**
+     * @return the time when the oldest uncommitted record was appended, or 0
+     *         if there is no uncommitted record
+     */
+    public synchronized long getOldestTimestamp() {
+        final Record record = peek();
+        return record == null ? 0 : record.timestamp;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (writeBuffer != null) {
+            writeBuffer.force();
+        }
+        checkpointBuffer.force();
+        writeBuffer = null;
+        readBuffer = null;
+        for (final MappedByteBuffer buffer : segments.values()) {
+            unmap(buffer);
+        }
+        segments.clear();
+        unmap(checkpointBuffer);
+        notifyAll();
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new EsRejectedExecutionException(
+                    "The update journal is closed.");
+        }
+    }
+
+    private Path getSegmentPath(final long id) {
+        return dir.resolve(String.format(Locale.ROOT, "%s%019d%s",
+                SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+
+    private static MappedByteBuffer map(final Path path, final int size)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Releases a mapping without waiting for the buffer to be collected, as
+     * Lucene's MMapDirectory does. The buffer must not be used afterwards.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (final Exception e) {
+            // released by the GC
+            logger.debug("Failed to unmap a journal segment.", e);
+        }
+    }
+
+    /**
+     * A record in the journal.
+     */
+    public static class Record {
+
+        private final long segment;
+
+        private final int pos;
+
+        private final long timestamp;
+
+        private final byte[] data;
+
+        Record(final long segment, final int pos, final long timestamp,
+                final byte[] data) {
+            this.segment = segment;
+            this.pos = pos;
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+
+        /**
+         * @return the time when the record was appended
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
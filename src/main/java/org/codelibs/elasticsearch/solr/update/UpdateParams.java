@@ -0,0 +1,110 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import org.elasticsearch.action.support.replication.ShardReplicationOperationRequest;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * The target and options of update commands, taken from the parameters of an
+ * update request.
+ */
+public class UpdateParams {
+
+    private final String index;
+
+    private final String type;
+
+    private final String id;
+
+    private final String routing;
+
+    private final String parent;
+
+    private final TimeValue timeout;
+
+    private final Boolean refresh;
+
+    private final String replication;
+
+    private final String consistency;
+
+    public UpdateParams(final String index, final String type,
+            final String id, final String routing, final String parent,
+            final TimeValue timeout, final Boolean refresh,
+            final String replication, final String consistency) {
+        this.index = index;
+        this.type = type;
+        this.id = id;
+        this.routing = routing;
+        this.parent = parent;
+        this.timeout = timeout;
+        this.refresh = refresh;
+        this.replication = replication;
+        this.consistency = consistency;
+    }
+
+    /**
+     * Creates the update parameters from a request.
+     *
+     * @param request
+     *            the ES RestRequest
+     * @param defaultIndex
+     *            the index used if the request has no index parameter
+     * @param defaultType
+     *            the type used if the request has no type parameter
+     * @return the update parameters
+     */
+    public static UpdateParams create(final RestRequest request,
+            final String defaultIndex, final String defaultType) {
+        final String refresh = request.param("refresh");
+        return new UpdateParams(request.param("index", defaultIndex),
+                request.param("type", defaultType), request.param("id"),
+                request.param("routing"), request.param("parent"),
+                request.paramAsTime("timeout",
+                        ShardReplicationOperationRequest.DEFAULT_TIMEOUT),
+                refresh == null ? null : Boolean.valueOf(refresh),
+                request.param("replication"), request.param("consistency"));
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the document id given by the request, or null
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getRouting() {
+        return routing;
+    }
+
+    public String getParent() {
+        return parent;
+    }
+
+    public TimeValue getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return the refresh flag given by the request, or null
+     */
+    public Boolean getRefresh() {
+        return refresh;
+    }
+
+    public String getReplication() {
+        return replication;
+    }
+
+    public String getConsistency() {
+        return consistency;
+    }
+}
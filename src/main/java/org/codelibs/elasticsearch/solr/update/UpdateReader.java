@@ -0,0 +1,19 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads update commands from Solr update content one by one.
+ */
+public interface UpdateReader extends Closeable {
+
+    /**
+     * Reads the next command.
+     *
+     * @return the next command, or null at the end of the content
+     * @throws IOException
+     *             if the content cannot be read or decoded
+     */
+    UpdateCommand next() throws IOException;
+}
@@ -0,0 +1,219 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+/**
+ * Reads Solr XML update messages (add, delete, commit and optimize).
+ */
+public class XMLUpdateReader implements UpdateReader {
+
+    private static final ESLogger logger = Loggers
+            .getLogger(XMLUpdateReader.class);
+
+    private final InputStream in;
+
+    private final XMLStreamReader parser;
+
+    private final FieldNamePool fieldNamePool;
+
+    // commands decoded ahead, such as multiple ids in one delete tag
+    private final LinkedList<UpdateCommand> pendingCommands = new LinkedList<UpdateCommand>();
+
+    public XMLUpdateReader(final XMLInputFactory inputFactory,
+            final InputStream in, final FieldNamePool fieldNamePool)
+            throws IOException {
+        this.in = in;
+        this.fieldNamePool = fieldNamePool;
+        try {
+            parser = inputFactory.createXMLStreamReader(in);
+        } catch (final XMLStreamException e) {
+            throw new IOException("Failed to create a xml parser.", e);
+        }
+    }
+
+    @Override
+    public UpdateCommand next() throws IOException {
+        if (!pendingCommands.isEmpty()) {
+            return pendingCommands.removeFirst();
+        }
+
+        try {
+            // parse the xml
+            // we only care about doc and delete tags for now
+            while (true) {
+                // get the xml "event"
+                final int event = parser.next();
+                switch (event) {
+                case XMLStreamConstants.END_DOCUMENT:
+                    // this is the end of the document
+                    return null;
+                case XMLStreamConstants.START_ELEMENT:
+                    // start of an xml tag
+                    // determine if we need to add or delete a document
+                    final String currTag = parser.getLocalName();
+                    if ("doc".equals(currTag)) {
+                        // add a document
+                        final Map<String, Object> doc = parseXmlDoc();
+                        if (doc != null) {
+                            return UpdateCommand.add(doc);
+                        }
+                    } else if ("delete".equals(currTag)) {
+                        // delete a document
+                        parseXmlDelete();
+                        if (!pendingCommands.isEmpty()) {
+                            return pendingCommands.removeFirst();
+                        }
+                    } else if ("commit".equals(currTag)) {
+                        return UpdateCommand.commit();
+                    } else if ("optimize".equals(currTag)) {
+                        return UpdateCommand.optimize();
+                    }
+                    // rollback is not supported at the moment..
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (final XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a SolrXML document into a map of fields
+     *
+     * @return the document as a map
+     * @throws XMLStreamException
+     */
+    private Map<String, Object> parseXmlDoc() throws XMLStreamException {
+        Map<String, Object> doc = new HashMap<String, Object>();
+        final StringBuilder buf = new StringBuilder();
+        String name = null;
+        boolean stop = false;
+        // infinite loop until we are done parsing the document or an error
+        // occurs
+        while (!stop) {
+            final int event = parser.next();
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                buf.setLength(0);
+                final String localName = parser.getLocalName();
+                // we are looking for field elements only
+                if (!"field".equals(localName)) {
+                    logger.warn("unexpected xml tag /doc/" + localName);
+                    doc = null;
+                    stop = true;
+                }
+
+                // get the name attribute of the field
+                for (int i = 0; i < parser.getAttributeCount(); i++) {
+                    if ("name".equals(parser.getAttributeLocalName(i))) {
+                        name = fieldNamePool.name(parser
+                                .getAttributeValue(i));
+                    }
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if ("doc".equals(parser.getLocalName())) {
+                    // we are done parsing the doc
+                    // break out of loop
+                    stop = true;
+                } else if ("field".equals(parser.getLocalName())) {
+                    // put the field value into the map
+                    // handle multiple values by putting them into a list
+                    final Object value = doc.get(name);
+                    if (value instanceof List) {
+                        @SuppressWarnings("unchecked")
+                        final List<String> vals = (List<String>) value;
+                        vals.add(fieldNamePool.value(name, buf));
+                    } else if (value != null) {
+                        final List<String> vals = new ArrayList<String>();
+                        vals.add((String) value);
+                        vals.add(fieldNamePool.value(name, buf));
+                        doc.put(name, vals);
+                    } else {
+                        doc.put(name, fieldNamePool.value(name, buf));
+                    }
+                }
+                break;
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.CHARACTERS:
+                // save all text data
+                buf.append(parser.getText());
+                break;
+            default:
+                break;
+            }
+        }
+
+        // return the parsed doc
+        return doc;
+    }
+
+    /**
+     * Parse the document ids and queries out of the SolrXML delete command
+     *
+     * @throws XMLStreamException
+     */
+    private void parseXmlDelete() throws XMLStreamException {
+        final StringBuilder buf = new StringBuilder();
+        boolean stop = false;
+        // infinite loop until we get docid or error
+        while (!stop) {
+            final int event = parser.next();
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                buf.setLength(0);
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                final String currTag = parser.getLocalName();
+                if ("id".equals(currTag)) {
+                    pendingCommands.add(UpdateCommand.deleteById(buf
+                            .toString()));
+                } else if ("query".equals(currTag)) {
+                    pendingCommands.add(UpdateCommand.deleteByQuery(buf
+                            .toString()));
+                } else if ("delete".equals(currTag)) {
+                    // done parsing, exit loop
+                    stop = true;
+                } else {
+                    logger.warn("unexpected xml tag /delete/" + currTag);
+                }
+                break;
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.CHARACTERS:
+                // save all text data (this is the id)
+                buf.append(parser.getText());
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            parser.close();
+        } catch (final XMLStreamException e) {
+            logger.warn("Failed to close a parser.", e);
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,63 @@
+package org.codelibs.elasticsearch.solr.index.mapper;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class MappingViewTest extends TestCase {
+
+    private final MappingView mappingView = MappingView.create(null,
+            createMapping());
+
+    public void test_convertResponseValue() throws Exception {
+        // the source
+        assertEquals(Integer.valueOf(1),
+                mappingView.convertResponseValue("i", Integer.valueOf(1)));
+        assertEquals(Long.valueOf(1),
+                mappingView.convertResponseValue("l", Integer.valueOf(1)));
+        assertEquals(Float.valueOf(1.5f),
+                mappingView.convertResponseValue("f", Double.valueOf(1.5)));
+
+        // doc values
+        assertEquals(Integer.valueOf(1),
+                mappingView.convertResponseValue("i", Long.valueOf(1)));
+        assertEquals(Integer.valueOf(-2),
+                mappingView.convertResponseValue("s", Long.valueOf(-2)));
+        assertEquals(Integer.valueOf(3),
+                mappingView.convertResponseValue("b", Long.valueOf(3)));
+        assertEquals(Long.valueOf(1),
+                mappingView.convertResponseValue("l", Long.valueOf(1)));
+        assertEquals(new Date(1000L),
+                mappingView.convertResponseValue("d", Long.valueOf(1000)));
+        assertEquals(Arrays.asList(Integer.valueOf(1), Integer.valueOf(2)),
+                mappingView.convertResponseValue("i",
+                        Arrays.asList(Long.valueOf(1), Long.valueOf(2))));
+
+        // unmapped
+        assertEquals(Long.valueOf(1),
+                mappingView.convertResponseValue("x", Long.valueOf(1)));
+    }
+
+    private static Map<String, Object> createMapping() {
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("i", field("integer"));
+        properties.put("s", field("short"));
+        properties.put("b", field("byte"));
+        properties.put("l", field("long"));
+        properties.put("f", field("float"));
+        properties.put("d", field("date"));
+        final Map<String, Object> mapping = new HashMap<String, Object>();
+        mapping.put("properties", properties);
+        return mapping;
+    }
+
+    private static Map<String, Object> field(final String type) {
+        final Map<String, Object> field = new HashMap<String, Object>();
+        field.put("type", type);
+        field.put("doc_values", true);
+        return field;
+    }
+}
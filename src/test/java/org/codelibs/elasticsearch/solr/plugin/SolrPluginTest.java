@@ -15,11 +15,13 @@ import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.ContentStreamBase;
 import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
 import org.elasticsearch.common.settings.ImmutableSettings.Builder;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -73,6 +75,72 @@ public class SolrPluginTest extends TestCase {
         //		test_search_trackscores(server);
         //		test_search_explain(server);
         test_search_facet(server);
+        test_search_filterQuery(server);
+        test_search_cursorMark(server);
+        test_search_count(server);
+    }
+
+    public void test_CsvUpdate() throws Exception {
+        final String index = "csv";
+        final String type = "data";
+        final String url = "http://localhost:9201/" + index + "/" + type
+                + "/_solr";
+        final SolrServer server = new HttpSolrServer(url);
+
+        runner.createIndex(index, null);
+        runner.ensureYellow(index);
+        final XContentBuilder mappingBuilder = XContentFactory.jsonBuilder()//
+                .startObject()//
+                .startObject(type)//
+                .startObject("properties")//
+                .startObject("id")//
+                .field("type", "string")//
+                .field("index", "not_analyzed")//
+                .endObject()//
+                .startObject("price")//
+                .field("type", "integer")//
+                .endObject()//
+                .endObject()//
+                .endObject()//
+                .endObject();
+        runner.createMapping(index, type, mappingBuilder);
+
+        final StringBuilder buf = new StringBuilder();
+        buf.append("id;name;price;tags;memo\n");
+        for (int i = 1; i <= 100; i++) {
+            buf.append("id").append(i).append(';');
+            buf.append("\"doc").append(i).append("; from \"\"csv\"\"\";");
+            buf.append(i * 10).append(';');
+            buf.append("a,b").append(';');
+            buf.append("skipped\n");
+        }
+        final ContentStreamBase.StringStream stream = new ContentStreamBase.StringStream(
+                buf.toString());
+        stream.setContentType("text/csv");
+        final ContentStreamUpdateRequest updateRequest = new ContentStreamUpdateRequest(
+                "/update/csv");
+        updateRequest.addContentStream(stream);
+        updateRequest.setParam("separator", ";");
+        updateRequest.setParam("f.tags.split", "true");
+        updateRequest.setParam("skip", "memo");
+        updateRequest.setParam("commit", "true");
+        server.request(updateRequest);
+        runner.refresh();
+
+        final SolrQuery query = new SolrQuery();
+        query.setQuery("id:id1");
+        final QueryResponse rsp = server.query(query);
+        final SolrDocumentList resultsDocs = rsp.getResults();
+        assertEquals(1, resultsDocs.getNumFound());
+        final SolrDocument doc = resultsDocs.get(0);
+        assertEquals("doc1; from \"csv\"", doc.getFieldValue("name"));
+        assertEquals(10, doc.getFieldValue("price"));
+        assertEquals(2, doc.getFieldValues("tags").size());
+        assertNull(doc.getFieldValue("memo"));
+
+        final SolrQuery allQuery = new SolrQuery();
+        allQuery.setQuery("*:*");
+        assertEquals(100, server.query(allQuery).getResults().getNumFound());
     }
 
     private void test_search_facet(final SolrServer server)
@@ -256,6 +324,66 @@ public class SolrPluginTest extends TestCase {
         }
     }
 
+    private void test_search_filterQuery(final SolrServer server)
+            throws SolrServerException {
+        final SolrQuery query = new SolrQuery();
+        query.setQuery("*:*");
+        query.addFilterQuery("price:1000");
+        assertEquals(200, server.query(query).getResults().getNumFound());
+
+        // not cached
+        query.setFilterQueries("{!cache=false}price:1000");
+        assertEquals(200, server.query(query).getResults().getNumFound());
+
+        // equivalent filters
+        query.setFilterQueries("price:1000 AND name:single");
+        assertEquals(100, server.query(query).getResults().getNumFound());
+        query.setFilterQueries("(name:single  AND price:1000)");
+        assertEquals(100, server.query(query).getResults().getNumFound());
+    }
+
+    private void test_search_count(final SolrServer server)
+            throws SolrServerException {
+        final SolrQuery query = new SolrQuery();
+        query.setQuery("*:*");
+        final long numFound = server.query(query).getResults().getNumFound();
+
+        // document counts of the index
+        query.setRows(0);
+        QueryResponse response = server.query(query);
+        assertEquals(numFound, response.getResults().getNumFound());
+        assertEquals(0, response.getResults().size());
+
+        // count search
+        query.addFilterQuery("price:1000");
+        response = server.query(query);
+        assertEquals(200, response.getResults().getNumFound());
+        assertEquals(0, response.getResults().size());
+    }
+
+    private void test_search_cursorMark(final SolrServer server)
+            throws SolrServerException {
+        final SolrQuery query = new SolrQuery();
+        query.setQuery("*:*");
+        query.setRows(30);
+        final long numFound = server.query(query).getResults().getNumFound();
+
+        long count = 0;
+        String cursorMark = "*";
+        while (true) {
+            query.set("cursorMark", cursorMark);
+            final QueryResponse response = server.query(query);
+            count += response.getResults().size();
+            final String nextCursorMark = response.getNextCursorMark();
+            assertNotNull(nextCursorMark);
+            if (cursorMark.equals(nextCursorMark)) {
+                break;
+            }
+            cursorMark = nextCursorMark;
+        }
+        assertEquals(numFound, count);
+    }
+
     private void test_search_start10_rows20(final SolrServer server)
             throws SolrServerException {
         final SolrQuery query = new SolrQuery();
@@ -0,0 +1,106 @@
+package org.codelibs.elasticsearch.solr.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class ContentStreamsTest extends TestCase {
+
+    private final byte[] data = createData(10000);
+
+    public void test_open_identity() throws Exception {
+        assertFalse(ContentStreams.isCompressed(new FakeRestRequest()
+                .withContent(data)));
+        final FakeRestRequest request = new FakeRestRequest().withHeader(
+                "Content-Encoding", " identity ").withContent(data);
+        assertFalse(ContentStreams.isCompressed(request));
+        assertTrue(Arrays.equals(data,
+                read(ContentStreams.open(request, 100))));
+    }
+
+    public void test_open_gzip() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+
+        final FakeRestRequest request = new FakeRestRequest().withHeader(
+                "Content-Encoding", "GZIP").withContent(out.toByteArray());
+        assertTrue(ContentStreams.isCompressed(request));
+        assertTrue(Arrays.equals(data,
+                read(ContentStreams.open(request, data.length))));
+    }
+
+    public void test_open_deflate() throws Exception {
+        // zlib-wrapped as RFC 1950 says, and raw deflate
+        for (final boolean nowrap : new boolean[] { false, true }) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final DeflaterOutputStream deflate = new DeflaterOutputStream(out,
+                    new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+            deflate.write(data);
+            deflate.close();
+
+            final FakeRestRequest request = new FakeRestRequest().withHeader(
+                    "Content-Encoding", "deflate").withContent(
+                    out.toByteArray());
+            assertTrue(Arrays.equals(data,
+                    read(ContentStreams.open(request, data.length))));
+        }
+    }
+
+    public void test_open_limit() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+
+        final FakeRestRequest request = new FakeRestRequest().withHeader(
+                "Content-Encoding", "gzip").withContent(out.toByteArray());
+        final InputStream in = ContentStreams.open(request, data.length - 1);
+        try {
+            read(in);
+            fail();
+        } catch (final IOException e) {
+            // exceeded
+        }
+    }
+
+    public void test_open_unsupported() throws Exception {
+        final FakeRestRequest request = new FakeRestRequest().withHeader(
+                "Content-Encoding", "br").withContent(data);
+        try {
+            ContentStreams.open(request, data.length);
+            fail();
+        } catch (final IOException e) {
+            // unsupported
+        }
+    }
+
+    private static byte[] createData(final int length) {
+        final Random random = new Random(1);
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            // compressible text
+            bytes[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return bytes;
+    }
+
+    private static byte[] read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
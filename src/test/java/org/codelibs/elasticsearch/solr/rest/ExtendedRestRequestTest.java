@@ -0,0 +1,30 @@
+package org.codelibs.elasticsearch.solr.rest;
+
+import junit.framework.TestCase;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+
+public class ExtendedRestRequestTest extends TestCase {
+
+    public void test_paramAsChar() throws Exception {
+        final FakeRestRequest request = new FakeRestRequest("comma", ",",
+                "tab", "\t", "escapedTab", "\\t", "empty", "", "long", "ab");
+        assertEquals(',', ExtendedRestRequest.paramAsChar(request, "comma",
+                ';'));
+        // %09 is decoded before the parameter is read
+        assertEquals('\t',
+                ExtendedRestRequest.paramAsChar(request, "tab", ','));
+        assertEquals('\t', ExtendedRestRequest.paramAsChar(request,
+                "escapedTab", ','));
+        assertEquals(';', ExtendedRestRequest.paramAsChar(request, "empty",
+                ';'));
+        assertEquals(';', ExtendedRestRequest.paramAsChar(request,
+                "missing", ';'));
+        try {
+            ExtendedRestRequest.paramAsChar(request, "long", ',');
+            fail();
+        } catch (final ElasticsearchIllegalArgumentException e) {
+            // expected
+        }
+    }
+}
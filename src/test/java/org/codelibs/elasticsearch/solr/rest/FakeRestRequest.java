@@ -0,0 +1,96 @@
+package org.codelibs.elasticsearch.solr.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * A RestRequest of parameters, headers and content for unit tests.
+ */
+public class FakeRestRequest extends RestRequest {
+
+    private final Map<String, String> params = new HashMap<String, String>();
+
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    private BytesReference content;
+
+    /**
+     * @param keyValues
+     *            the names and values of the parameters
+     */
+    public FakeRestRequest(final String... keyValues) {
+        for (int i = 0; i < keyValues.length; i += 2) {
+            params.put(keyValues[i], keyValues[i + 1]);
+        }
+    }
+
+    public FakeRestRequest withHeader(final String name, final String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public FakeRestRequest withContent(final byte[] bytes) {
+        content = new BytesArray(bytes);
+        return this;
+    }
+
+    @Override
+    public Method method() {
+        return content == null ? Method.GET : Method.POST;
+    }
+
+    @Override
+    public String uri() {
+        return "/_solr/select";
+    }
+
+    @Override
+    public String rawPath() {
+        return "/_solr/select";
+    }
+
+    @Override
+    public boolean hasContent() {
+        return content != null && content.length() > 0;
+    }
+
+    @Override
+    public BytesReference content() {
+        return content;
+    }
+
+    @Override
+    public String header(final String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, String>> headers() {
+        return headers.entrySet();
+    }
+
+    @Override
+    public boolean hasParam(final String key) {
+        return params.containsKey(key);
+    }
+
+    @Override
+    public String param(final String key) {
+        return params.get(key);
+    }
+
+    @Override
+    public String param(final String key, final String defaultValue) {
+        final String value = params.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public Map<String, String> params() {
+        return params;
+    }
+}
@@ -0,0 +1,79 @@
+package org.codelibs.elasticsearch.solr.rest;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class RequestParamsTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public void test_parseQueryString() throws Exception {
+        final RequestParams params = new RequestParams();
+        params.parse("/solr/select?q=title%3A%E6%97%A5%E6%9C%AC+OR+body:x"
+                + "&fq=a&fq=b&rows=10&empty=&flag&=ignored&&wt=json",
+                "/solr/select?".length(), UTF_8);
+
+        assertEquals(7, params.size());
+        assertEquals("title:日本 OR body:x", params.value(params.indexOf("q")));
+        assertEquals(Arrays.asList("a", "b"),
+                Arrays.asList(params.getAll("fq")));
+        assertEquals("10", params.value(params.indexOf("rows")));
+        assertEquals("", params.value(params.indexOf("empty")));
+        assertEquals("", params.value(params.indexOf("flag")));
+        assertEquals("json", params.value(params.indexOf("wt")));
+        assertEquals(-1, params.indexOf("fl"));
+        assertEquals(Arrays.asList("q", "fq", "rows", "empty", "flag", "wt"),
+                params.distinctNames());
+    }
+
+    public void test_parseContent() throws Exception {
+        final RequestParams params = new RequestParams();
+        final byte[] content = "xxq=%E6%97%A5%E6%9C%AC+%2B1&sort=id+asc&v=a=b%"
+                .getBytes(UTF_8);
+        params.parse(content, 2, content.length - 2, UTF_8);
+
+        assertEquals(3, params.size());
+        assertEquals("日本 +1", params.value(params.indexOf("q")));
+        assertEquals("id asc", params.value(params.indexOf("sort")));
+        // an incomplete escape is kept as it is
+        assertEquals("a=b%", params.value(params.indexOf("v")));
+    }
+
+    public void test_decode() throws Exception {
+        final Random random = new Random(1);
+        final char[] chars = new char[32];
+        for (int n = 0; n < 10000; n++) {
+            final int length = 1 + random.nextInt(chars.length - 1);
+            for (int i = 0; i < length; i++) {
+                switch (random.nextInt(3)) {
+                case 0:
+                    chars[i] = (char) (0x20 + random.nextInt(0x5f));
+                    break;
+                case 1:
+                    chars[i] = (char) (0x3040 + random.nextInt(0x60));
+                    break;
+                default:
+                    chars[i] = "&=+% ".charAt(random.nextInt(5));
+                    break;
+                }
+            }
+            final String value = new String(chars, 0, length);
+            final String encoded = URLEncoder.encode(value, "UTF-8");
+
+            final RequestParams params = new RequestParams();
+            params.parse("p=" + encoded + "&p2=" + encoded, 0, UTF_8);
+            final byte[] bytes = ("p=" + encoded).getBytes(UTF_8);
+            params.parse(bytes, 0, bytes.length, UTF_8);
+
+            assertEquals(URLDecoder.decode(encoded, "UTF-8"), value);
+            assertEquals(Arrays.asList(value, value),
+                    Arrays.asList(params.getAll("p")));
+            assertEquals(value, params.value(params.indexOf("p2")));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import junit.framework.TestCase;
+
+public class FilterCacheTest extends TestCase {
+
+    public void test_normalize() throws Exception {
+        assertEquals("a:1 AND b:2", FilterCache.normalize(" a:1  AND\tb:2 "));
+        assertEquals("a:1 AND b:2", FilterCache.normalize("((a:1 AND b:2))"));
+        assertEquals("a:(1 OR 2)", FilterCache.normalize("a:(1  OR\n2)"));
+        assertEquals("title:\"foo  bar\"",
+                FilterCache.normalize("(title:\"foo  bar\")"));
+        // not a pair of outer parentheses
+        assertEquals("(a:1) OR (b:2)", FilterCache.normalize("(a:1) OR (b:2)"));
+        assertEquals("", FilterCache.normalize("  "));
+    }
+
+    public void test_normalize_order() throws Exception {
+        // the order of the clauses is kept
+        assertEquals("title: foo bar", FilterCache.normalize("title: foo bar"));
+        assertEquals("title: bar foo", FilterCache.normalize("title: bar foo"));
+        assertEquals("b:2 AND a:1", FilterCache.normalize("b:2 AND a:1"));
+        assertEquals("a:1 -b:2", FilterCache.normalize("a:1 -b:2"));
+    }
+}
@@ -0,0 +1,87 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import junit.framework.TestCase;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.AndFilterBuilder;
+import org.elasticsearch.index.query.BoolFilterBuilder;
+import org.elasticsearch.index.query.QueryFilterBuilder;
+
+public class FilterPlanTest extends TestCase {
+
+    private final FilterCache filterCache = new FilterCache(
+            ImmutableSettings.EMPTY, null);
+
+    public void test_create() throws Exception {
+        FilterPlan plan = FilterPlan.create(new String[] { "a:1" }, false,
+                true, filterCache);
+        assertTrue(plan.getFilter() instanceof QueryFilterBuilder);
+        assertNull(plan.getPostFilter());
+
+        plan = FilterPlan.create(new String[] { "a:1", "(b:2)" }, false, true,
+                filterCache);
+        assertTrue(plan.getFilter() instanceof BoolFilterBuilder);
+        assertNull(plan.getPostFilter());
+    }
+
+    public void test_create_postFilter() throws Exception {
+        final String[] fqs = { "a:1", "{!cache=false cost=10}b:2",
+                "{!cache=false cost=200}c:3",
+                "{!lucene cache=false cost=100}d:4" };
+
+        FilterPlan plan = FilterPlan.create(fqs, false, true, filterCache);
+        // the cached filter and the cheap uncached filter
+        assertTrue(plan.getFilter() instanceof AndFilterBuilder);
+        assertFalse(plan.getFilter().toString().contains("c:3"));
+        assertFalse(plan.getFilter().toString().contains("d:4"));
+        // the expensive filters
+        assertTrue(plan.getPostFilter() instanceof AndFilterBuilder);
+        assertTrue(plan.getPostFilter().toString().contains("c:3"));
+        assertTrue(plan.getPostFilter().toString().contains("d:4"));
+
+        // no post filter with faceting
+        plan = FilterPlan.create(fqs, false, false, filterCache);
+        assertTrue(plan.getFilter().toString().contains("c:3"));
+        assertNull(plan.getPostFilter());
+
+        // a cached filter is not a post filter
+        plan = FilterPlan.create(new String[] { "{!cost=200}c:3" }, false,
+                true, filterCache);
+        assertTrue(plan.getFilter() instanceof QueryFilterBuilder);
+        assertNull(plan.getPostFilter());
+    }
+
+    public void test_create_timeRelative() throws Exception {
+        assertTrue(FilterCache.isTimeRelative("ts:[NOW-1HOUR TO NOW]"));
+        assertTrue(FilterCache.isTimeRelative("ts:[now/d TO *]"));
+        assertFalse(FilterCache.isTimeRelative("title:nowhere"));
+
+        FilterPlan plan = FilterPlan.create(new String[] { "a:1" }, false,
+                true, filterCache);
+        assertTrue(plan.getFilter().toString().contains("_cache_key"));
+
+        plan = FilterPlan.create(new String[] { "ts:[NOW-1HOUR TO NOW]" },
+                false, true, filterCache);
+        assertTrue(plan.getFilter() instanceof QueryFilterBuilder);
+        assertFalse(plan.getFilter().toString().contains("_cache_key"));
+        assertFalse(plan.getFilter().toString().contains("\"_cache\" : true"));
+
+        // cached by the resolved dates
+        plan = FilterPlan.create(
+                new String[] { "{!cache=true}ts:[NOW-1HOUR TO NOW]" }, false,
+                true, filterCache);
+        assertFalse(plan.getFilter().toString().contains("_cache_key"));
+        assertTrue(plan.getFilter().toString().contains("\"_cache\" : true"));
+    }
+
+    public void test_create_unsupportedType() throws Exception {
+        try {
+            FilterPlan.create(new String[] { "{!term f=cat}books" }, false,
+                    true, filterCache);
+            fail();
+        } catch (final ElasticsearchIllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.codelibs.elasticsearch.solr.search;
+
+import junit.framework.TestCase;
+
+import org.elasticsearch.ElasticsearchParseException;
+
+public class LocalParamsTest extends TestCase {
+
+    public void test_parse() throws Exception {
+        LocalParams localParams = LocalParams.parse("title:foo");
+        assertTrue(localParams.isEmpty());
+        assertNull(localParams.getType());
+        assertEquals("title:foo", localParams.getQuery());
+
+        localParams = LocalParams
+                .parse("{!cache=false cost=200}price:[10 TO 100]");
+        assertFalse(localParams.isEmpty());
+        assertNull(localParams.getType());
+        assertFalse(localParams.getAsBoolean("cache", true));
+        assertEquals(200, localParams.getAsInt("cost", 0));
+        assertEquals("price:[10 TO 100]", localParams.getQuery());
+
+        localParams = LocalParams.parse("{!term f=cat}books");
+        assertEquals("term", localParams.getType());
+        assertEquals("cat", localParams.get("f"));
+        assertEquals("books", localParams.getQuery());
+
+        localParams = LocalParams
+                .parse("{!type=lucene v='title:\"a b\"' cache=false}ignored");
+        assertEquals("lucene", localParams.getType());
+        assertEquals("title:\"a b\"", localParams.getQuery());
+        assertFalse(localParams.getAsBoolean("cache", true));
+    }
+
+    public void test_parse_invalid() throws Exception {
+        try {
+            LocalParams.parse("{!cache=false title:foo");
+            fail();
+        } catch (final ElasticsearchParseException e) {
+            // expected
+        }
+        try {
+            LocalParams.parse("{!v='title:foo}");
+            fail();
+        } catch (final ElasticsearchParseException e) {
+            // expected
+        }
+        try {
+            LocalParams.parse("{!cost=high}title:foo").getAsInt("cost", 0);
+            fail();
+        } catch (final ElasticsearchParseException e) {
+            // expected
+        }
+    }
+}
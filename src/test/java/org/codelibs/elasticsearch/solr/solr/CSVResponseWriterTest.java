@@ -0,0 +1,111 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.codelibs.elasticsearch.solr.rest.FakeRestRequest;
+import org.elasticsearch.rest.RestRequest;
+
+public class CSVResponseWriterTest extends TestCase {
+
+    public void test_print() throws Exception {
+        final StringWriter out = new StringWriter();
+        final CSVResponseWriter.Printer printer = new CSVResponseWriter.Printer(
+                out, new FakeRestRequest());
+        printer.printHeader(Arrays.asList("id", "title"));
+        printer.print("a");
+        printer.print("x,y");
+        printer.endRow();
+        printer.print("b");
+        printer.print("say \"hi\"");
+        printer.endRow();
+        printer.print("c");
+        printer.print("line1\nline2");
+        printer.endRow();
+        printer.print(null);
+        printer.print("");
+        printer.endRow();
+        printer.flush();
+
+        assertEquals("id,title\n" //
+                + "a,\"x,y\"\n" //
+                + "b,\"say \"\"hi\"\"\"\n" //
+                + "c,\"line1\nline2\"\n" //
+                + ",\n", out.toString());
+    }
+
+    public void test_print_multiValues() throws Exception {
+        StringWriter out = new StringWriter();
+        CSVResponseWriter.Printer printer = new CSVResponseWriter.Printer(out,
+                new FakeRestRequest("csv.mv.separator", "|"));
+        printer.print(Arrays.asList("a", "b|c", "d\\e"));
+        printer.print(new Object[] { 1, 2 });
+        printer.endRow();
+        assertEquals("a|b\\|c|d\\\\e,1|2\n", out.toString());
+
+        // the values are joined with the separator by default, so they are
+        // quoted
+        out = new StringWriter();
+        printer = new CSVResponseWriter.Printer(out, new FakeRestRequest());
+        printer.print(Arrays.asList("a", "b,c"));
+        printer.endRow();
+        assertEquals("\"a,b\\,c\"\n", out.toString());
+    }
+
+    public void test_print_options() throws Exception {
+        final StringWriter out = new StringWriter();
+        final CSVResponseWriter.Printer printer = new CSVResponseWriter.Printer(
+                out, new FakeRestRequest("csv.header", "false",
+                        "csv.separator", "\\t", "csv.null", "NULL"));
+        printer.printHeader(Arrays.asList("id", "title"));
+        printer.print("a,b");
+        printer.print(null);
+        printer.endRow();
+        assertEquals("a,b\tNULL\n", out.toString());
+    }
+
+    public void test_write_score() throws Exception {
+        final SolrDocumentList docs = new SolrDocumentList();
+        final SolrDocument doc = new SolrDocument();
+        doc.addField("score", 1.5f);
+        doc.addField("id", "1");
+        docs.add(doc);
+        final NamedList<Object> response = new SimpleOrderedMap<Object>();
+        response.add("response", docs);
+
+        // the score is not a column unless fl lists it
+        assertEquals("id\n1\n", write(response, new FakeRestRequest()));
+        assertEquals("id\n1\n",
+                write(response, new FakeRestRequest("fl", "*")));
+        assertEquals("score,id\n1.5,1\n",
+                write(response, new FakeRestRequest("fl", "*,score")));
+        assertEquals("id,score\n1,1.5\n",
+                write(response, new FakeRestRequest("fl", "id,score")));
+    }
+
+    public void test_write_withoutDocuments() throws Exception {
+        final NamedList<Object> error = new SimpleOrderedMap<Object>();
+        error.add("msg", "bad request");
+        error.add("code", 400);
+        final NamedList<Object> response = new SimpleOrderedMap<Object>();
+        response.add("error", error);
+
+        final String body = write(response, new FakeRestRequest());
+        assertTrue(body.startsWith("<?xml"));
+        assertTrue(body.contains("bad request"));
+    }
+
+    private static String write(final NamedList<Object> response,
+            final RestRequest request) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CSVResponseWriter().write(response, request, out);
+        return new String(out.toByteArray(), SolrResponseUtils.UTF_8);
+    }
+}
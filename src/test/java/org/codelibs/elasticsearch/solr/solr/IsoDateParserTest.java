@@ -0,0 +1,51 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+public class IsoDateParserTest extends TestCase {
+
+    public void test_parse() throws Exception {
+        final SimpleDateFormat sdf = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        assertEquals(0L, IsoDateParser.parse("1970-01-01T00:00:00Z"));
+        assertEquals(sdf.parse("2000-01-01T00:00:00.000Z").getTime(),
+                IsoDateParser.parse("2000-01-01T00:00:00Z"));
+        assertEquals(sdf.parse("2012-02-29T23:59:59.123Z").getTime(),
+                IsoDateParser.parse("2012-02-29T23:59:59.123Z"));
+        assertEquals(sdf.parse("2012-02-29T23:59:59.100Z").getTime(),
+                IsoDateParser.parse("2012-02-29T23:59:59.1Z"));
+        assertEquals(sdf.parse("1969-12-31T23:59:59.999Z").getTime(),
+                IsoDateParser.parse("1969-12-31T23:59:59.999999Z"));
+        assertEquals(sdf.parse("1999-12-31T15:00:00.000Z").getTime(),
+                IsoDateParser.parse("2000-01-01T00:00:00.000+0900"));
+        assertEquals(sdf.parse("2000-01-01T05:30:00.000Z").getTime(),
+                IsoDateParser.parse("2000-01-01T00:00:00-05:30"));
+        assertEquals(sdf.parse("2000-01-01T00:00:00.000Z").getTime(),
+                IsoDateParser.parse("2000-01-01T00:00:00"));
+    }
+
+    public void test_parse_invalid() {
+        assertEquals(IsoDateParser.INVALID, IsoDateParser.parse(""));
+        assertEquals(IsoDateParser.INVALID, IsoDateParser.parse("NOW"));
+        assertEquals(IsoDateParser.INVALID, IsoDateParser.parse("2000-01-01"));
+        assertEquals(IsoDateParser.INVALID,
+                IsoDateParser.parse("2000-13-01T00:00:00Z"));
+        assertEquals(IsoDateParser.INVALID,
+                IsoDateParser.parse("2001-02-29T00:00:00Z"));
+        assertEquals(IsoDateParser.INVALID,
+                IsoDateParser.parse("2000-01-01T24:00:00Z"));
+        assertEquals(IsoDateParser.INVALID,
+                IsoDateParser.parse("2000-01-01T00:00:00.Z"));
+        assertEquals(IsoDateParser.INVALID,
+                IsoDateParser.parse("2000-01-01T00:00:00Zabc"));
+        assertEquals(IsoDateParser.INVALID,
+                IsoDateParser.parse("2000-01-01 00:00:00Z"));
+        assertNull(IsoDateParser.parseDate("some text"));
+    }
+}
@@ -0,0 +1,138 @@
+package org.codelibs.elasticsearch.solr.solr;
+
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+public class ResponseEncoderTest extends TestCase {
+
+    public void test_writeJsonString() throws Exception {
+        assertJsonString("");
+        assertJsonString("abc");
+        assertJsonString("\"quoted\" \\path\\");
+        assertJsonString("line1\nline2\r\n\ttab\b\f\u0000\u001f");
+        assertJsonString("日本語のテキスト、全角　スペース");
+        assertJsonString("\u2028\u2029\u2027\u202a");
+        assertJsonString("!#$%&'()*+,-./:;<=>?@[]^_`{|}~");
+
+        final Random random = new Random(1);
+        final char[] chars = new char[64];
+        for (int n = 0; n < 10000; n++) {
+            final int length = random.nextInt(chars.length);
+            for (int i = 0; i < length; i++) {
+                switch (random.nextInt(3)) {
+                case 0:
+                    chars[i] = (char) random.nextInt(128);
+                    break;
+                case 1:
+                    chars[i] = (char) (0x3040 + random.nextInt(0x60));
+                    break;
+                default:
+                    chars[i] = (char) random.nextInt(0x10000);
+                    break;
+                }
+            }
+            assertJsonString(new String(chars, 0, length));
+        }
+    }
+
+    public void test_formatDate() throws Exception {
+        final SimpleDateFormat secondFormat = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+        secondFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final SimpleDateFormat millisFormat = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.ROOT);
+        millisFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        assertEquals("1970-01-01T00:00:00Z",
+                ResponseEncoder.formatDate(0, true));
+        assertEquals("2000-02-29T12:34:56.78Z",
+                ResponseEncoder.formatDate(951827696780L, true));
+        assertEquals("2000-02-29T12:34:56Z",
+                ResponseEncoder.formatDate(951827696780L, false));
+        assertEquals("1969-12-31T23:59:59.999Z",
+                ResponseEncoder.formatDate(-1, true));
+        assertNull(ResponseEncoder.formatDate(Long.MAX_VALUE, true));
+
+        final Random random = new Random(1);
+        for (int n = 0; n < 10000; n++) {
+            // 1900 to 2100
+            final long millis = (long) (random.nextDouble() * 6.3e12)
+                    - 2208988800000L;
+            final Date date = new Date(millis);
+            assertEquals(secondFormat.format(date),
+                    ResponseEncoder.formatDate(millis, false));
+
+            String expected = millisFormat.format(date);
+            if (expected.endsWith(".000")) {
+                expected = expected.substring(0, expected.length() - 4);
+            } else {
+                while (expected.endsWith("0")) {
+                    expected = expected.substring(0, expected.length() - 1);
+                }
+            }
+            assertEquals(expected + 'Z',
+                    ResponseEncoder.formatDate(millis, true));
+        }
+    }
+
+    private void assertJsonString(final String value) throws Exception {
+        final String expected = escapeByChar(value);
+        final StringWriter writer = new StringWriter();
+        ResponseEncoder.writeJsonString(writer, value);
+        assertEquals(expected, writer.toString());
+        assertEquals(expected, ResponseEncoder.quoteJsonString(value));
+    }
+
+    /**
+     * The character-by-character escaping that JSONWriter used before.
+     */
+    private static String escapeByChar(final String val) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append('"');
+        for (int i = 0; i < val.length(); i++) {
+            final char ch = val.charAt(i);
+            if (ch > '#' && ch != '\\' && ch < '\u2028' || ch == ' ') {
+                buf.append(ch);
+                continue;
+            }
+            switch (ch) {
+            case '"':
+            case '\\':
+                buf.append('\\').append(ch);
+                break;
+            case '\r':
+                buf.append("\\r");
+                break;
+            case '\n':
+                buf.append("\\n");
+                break;
+            case '\t':
+                buf.append("\\t");
+                break;
+            case '\b':
+                buf.append("\\b");
+                break;
+            case '\f':
+                buf.append("\\f");
+                break;
+            case '\u2028':
+            case '\u2029':
+                buf.append(String.format("\\u%04x", (int) ch));
+                break;
+            default:
+                if (ch <= 0x1F) {
+                    buf.append(String.format("\\u%04x", (int) ch));
+                } else {
+                    buf.append(ch);
+                }
+            }
+        }
+        return buf.append('"').toString();
+    }
+}
@@ -0,0 +1,113 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import junit.framework.TestCase;
+
+import org.codelibs.elasticsearch.solr.rest.FakeRestRequest;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.settings.ImmutableSettings;
+
+public class FileImportServiceTest extends TestCase {
+
+    private Path tempDir;
+
+    private Path root;
+
+    private Path outside;
+
+    private FileImportService service;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = Files.createTempDirectory("solr-import");
+        root = Files.createDirectory(tempDir.resolve("root"));
+        outside = Files.write(tempDir.resolve("outside.xml"),
+                "<add/>".getBytes("UTF-8"));
+        service = createService(root.toString());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.walkFileTree(tempDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir,
+                    final IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        super.tearDown();
+    }
+
+    public void test_getStreamFile() throws Exception {
+        assertEquals("/tmp/a.xml", FileImportService
+                .getStreamFile(new FakeRestRequest("stream.file",
+                        "/tmp/a.xml")));
+        assertEquals(outside.toString(), FileImportService
+                .getStreamFile(new FakeRestRequest("stream.url", outside
+                        .toUri().toString())));
+        assertNull(FileImportService.getStreamFile(new FakeRestRequest(
+                "stream.url", "http://localhost/a.xml")));
+        assertNull(FileImportService.getStreamFile(new FakeRestRequest()));
+    }
+
+    public void test_startImport_disabled() throws Exception {
+        assertRejected(createService(), outside.toString());
+    }
+
+    public void test_startImport_parentPath() throws Exception {
+        assertRejected(service, root.toString() + "/../outside.xml");
+    }
+
+    public void test_startImport_symlink() throws Exception {
+        final Path link = Files.createSymbolicLink(root.resolve("link.xml"),
+                outside);
+        assertRejected(service, link.toString());
+
+        final Path dirLink = Files.createSymbolicLink(root.resolve("dir"),
+                tempDir);
+        assertRejected(service, dirLink.resolve("outside.xml").toString());
+    }
+
+    public void test_startImport_fileUrl() throws Exception {
+        final String streamFile = FileImportService
+                .getStreamFile(new FakeRestRequest("stream.url", outside
+                        .toUri().toString()));
+        assertRejected(service, streamFile);
+    }
+
+    public void test_startImport_notFile() throws Exception {
+        assertRejected(service, root.toString());
+        assertRejected(service, root.resolve("missing.xml").toString());
+    }
+
+    private static FileImportService createService(final String... dirs) {
+        return new FileImportService(ImmutableSettings.settingsBuilder()
+                .putArray("solr.streamFile.allowedDirs", dirs).build(), null,
+                null, null, null, null);
+    }
+
+    private static void assertRejected(final FileImportService service,
+            final String streamFile) {
+        try {
+            service.startImport(new FakeRestRequest(), streamFile);
+            fail(streamFile + " is imported.");
+        } catch (final ElasticsearchIllegalArgumentException e) {
+            // rejected before the import starts
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest.ACTION;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.codelibs.elasticsearch.solr.solr.JavaBinUpdateRequestCodec;
+import org.elasticsearch.common.settings.ImmutableSettings;
+
+public class JavaBinUpdateReaderTest extends TestCase {
+
+    private static final Executor THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            new Thread(command).start();
+        }
+    };
+
+    private final FieldNamePool fieldNamePool = new FieldNamePool(
+            ImmutableSettings.EMPTY);
+
+    public void test_next() throws Exception {
+        final byte[] content = createContent(10);
+        assertCommands(10, new JavaBinUpdateReader(new ByteArrayInputStream(
+                content), fieldNamePool));
+    }
+
+    public void test_next_streaming() throws Exception {
+        final byte[] content = createContent(100);
+        // fewer documents than the queue holds
+        assertCommands(100, new JavaBinUpdateReader(new ByteArrayInputStream(
+                content), fieldNamePool, THREAD_EXECUTOR, 1000));
+        // the decoder waits for the reader
+        assertCommands(100, new JavaBinUpdateReader(new ByteArrayInputStream(
+                content), fieldNamePool, THREAD_EXECUTOR, 3));
+    }
+
+    public void test_next_streamingTruncated() throws Exception {
+        final byte[] content = createContent(100);
+        final UpdateReader reader = new JavaBinUpdateReader(
+                new ByteArrayInputStream(Arrays.copyOf(content,
+                        content.length / 2)), fieldNamePool, THREAD_EXECUTOR,
+                10);
+        try {
+            while (reader.next() != null) {
+                // read until the failure
+            }
+            fail();
+        } catch (final IOException e) {
+            // truncated
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    private static byte[] createContent(final int numDocs) throws IOException {
+        final UpdateRequest request = new UpdateRequest();
+        for (int i = 0; i < numDocs; i++) {
+            final SolrInputDocument doc = new SolrInputDocument();
+            doc.addField("id", "doc" + i);
+            doc.addField("title", "title " + i);
+            request.add(doc);
+        }
+        request.deleteById("old");
+        request.deleteByQuery("type:old");
+        request.setAction(ACTION.COMMIT, false, false);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JavaBinUpdateRequestCodec().marshal(request, out);
+        return out.toByteArray();
+    }
+
+    private static void assertCommands(final int numDocs,
+            final UpdateReader reader) throws IOException {
+        for (int i = 0; i < numDocs; i++) {
+            final UpdateCommand command = reader.next();
+            assertEquals(UpdateCommand.Type.ADD, command.getType());
+            assertEquals("doc" + i, command.getDocument().get("id"));
+        }
+        UpdateCommand command = reader.next();
+        assertEquals(UpdateCommand.Type.DELETE_BY_ID, command.getType());
+        assertEquals("old", command.getValue());
+        command = reader.next();
+        assertEquals(UpdateCommand.Type.DELETE_BY_QUERY, command.getType());
+        assertEquals("type:old", command.getValue());
+        assertEquals(UpdateCommand.Type.COMMIT, reader.next().getType());
+        assertNull(reader.next());
+        reader.close();
+    }
+}
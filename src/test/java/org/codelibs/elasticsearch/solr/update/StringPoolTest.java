@@ -0,0 +1,56 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import junit.framework.TestCase;
+
+public class StringPoolTest extends TestCase {
+
+    public void test_get() throws Exception {
+        final StringPool pool = new StringPool(100, 16);
+        assertEquals(128, pool.getSize());
+
+        final String title = pool.get(new String("title"));
+        assertSame(title, pool.get(new String("title")));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0.5f, pool.getHitRate());
+    }
+
+    public void test_get_stringBuilder() throws Exception {
+        final StringPool pool = new StringPool(16, 16);
+        final String title = pool.get("title");
+        final StringBuilder buf = new StringBuilder("tit").append("le");
+        assertSame(title, pool.get(buf));
+
+        final String body = pool.get(new StringBuilder("body"));
+        assertEquals("body", body);
+        assertSame(body, pool.get(new String("body")));
+    }
+
+    public void test_get_collision() throws Exception {
+        // every string is in the same slot
+        final StringPool pool = new StringPool(1, 16);
+        final String title = pool.get(new String("title"));
+        final String body = pool.get(new String("body"));
+        assertEquals("body", body);
+        assertSame(body, pool.get(new String("body")));
+
+        // title was replaced by body
+        final String title2 = pool.get(new String("title"));
+        assertEquals(title, title2);
+        assertNotSame(title, title2);
+        assertEquals(1, pool.getHits());
+        assertEquals(3, pool.getMisses());
+    }
+
+    public void test_get_maxLength() throws Exception {
+        final StringPool pool = new StringPool(16, 4);
+        final String name = pool.get(new String("abcd"));
+        assertSame(name, pool.get(new String("abcd")));
+
+        final String longName = pool.get(new String("abcde"));
+        assertEquals("abcde", longName);
+        assertNotSame(longName, pool.get(new String("abcde")));
+        assertEquals(1, pool.getHits());
+        assertEquals(3, pool.getMisses());
+    }
+}
@@ -0,0 +1,173 @@
+package org.codelibs.elasticsearch.solr.update;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+
+public class UpdateJournalTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("journal");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path d,
+                    final IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public void test_roundTrip() throws Exception {
+        UpdateJournal journal = new UpdateJournal(dir, 64, 3, false);
+        assertNull(journal.poll(0));
+        // 2 records of 23 bytes per segment
+        for (int i = 0; i < 6; i++) {
+            journal.append(("record" + i).getBytes(UTF_8));
+        }
+        assertEquals(6, journal.getNumPending());
+        assertEquals(3, journal.getNumSegments());
+        try {
+            journal.append("record6".getBytes(UTF_8));
+            fail();
+        } catch (final EsRejectedExecutionException e) {
+            // full
+        }
+
+        UpdateJournal.Record record = journal.poll(0);
+        assertEquals("record0", new String(record.getData(), UTF_8));
+        // the same record until it is committed
+        assertEquals("record0",
+                new String(journal.poll(0).getData(), UTF_8));
+        journal.commit(record);
+        record = journal.poll(0);
+        assertEquals("record1", new String(record.getData(), UTF_8));
+        journal.commit(record);
+        record = journal.poll(0);
+        assertEquals("record2", new String(record.getData(), UTF_8));
+        journal.commit(record);
+        // the first segment is deleted
+        assertEquals(2, journal.getNumSegments());
+        assertEquals(3, journal.getNumCommitted());
+        assertEquals(3, journal.getNumPending());
+        journal.close();
+
+        // the uncommitted records are read again
+        journal = new UpdateJournal(dir, 64, 3, false);
+        assertEquals(3, journal.getNumPending());
+        record = journal.poll(0);
+        assertEquals("record3", new String(record.getData(), UTF_8));
+        journal.commit(record);
+        journal.append("record6".getBytes(UTF_8));
+        for (int i = 4; i <= 6; i++) {
+            record = journal.poll(0);
+            assertEquals("record" + i, new String(record.getData(), UTF_8));
+            journal.commit(record);
+        }
+        assertEquals(1, journal.getNumSegments());
+        assertNull(journal.poll(0));
+        assertEquals(0, journal.getNumPending());
+        journal.close();
+    }
+
+    public void test_corruptedRecord() throws Exception {
+        UpdateJournal journal = new UpdateJournal(dir, 64, 4, false);
+        for (int i = 0; i < 6; i++) {
+            journal.append(("record" + i).getBytes(UTF_8));
+        }
+        journal.close();
+
+        // the data of record1 and the length of record2
+        final Path segment0 = getSegment(0);
+        final byte[] bytes0 = Files.readAllBytes(segment0);
+        bytes0[23 + 16] ^= 1;
+        Files.write(segment0, bytes0);
+        final Path segment1 = getSegment(1);
+        final byte[] bytes1 = Files.readAllBytes(segment1);
+        bytes1[2] = 0x7f;
+        Files.write(segment1, bytes1);
+
+        journal = new UpdateJournal(dir, 64, 4, false);
+        // the records after the corrupted length are not counted
+        assertEquals(4, journal.getNumPending());
+        UpdateJournal.Record record = journal.poll(0);
+        assertEquals("record0", new String(record.getData(), UTF_8));
+        journal.commit(record);
+        // record1 is skipped by its length, and the rest of the segment of
+        // record2 cannot be read
+        record = journal.poll(0);
+        assertEquals("record4", new String(record.getData(), UTF_8));
+        assertEquals(2, journal.getNumCorrupted());
+        assertEquals(2, journal.getNumPending());
+        journal.commit(record);
+        record = journal.poll(0);
+        assertEquals("record5", new String(record.getData(), UTF_8));
+        journal.commit(record);
+        assertNull(journal.poll(0));
+        assertEquals(0, journal.getNumPending());
+        journal.close();
+
+        // the corrupted records are not read again
+        journal = new UpdateJournal(dir, 64, 4, false);
+        assertEquals(0, journal.getNumPending());
+        assertNull(journal.poll(0));
+        journal.close();
+    }
+
+    public void test_corruptedLastSegment() throws Exception {
+        UpdateJournal journal = new UpdateJournal(dir, 64, 4, false);
+        for (int i = 0; i < 2; i++) {
+            journal.append(("record" + i).getBytes(UTF_8));
+        }
+        journal.close();
+
+        final Path segment0 = getSegment(0);
+        final byte[] bytes = Files.readAllBytes(segment0);
+        bytes[16] ^= 1;
+        Files.write(segment0, bytes);
+
+        journal = new UpdateJournal(dir, 64, 4, false);
+        assertEquals(2, journal.getNumPending());
+        journal.append("record2".getBytes(UTF_8));
+        // the corrupted record is skipped, not taken as the end of the
+        // segment
+        UpdateJournal.Record record = journal.poll(0);
+        assertEquals("record1", new String(record.getData(), UTF_8));
+        assertEquals(1, journal.getNumCorrupted());
+        journal.commit(record);
+        record = journal.poll(0);
+        assertEquals("record2", new String(record.getData(), UTF_8));
+        journal.commit(record);
+        assertEquals(0, journal.getNumPending());
+        journal.close();
+    }
+
+    private Path getSegment(final long id) {
+        return dir.resolve(String.format(Locale.ROOT, "segment-%019d.log", id));
+    }
+}